@@ -0,0 +1,173 @@
+package controller;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Students of one grade/class ordered by overall average, best first, for
+ * class ranks and top/bottom lists.
+ *
+ * The order is kept in a treap (a binary search tree balanced by random
+ * priorities) whose nodes also count the nodes below them, so adding or
+ * removing a student, finding a student's rank and reaching the n-th
+ * student all take O(log n) expected time. Students with equal averages are
+ * ordered by ID.
+ *
+ * Not thread-safe; the controller guards it with its roster lock.
+ */
+final class ClassRanking {
+    
+    private final Random priorities = new Random();
+    private Node root;
+    
+    // Add a student with the given overall average; the student must not be ranked already
+    void add(String id, double average) {
+        Node[] parts = split(root, average, id);
+        root = merge(merge(parts[0], new Node(id, average, priorities.nextInt())), parts[1]);
+    }
+    
+    // Remove a student that was added with the given overall average
+    void remove(String id, double average) {
+        root = remove(root, average, id);
+    }
+    
+    // Number of ranked students
+    int size() {
+        return size(root);
+    }
+    
+    // Rank of an average: 1 plus the number of students with a higher one
+    int rankOf(double average) {
+        int above = 0;
+        Node node = root;
+        while (node != null) {
+            if (node.average > average) {
+                above += size(node.left) + 1;
+                node = node.right;
+            } else {
+                node = node.left;
+            }
+        }
+        return above + 1;
+    }
+    
+    // IDs of the best n students, best first
+    List<String> top(int n) {
+        int count = Math.max(0, Math.min(n, size()));
+        List<String> ids = new ArrayList<>(count);
+        for (int index = 0; index < count; index++) {
+            ids.add(nth(index));
+        }
+        return ids;
+    }
+    
+    // IDs of the weakest n students, weakest first
+    List<String> bottom(int n) {
+        int count = Math.max(0, Math.min(n, size()));
+        List<String> ids = new ArrayList<>(count);
+        for (int index = size() - 1; index >= size() - count; index--) {
+            ids.add(nth(index));
+        }
+        return ids;
+    }
+    
+    // ID of the student at a zero-based position, best first
+    private String nth(int index) {
+        Node node = root;
+        while (true) {
+            int leftSize = size(node.left);
+            if (index < leftSize) {
+                node = node.left;
+            } else if (index == leftSize) {
+                return node.id;
+            } else {
+                index -= leftSize + 1;
+                node = node.right;
+            }
+        }
+    }
+    
+    // Whether (average, id) sorts before the node: higher averages first, then by ID
+    private static boolean before(double average, String id, Node node) {
+        int order = Double.compare(node.average, average);
+        return order != 0 ? order < 0 : id.compareTo(node.id) < 0;
+    }
+    
+    // Split into the nodes sorting before (average, id) and the rest
+    private static Node[] split(Node node, double average, String id) {
+        if (node == null) {
+            return new Node[2];
+        }
+        if (before(average, id, node)) {
+            Node[] parts = split(node.left, average, id);
+            node.left = parts[1];
+            node.update();
+            parts[1] = node;
+            return parts;
+        }
+        Node[] parts = split(node.right, average, id);
+        node.right = parts[0];
+        node.update();
+        parts[0] = node;
+        return parts;
+    }
+    
+    // Join two treaps where every node of the first sorts before every node of the second
+    private static Node merge(Node first, Node second) {
+        if (first == null) {
+            return second;
+        }
+        if (second == null) {
+            return first;
+        }
+        if (first.priority > second.priority) {
+            first.right = merge(first.right, second);
+            first.update();
+            return first;
+        }
+        second.left = merge(first, second.left);
+        second.update();
+        return second;
+    }
+    
+    private static Node remove(Node node, double average, String id) {
+        if (node == null) {
+            return null;
+        }
+        if (node.id.equals(id) && Double.compare(node.average, average) == 0) {
+            return merge(node.left, node.right);
+        }
+        if (before(average, id, node)) {
+            node.left = remove(node.left, average, id);
+        } else {
+            node.right = remove(node.right, average, id);
+        }
+        node.update();
+        return node;
+    }
+    
+    private static int size(Node node) {
+        return node == null ? 0 : node.size;
+    }
+    
+    private static final class Node {
+        
+        final String id;
+        final double average;
+        final int priority;
+        int size = 1;
+        Node left;
+        Node right;
+        
+        Node(String id, double average, int priority) {
+            this.id = id;
+            this.average = average;
+            this.priority = priority;
+        }
+        
+        void update() {
+            size = 1 + ClassRanking.size(left) + ClassRanking.size(right);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package controller;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+import model.Student;
+
+/**
+ * Versioned view of the roster.
+ *
+ * Snapshots are built by {@link StudentController} only after a write has
+ * changed the roster, and are then handed to every reader without copying.
+ * For a roster on the heap a snapshot is the roster at one point in time: it
+ * never changes after it is built, because the controller saves every
+ * change as a new student rather than editing one in place. Readers can hold
+ * on to it and iterate it while the roster keeps changing.
+ *
+ * For a roster kept outside the heap (memory-mapped or off-heap) a snapshot
+ * holds only the student IDs, so it costs no more than the grade index. Only
+ * the list of IDs is fixed: each student is decoded when it is read and not
+ * kept, so it shows the student as it is at that time; {@link #get} returns
+ * null for a student removed since, and iteration skips it.
+ */
+public final class RosterSnapshot implements Iterable<Student> {
+    
+    private final long version;
+    private final List<Student> students;
+    // Null unless the students are decoded on every read
+    private final String[] ids;
+    
+    RosterSnapshot(long version, Student[] students) {
+        this(version, Collections.unmodifiableList(Arrays.asList(students)), null);
+    }
+    
+    RosterSnapshot(long version, String[] ids, Function<String, Student> reader) {
+        this(version, new PagedList(ids, reader), ids);
+    }
+    
+    private RosterSnapshot(long version, List<Student> students, String[] ids) {
+        this.version = version;
+        this.students = students;
+        this.ids = ids;
+    }
+    
+    // Same students under a newer version, sharing the underlying list
+    RosterSnapshot withVersion(long newVersion) {
+        return new RosterSnapshot(newVersion, students, ids);
+    }
+    
+    // ID of the student at a position, without decoding a student that is not on the heap
+    String getId(int index) {
+        return ids != null ? ids[index] : students.get(index).getId();
+    }
+    
+    // Roster version this snapshot was taken at; increases with every write
+    public long getVersion() {
+        return version;
+    }
+    
+    // Students in roster order, as an unmodifiable list
+    public List<Student> getStudents() {
+        return students;
+    }
+    
+    public Student get(int index) {
+        return students.get(index);
+    }
+    
+    public int size() {
+        return students.size();
+    }
+    
+    @Override
+    public Iterator<Student> iterator() {
+        return students.iterator();
+    }
+    
+    // Students listed by ID and decoded on every read
+    private static final class PagedList extends AbstractList<Student> {
+        
+        private final String[] ids;
+        private final Function<String, Student> reader;
+        
+        PagedList(String[] ids, Function<String, Student> reader) {
+            this.ids = ids;
+            this.reader = reader;
+        }
+        
+        @Override
+        public Student get(int index) {
+            return reader.apply(ids[index]);
+        }
+        
+        @Override
+        public int size() {
+            return ids.length;
+        }
+        
+        @Override
+        public Iterator<Student> iterator() {
+            return new Iterator<Student>() {
+                private int index;
+                private Student next;
+                
+                @Override
+                public boolean hasNext() {
+                    while (next == null && index < ids.length) {
+                        next = reader.apply(ids[index++]);
+                    }
+                    return next != null;
+                }
+                
+                @Override
+                public Student next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    Student student = next;
+                    next = null;
+                    return student;
+                }
+            };
+        }
+    }
+}
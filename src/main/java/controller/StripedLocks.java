@@ -0,0 +1,57 @@
+package controller;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Fixed set of locks shared out by key hash.
+ *
+ * Guarding each student with the lock of its ID stripe lets updates to
+ * different students proceed in parallel without keeping one lock object
+ * per student.
+ */
+class StripedLocks {
+    
+    private final ReentrantLock[] locks;
+    private final int mask;
+    
+    // Stripe count is rounded up to a power of two
+    StripedLocks(int stripes) {
+        int size = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        this.locks = new ReentrantLock[size];
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+    
+    // Lock guarding the given key
+    ReentrantLock lockFor(String key) {
+        return locks[stripeOf(key)];
+    }
+    
+    // Acquire the stripes of several keys in ascending order; returns the stripes to release
+    int[] lockKeys(Collection<String> keys) {
+        BitSet stripes = new BitSet(locks.length);
+        for (String key : keys) {
+            stripes.set(stripeOf(key));
+        }
+        int[] held = stripes.stream().toArray();
+        for (int stripe : held) {
+            locks[stripe].lock();
+        }
+        return held;
+    }
+    
+    void unlock(int[] stripes) {
+        for (int i = stripes.length - 1; i >= 0; i--) {
+            locks[stripes[i]].unlock();
+        }
+    }
+    
+    private int stripeOf(String key) {
+        int hash = key.hashCode();
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+}
@@ -0,0 +1,68 @@
+package controller;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import model.Student;
+
+/**
+ * Group of roster changes that {@link StudentController#apply} carries out
+ * together: either every change is saved or none of them is.
+ *
+ * Changes are applied in the order they were added, so a later change to the
+ * same student wins.
+ */
+public class StudentBatch {
+    
+    private final List<Change> changes = new ArrayList<>();
+    
+    // Add a student, replacing any student with the same ID
+    public StudentBatch add(Student student) {
+        changes.add(new Change(ChangeType.ADD, student.getId(), student));
+        return this;
+    }
+    
+    // Replace an existing student; ignored if no student has its ID
+    public StudentBatch update(Student student) {
+        changes.add(new Change(ChangeType.UPDATE, student.getId(), student));
+        return this;
+    }
+    
+    // Remove the student with the given ID, if there is one
+    public StudentBatch remove(String id) {
+        changes.add(new Change(ChangeType.REMOVE, id, null));
+        return this;
+    }
+    
+    public int size() {
+        return changes.size();
+    }
+    
+    public boolean isEmpty() {
+        return changes.isEmpty();
+    }
+    
+    List<Change> getChanges() {
+        return Collections.unmodifiableList(changes);
+    }
+    
+    enum ChangeType {
+        ADD,
+        UPDATE,
+        REMOVE
+    }
+    
+    // One queued change; the student is null for removals
+    static class Change {
+        
+        final ChangeType type;
+        final String id;
+        final Student student;
+        
+        Change(ChangeType type, String id, Student student) {
+            this.type = type;
+            this.id = id;
+            this.student = student;
+        }
+    }
+}
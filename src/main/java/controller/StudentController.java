@@ -2,85 +2,1005 @@ package controller;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import model.AttendanceRecord;
+import model.AttendanceRecord.AttendanceStatus;
 import model.Student;
+import persistence.BinarySnapshot;
+import persistence.Checkpointer;
+import persistence.LazyStudentMap;
+import persistence.MappedStudentStore;
+import persistence.OffHeapStudentMap;
+import persistence.OffHeapStudentStore;
+import persistence.PersistenceWriter;
+import persistence.StudentJournal;
 
 /**
  * Controller class for managing student data
+ * 
+ * Mutations are appended to a journal instead of rewriting the whole data
+ * file. A background {@link Checkpointer} folds the journal into a fresh
+ * snapshot once it grows past a size limit or a time interval has passed
+ * (the {@code studentreport.checkpoint.journalBytes} and
+ * {@code studentreport.checkpoint.intervalSeconds} system properties), without
+ * stopping edits.
+ * 
+ * Students are indexed by ID and, as a secondary index, by grade/class so
+ * that lookups and class-level queries do not scan the roster.
+ * 
+ * Large snapshots (or any snapshot when the {@code studentreport.mappedStore}
+ * system property is set) are memory-mapped instead of loaded: students are
+ * decoded on demand and the grade index is built on first use. With the
+ * {@code studentreport.offHeapStore} system property the roster is kept in
+ * an {@link OffHeapStudentStore} outside the Java heap instead.
+ * 
+ * Journal records are encoded on the calling thread and written by a
+ * background {@link PersistenceWriter}, so callers such as the Swing event
+ * thread never wait for disk I/O. Call {@link #close()} before exiting to
+ * flush pending writes.
+ * 
+ * Readers get a {@link RosterSnapshot} that is rebuilt only after a write
+ * changed the roster, so repeated reads cost nothing. Writes never change a
+ * stored student in place; they replace it with a changed copy. For a
+ * memory-mapped or off-heap roster the snapshot lists only the IDs and
+ * decodes each student when it is read, so listing the roster does not load
+ * it. Full scans of an off-heap roster (checkpoints, the flag and ranking
+ * rebuilds, and {@link #scanOffHeap}) read its columns through a cursor and
+ * decode no students at all.
+ * 
+ * The controller is thread-safe. Each student is guarded by the lock of its
+ * ID stripe, so edits to different students run in parallel; the roster
+ * structure and indexes sit behind a read/write lock that writers hold only
+ * briefly. Use {@link #modifyStudent} for read-modify-write changes that
+ * must not lose concurrent updates.
+ * 
+ * Each grade/class also keeps its students ranked by overall average in a
+ * {@link ClassRanking}, updated as students are saved, so class ranks and
+ * top/bottom lists never re-sort the class.
+ * 
+ * Related changes can be grouped in a {@link StudentBatch} and saved as one
+ * transaction with {@link #apply}; {@link #recordRollCall} uses this to record
+ * a whole class's attendance for a day at once.
  */
 public class StudentController {
     
-    private List<Student> students;
-    private static final String DATA_FILE = "students.ser";
+    private Map<String, Student> studentsById;
+    private final Map<String, Set<String>> idsByGrade;
+    private final Map<String, String> indexedGrades;
+    private static final String DATA_FILE = "students.dat";
+    private static final String LEGACY_DATA_FILE = "students.ser";
+    private static final String JOURNAL_FILE = "students.journal";
+    private static final String MAPPED_STORE_PROPERTY = "studentreport.mappedStore";
+    private static final long MAPPED_STORE_MIN_BYTES = 32L * 1024 * 1024;
+    private static final String OFF_HEAP_STORE_PROPERTY = "studentreport.offHeapStore";
+    private static final long FLUSH_TIMEOUT_SECONDS = 10;
+    private static final int LOCK_STRIPES = 64;
+    private static final String CHECKPOINT_BYTES_PROPERTY = "studentreport.checkpoint.journalBytes";
+    private static final long DEFAULT_CHECKPOINT_BYTES = 4L * 1024 * 1024;
+    private static final String CHECKPOINT_INTERVAL_PROPERTY = "studentreport.checkpoint.intervalSeconds";
+    private static final long DEFAULT_CHECKPOINT_INTERVAL_SECONDS = 300;
+    private static final String ALERT_STREAK_PROPERTY = "studentreport.alert.absenceStreak";
+    private static final int DEFAULT_ALERT_STREAK = 3;
+    private static final String ALERT_ATTENDANCE_PROPERTY = "studentreport.alert.minAttendance";
+    private static final double DEFAULT_ALERT_ATTENDANCE = 75.0;
+    
+    private final File dataFile;
+    private final File legacyDataFile;
+    private final StudentJournal journal;
+    private final PersistenceWriter writer;
+    private final ReentrantReadWriteLock rosterLock;
+    private final StripedLocks studentLocks;
+    private final Checkpointer checkpointer;
+    private final long checkpointBytes;
+    private final int alertStreak;
+    private final double alertAttendance;
+    private final Set<String> flaggedIds;
+    private final Map<String, ClassRanking> rankingsByGrade;
+    private final Map<String, RankedStudent> rankedStudents;
+    private volatile boolean gradeIndexReady = true;
+    private volatile boolean flagIndexReady;
+    private volatile boolean rankingsReady;
+    private long version;
+    private volatile RosterSnapshot snapshot;
     
     public StudentController() {
-        this.students = new ArrayList<>();
+        this(new File("."));
+    }
+    
+    // Controller whose data files live in the given directory instead of the working directory
+    StudentController(File directory) {
+        this.studentsById = new LinkedHashMap<>();
+        this.idsByGrade = new HashMap<>();
+        this.indexedGrades = new HashMap<>();
+        this.flaggedIds = new LinkedHashSet<>();
+        this.rankingsByGrade = new HashMap<>();
+        this.rankedStudents = new HashMap<>();
+        this.alertStreak = Integer.getInteger(ALERT_STREAK_PROPERTY, DEFAULT_ALERT_STREAK);
+        this.alertAttendance = Double.parseDouble(System.getProperty(ALERT_ATTENDANCE_PROPERTY, 
+                String.valueOf(DEFAULT_ALERT_ATTENDANCE)));
+        this.rosterLock = new ReentrantReadWriteLock();
+        this.studentLocks = new StripedLocks(LOCK_STRIPES);
+        this.checkpointBytes = Long.getLong(CHECKPOINT_BYTES_PROPERTY, DEFAULT_CHECKPOINT_BYTES);
+        this.dataFile = new File(directory, DATA_FILE);
+        this.legacyDataFile = new File(directory, LEGACY_DATA_FILE);
+        this.journal = new StudentJournal(new File(directory, JOURNAL_FILE));
         loadStudents();
+        this.writer = new PersistenceWriter(journal);
+        this.checkpointer = new Checkpointer(dataFile, journal, writer,
+                new Checkpointer.Roster() {
+                    @Override
+                    public BinarySnapshot.RecordSource capture() {
+                        return captureRoster();
+                    }
+                    
+                    @Override
+                    public void checkpointed(File snapshotFile) throws IOException {
+                        remapStore(snapshotFile);
+                    }
+                }, checkpointBytes, TimeUnit.SECONDS.toMillis(Long.getLong(
+                        CHECKPOINT_INTERVAL_PROPERTY, DEFAULT_CHECKPOINT_INTERVAL_SECONDS)));
     }
     
     // Add a new student
     public void addStudent(Student student) {
-        students.add(student);
-        saveStudents();
+        ReentrantLock lock = studentLocks.lockFor(student.getId());
+        lock.lock();
+        try {
+            putStudent(student);
+            journalPut(student);
+        } finally {
+            lock.unlock();
+        }
     }
     
     // Update an existing student
     public void updateStudent(Student student) {
-        for (int i = 0; i < students.size(); i++) {
-            if (students.get(i).getId().equals(student.getId())) {
-                students.set(i, student);
-                break;
+        ReentrantLock lock = studentLocks.lockFor(student.getId());
+        lock.lock();
+        try {
+            // An unknown ID is ignored, and must not be journaled either or a restart would add it
+            if (getStudentById(student.getId()) != null) {
+                putStudent(student);
+                journalPut(student);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Atomically read, change and save one student. Concurrent calls for the
+     * same student run one after another, so no update is lost. The change is
+     * applied to a copy that then replaces the stored student, so readers
+     * never see a half-applied change.
+     * 
+     * @param id ID of the student to change
+     * @param mutation Change to apply to the copy; must not call other controller write methods
+     * @return The changed student, or null if no student has that ID
+     */
+    public Student modifyStudent(String id, Consumer<Student> mutation) {
+        ReentrantLock lock = studentLocks.lockFor(id);
+        lock.lock();
+        try {
+            Student current = getStudentById(id);
+            if (current == null) {
+                return null;
+            }
+            Student student = new Student(current);
+            mutation.accept(student);
+            putStudent(student);
+            journalPut(student);
+            return student;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Change many students as one transaction. Each student is copied under
+     * its stripe lock, so concurrent edits made before are kept and edits
+     * made meanwhile wait; the changed copies are saved with {@link #apply}.
+     * 
+     * @param ids IDs of the students to change
+     * @param change Called with each ID and a copy of the current student (null if there is none);
+     *        returns the student to save, or null to leave it as it is
+     * @return Number of students saved
+     * @throws IOException If the changes could not be saved; nothing was changed
+     */
+    public int modifyStudents(Collection<String> ids, BiFunction<String, Student, Student> change)
+            throws IOException {
+        int[] stripes = studentLocks.lockKeys(ids);
+        try {
+            StudentBatch batch = new StudentBatch();
+            for (String id : ids) {
+                Student current = getStudentById(id);
+                Student changed = change.apply(id, current == null ? null : new Student(current));
+                if (changed == null) {
+                    continue;
+                }
+                if (current == null) {
+                    batch.add(changed);
+                } else {
+                    batch.update(changed);
+                }
+            }
+            apply(batch);
+            return batch.size();
+        } finally {
+            studentLocks.unlock(stripes);
+        }
+    }
+    
+    // Add or replace many students, saved together
+    public void addStudents(Collection<Student> students) throws IOException {
+        StudentBatch batch = new StudentBatch();
+        for (Student student : students) {
+            batch.add(student);
+        }
+        apply(batch);
+    }
+    
+    // Update many existing students, saved together
+    public void updateStudents(Collection<Student> students) throws IOException {
+        StudentBatch batch = new StudentBatch();
+        for (Student student : students) {
+            batch.update(student);
+        }
+        apply(batch);
+    }
+    
+    // Remove many students by ID, saved together
+    public void removeStudents(Collection<String> ids) throws IOException {
+        StudentBatch batch = new StudentBatch();
+        for (String id : ids) {
+            batch.remove(id);
+        }
+        apply(batch);
+    }
+    
+    /**
+     * Apply a group of changes as one transaction. The changes are written
+     * as a single journal record, which is replayed all or nothing after a
+     * crash. If it cannot be written, the roster is rolled back to the
+     * students it held before the batch and the error is rethrown.
+     * 
+     * Rollback restores which student object is stored under each ID; a
+     * student that was changed in place before being passed in keeps its
+     * changes, so pass copies (see {@link Student#Student(Student)}) when
+     * their contents must be restored too.
+     * 
+     * @param batch Changes to apply, in order
+     * @throws IOException If the batch could not be written; nothing was changed
+     */
+    public void apply(StudentBatch batch) throws IOException {
+        List<StudentBatch.Change> changes = batch.getChanges();
+        if (changes.isEmpty()) {
+            return;
+        }
+        List<String> ids = new ArrayList<>(changes.size());
+        for (StudentBatch.Change change : changes) {
+            ids.add(change.id);
+        }
+        
+        // Hold every affected stripe until the outcome is known, so no other
+        // edit can build on changes that may still be rolled back
+        int[] stripes = studentLocks.lockKeys(ids);
+        Map<String, Student> before = new LinkedHashMap<>();
+        List<byte[]> records = new ArrayList<>(changes.size());
+        try {
+            for (StudentBatch.Change change : changes) {
+                Student current = getStudentById(change.id);
+                if (!before.containsKey(change.id)) {
+                    before.put(change.id, current);
+                }
+                if (change.type == StudentBatch.ChangeType.REMOVE) {
+                    if (current != null) {
+                        deleteStudent(change.id);
+                        records.add(StudentJournal.encodeRemove(change.id));
+                    }
+                } else if (change.type == StudentBatch.ChangeType.ADD || current != null) {
+                    putStudent(change.student);
+                    records.add(StudentJournal.encodePut(change.student));
+                }
+            }
+            if (!records.isEmpty()) {
+                writer.commit(StudentJournal.encodeBatch(records), FLUSH_TIMEOUT_SECONDS,
+                        TimeUnit.SECONDS);
             }
+        } catch (IOException | RuntimeException e) {
+            rollback(before);
+            throw e;
+        } catch (InterruptedException e) {
+            rollback(before);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while saving students");
+        } finally {
+            studentLocks.unlock(stripes);
         }
-        saveStudents();
+    }
+    
+    /**
+     * Take the roll call of a grade/class for one day: every student in the
+     * grade gets a status for the date, saved as a single batch.
+     * 
+     * @param grade Grade/class to record
+     * @param date Day of the roll call
+     * @param statuses Status per student ID; students not in the map are PRESENT
+     * @return Number of students recorded
+     * @throws IOException If the roll call could not be saved; nothing was changed
+     */
+    public int recordRollCall(String grade, Date date, Map<String, AttendanceStatus> statuses)
+            throws IOException {
+        List<String> ids = new ArrayList<>();
+        for (Student student : getStudentsByGrade(grade)) {
+            ids.add(student.getId());
+        }
+        long day = AttendanceRecord.toEpochDay(date);
+        
+        // Students are changed as copies, so a failed batch leaves the stored students untouched
+        return modifyStudents(ids, (id, student) -> {
+            if (student == null || !grade.equals(student.getGrade())) {
+                return null;
+            }
+            student.getAttendanceRecord().recordAttendance(day, 
+                    statuses.getOrDefault(id, AttendanceStatus.PRESENT));
+            return student;
+        });
     }
     
     // Remove a student
     public void removeStudent(Student student) {
-        students.removeIf(s -> s.getId().equals(student.getId()));
-        saveStudents();
+        String id = student.getId();
+        ReentrantLock lock = studentLocks.lockFor(id);
+        lock.lock();
+        try {
+            deleteStudent(id);
+            writer.append(id, StudentJournal.encodeRemove(id));
+        } catch (IOException e) {
+            System.err.println("Error journaling student removal: " + e.getMessage());
+        } finally {
+            lock.unlock();
+        }
     }
     
     // Get a student by ID
     public Student getStudentById(String id) {
-        for (Student student : students) {
-            if (student.getId().equals(id)) {
-                return student;
+        rosterLock.readLock().lock();
+        try {
+            return studentsById.get(id);
+        } finally {
+            rosterLock.readLock().unlock();
+        }
+    }
+    
+    // Get all students in a grade/class, in the order they were added
+    public List<Student> getStudentsByGrade(String grade) {
+        ensureGradeIndex();
+        rosterLock.readLock().lock();
+        try {
+            Set<String> ids = idsByGrade.get(grade);
+            if (ids == null) {
+                return Collections.emptyList();
             }
+            
+            List<Student> result = new ArrayList<>(ids.size());
+            for (String id : ids) {
+                result.add(studentsById.get(id));
+            }
+            return result;
+        } finally {
+            rosterLock.readLock().unlock();
+        }
+    }
+    
+    // Get the distinct grades/classes currently on the roster, sorted
+    public Set<String> getGrades() {
+        ensureGradeIndex();
+        rosterLock.readLock().lock();
+        try {
+            return new TreeSet<>(idsByGrade.keySet());
+        } finally {
+            rosterLock.readLock().unlock();
         }
-        return null;
     }
     
-    // Get all students
+    /**
+     * Get the students currently flagged for chronic absence: a run of
+     * absences of at least {@code studentreport.alert.absenceStreak} school
+     * days (default 3), or rolling attendance below
+     * {@code studentreport.alert.minAttendance} percent (default 75).
+     * 
+     * The flagged set is kept up to date as students are saved, so this
+     * does not look at attendance history.
+     */
+    public List<Student> getFlaggedStudents() {
+        ensureFlagIndex();
+        rosterLock.readLock().lock();
+        try {
+            List<Student> result = new ArrayList<>(flaggedIds.size());
+            for (String id : flaggedIds) {
+                result.add(studentsById.get(id));
+            }
+            return result;
+        } finally {
+            rosterLock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Get a student's rank in their grade/class by overall average: 1 plus
+     * the number of classmates with a higher average, so equal averages
+     * share a rank. Students without subjects are not ranked.
+     * 
+     * @return The rank, or 0 if the student is not on the roster or has no subjects
+     */
+    public int getClassRank(Student student) {
+        ensureRankings();
+        rosterLock.readLock().lock();
+        try {
+            RankedStudent ranked = rankedStudents.get(student.getId());
+            return ranked == null ? 0 : rankingsByGrade.get(ranked.grade).rankOf(ranked.average);
+        } finally {
+            rosterLock.readLock().unlock();
+        }
+    }
+    
+    // Get the number of ranked students (those with subjects) in a grade/class
+    public int getRankedCount(String grade) {
+        ensureRankings();
+        rosterLock.readLock().lock();
+        try {
+            ClassRanking ranking = rankingsByGrade.get(grade);
+            return ranking == null ? 0 : ranking.size();
+        } finally {
+            rosterLock.readLock().unlock();
+        }
+    }
+    
+    // Get the n students with the highest overall averages in a grade/class, best first
+    public List<Student> getTopStudents(String grade, int n) {
+        return getRankedStudents(grade, n, true);
+    }
+    
+    // Get the n students with the lowest overall averages in a grade/class, weakest first
+    public List<Student> getBottomStudents(String grade, int n) {
+        return getRankedStudents(grade, n, false);
+    }
+    
+    // Get all students, as an unmodifiable list shared with other readers
     public List<Student> getAllStudents() {
-        return new ArrayList<>(students);
+        return getSnapshot().getStudents();
     }
     
-    // Save students to file
-    private void saveStudents() {
-        try (ObjectOutputStream oos = new ObjectOutputStream(
-                new FileOutputStream(DATA_FILE))) {
-            oos.writeObject(students);
+    // Get a snapshot of the roster, rebuilding it only if a write happened
+    public RosterSnapshot getSnapshot() {
+        RosterSnapshot current = snapshot;
+        if (current != null) {
+            return current;
+        }
+        // Writers are excluded while the read lock is held, so the copy is consistent
+        rosterLock.readLock().lock();
+        try {
+            current = snapshot;
+            if (current == null) {
+                current = isPaged() ? new RosterSnapshot(version, listIds(), this::peekStudent)
+                        : new RosterSnapshot(version, studentsById.values().toArray(new Student[0]));
+                snapshot = current;
+            }
+            return current;
+        } finally {
+            rosterLock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Run a scan over the columns of an off-heap roster while changes to the
+     * roster wait
+     * 
+     * @param scan Called with the roster's store; must not change it
+     * @return The scan's result, or null if the roster is not kept off-heap
+     */
+    public <T> T scanOffHeap(Function<OffHeapStudentStore, T> scan) {
+        rosterLock.readLock().lock();
+        try {
+            if (!(studentsById instanceof OffHeapStudentMap)) {
+                return null;
+            }
+            return scan.apply(((OffHeapStudentMap) studentsById).getStore());
+        } finally {
+            rosterLock.readLock().unlock();
+        }
+    }
+    
+    // Write a new snapshot in the background and drop the journal records it covers
+    public void compact() {
+        checkpointer.request();
+    }
+    
+    /**
+     * Wait until every change made so far has been written to disk
+     * 
+     * @throws IOException If a write failed or did not finish in time
+     */
+    public void flush() throws IOException {
+        try {
+            writer.awaitFlush(FLUSH_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while saving students");
+        }
+    }
+    
+    // Finish a running checkpoint, flush pending changes and stop the background threads
+    public void close() {
+        checkpointer.close();
+        try {
+            writer.close();
+        } catch (IOException e) {
+            System.err.println("Error closing student data: " + e.getMessage());
+        }
+    }
+    
+    // Listener called (on the writer thread) when saving student data fails
+    public void setPersistenceErrorListener(Consumer<Exception> listener) {
+        writer.setErrorListener(listener);
+    }
+    
+    // Put back the students a failed batch replaced; null means the ID was absent
+    private void rollback(Map<String, Student> before) {
+        for (Map.Entry<String, Student> entry : before.entrySet()) {
+            if (entry.getValue() != null) {
+                putStudent(entry.getValue());
+            } else if (getStudentById(entry.getKey()) != null) {
+                deleteStudent(entry.getKey());
+            }
+        }
+    }
+    
+    // Insert or replace a student and keep the grade index in sync
+    private void putStudent(Student student) {
+        String id = student.getId();
+        rosterLock.writeLock().lock();
+        try {
+            boolean listed = isPaged() && studentsById.containsKey(id);
+            studentsById.put(id, student);
+            version++;
+            RosterSnapshot current = snapshot;
+            if (current != null && listed) {
+                // A snapshot of IDs still lists the same IDs in the same order
+                snapshot = current.withVersion(version);
+            } else {
+                // A snapshot of students must not show the new one, so it is rebuilt on the next read
+                snapshot = null;
+            }
+            if (flagIndexReady) {
+                updateFlag(student);
+            }
+            if (rankingsReady) {
+                updateRanking(student);
+            }
+            if (!gradeIndexReady) {
+                return;
+            }
+            
+            // The grade may have been edited in place, so compare with the indexed one
+            String oldGrade = indexedGrades.get(id);
+            String newGrade = student.getGrade();
+            if (oldGrade != null && oldGrade.equals(newGrade)) {
+                return;
+            }
+            if (oldGrade != null) {
+                unindexGrade(id, oldGrade);
+            }
+            idsByGrade.computeIfAbsent(newGrade, g -> new LinkedHashSet<>()).add(id);
+            indexedGrades.put(id, newGrade);
+        } finally {
+            rosterLock.writeLock().unlock();
+        }
+    }
+    
+    // Remove a student from the primary and grade indexes
+    private void deleteStudent(String id) {
+        rosterLock.writeLock().lock();
+        try {
+            studentsById.remove(id);
+            version++;
+            snapshot = null;
+            flaggedIds.remove(id);
+            unrank(id);
+            if (!gradeIndexReady) {
+                return;
+            }
+            String oldGrade = indexedGrades.remove(id);
+            if (oldGrade != null) {
+                unindexGrade(id, oldGrade);
+            }
+        } finally {
+            rosterLock.writeLock().unlock();
+        }
+    }
+    
+    // Build the grade index of a memory-mapped or off-heap roster the first time it is needed
+    private void ensureGradeIndex() {
+        if (gradeIndexReady) {
+            return;
+        }
+        rosterLock.writeLock().lock();
+        try {
+            if (!gradeIndexReady) {
+                BiConsumer<String, String> index = (id, grade) -> {
+                    idsByGrade.computeIfAbsent(grade, g -> new LinkedHashSet<>()).add(id);
+                    indexedGrades.put(id, grade);
+                };
+                if (studentsById instanceof LazyStudentMap) {
+                    ((LazyStudentMap) studentsById).forEachGrade(index);
+                } else {
+                    ((OffHeapStudentMap) studentsById).forEachGrade(index);
+                }
+                gradeIndexReady = true;
+            }
+        } finally {
+            rosterLock.writeLock().unlock();
+        }
+    }
+    
+    // Find the flagged students the first time they are asked for; later saves keep the set current
+    private void ensureFlagIndex() {
+        if (flagIndexReady) {
+            return;
+        }
+        rosterLock.writeLock().lock();
+        try {
+            if (!flagIndexReady) {
+                if (studentsById instanceof OffHeapStudentMap) {
+                    OffHeapStudentStore.Cursor cursor = ((OffHeapStudentMap) studentsById).cursor();
+                    while (cursor.next()) {
+                        if (cursor.isFlagged(alertStreak, alertAttendance)) {
+                            flaggedIds.add(cursor.getId());
+                        }
+                    }
+                } else {
+                    for (Student student : studentsById.values()) {
+                        updateFlag(student);
+                    }
+                }
+                flagIndexReady = true;
+            }
+        } finally {
+            rosterLock.writeLock().unlock();
+        }
+    }
+    
+    // Rank every student the first time a rank is asked for; later saves keep the rankings current
+    private void ensureRankings() {
+        if (rankingsReady) {
+            return;
+        }
+        rosterLock.writeLock().lock();
+        try {
+            if (!rankingsReady) {
+                if (studentsById instanceof OffHeapStudentMap) {
+                    OffHeapStudentStore.Cursor cursor = ((OffHeapStudentMap) studentsById).cursor();
+                    while (cursor.next()) {
+                        if (cursor.getSubjectCount() > 0) {
+                            updateRanking(cursor.getId(), cursor.getGrade(), cursor.getOverallAverage(),
+                                    true);
+                        }
+                    }
+                } else {
+                    for (Student student : studentsById.values()) {
+                        updateRanking(student);
+                    }
+                }
+                rankingsReady = true;
+            }
+        } finally {
+            rosterLock.writeLock().unlock();
+        }
+    }
+    
+    private List<Student> getRankedStudents(String grade, int n, boolean top) {
+        ensureRankings();
+        rosterLock.readLock().lock();
+        try {
+            ClassRanking ranking = rankingsByGrade.get(grade);
+            if (ranking == null) {
+                return Collections.emptyList();
+            }
+            List<Student> result = new ArrayList<>();
+            for (String id : top ? ranking.top(n) : ranking.bottom(n)) {
+                result.add(studentsById.get(id));
+            }
+            return result;
+        } finally {
+            rosterLock.readLock().unlock();
+        }
+    }
+    
+    // Move a student to its current place in its grade's ranking; grade and marks may have changed in place
+    private void updateRanking(Student student) {
+        updateRanking(student.getId(), student.getGrade(), student.calculateOverallAverage(),
+                student.getSubjectCount() > 0);
+    }
+    
+    private void updateRanking(String id, String grade, double average, boolean hasMarks) {
+        boolean rankable = hasMarks && grade != null;
+        RankedStudent previous = rankedStudents.get(id);
+        if (previous != null && rankable && previous.grade.equals(grade)
+                && Double.compare(previous.average, average) == 0) {
+            return;
+        }
+        unrank(id);
+        if (rankable) {
+            rankingsByGrade.computeIfAbsent(grade, g -> new ClassRanking()).add(id, average);
+            rankedStudents.put(id, new RankedStudent(grade, average));
+        }
+    }
+    
+    private void unrank(String id) {
+        RankedStudent previous = rankedStudents.remove(id);
+        if (previous == null) {
+            return;
+        }
+        ClassRanking ranking = rankingsByGrade.get(previous.grade);
+        ranking.remove(id, previous.average);
+        if (ranking.size() == 0) {
+            rankingsByGrade.remove(previous.grade);
+        }
+    }
+    
+    private void updateFlag(Student student) {
+        if (student.getAttendanceRecord().isFlagged(alertStreak, alertAttendance)) {
+            flaggedIds.add(student.getId());
+        } else {
+            flaggedIds.remove(student.getId());
+        }
+    }
+    
+    private void unindexGrade(String id, String grade) {
+        Set<String> ids = idsByGrade.get(grade);
+        if (ids != null) {
+            ids.remove(id);
+            if (ids.isEmpty()) {
+                idsByGrade.remove(grade);
+            }
+        }
+    }
+    
+    // Queue the current state of a student for the journal
+    private void journalPut(Student student) {
+        try {
+            writer.append(student.getId(), StudentJournal.encodePut(student));
+        } catch (IOException e) {
+            System.err.println("Error journaling student: " + e.getMessage());
+        }
+    }
+    
+    // Write a snapshot and reset the journal on the current thread (used while loading)
+    private void checkpoint() {
+        try {
+            BinarySnapshot.RecordSource students = studentsById instanceof OffHeapStudentMap
+                    ? ((OffHeapStudentMap) studentsById).records(rosterLock.readLock())
+                    : BinarySnapshot.recordsOf(studentsById.values());
+            File file = BinarySnapshot.writeNextGeneration(dataFile, students);
+            remapStore(file);
+            journal.reset();
+            journal.deleteArchives();
+            BinarySnapshot.deleteOlderGenerations(dataFile, file);
         } catch (IOException e) {
             System.err.println("Error saving students: " + e.getMessage());
         }
     }
     
-    // Load students from file
-    @SuppressWarnings("unchecked")
-    private void loadStudents() {
-        File file = new File(DATA_FILE);
-        if (!file.exists()) {
-            students = new ArrayList<>();
+    // Students as they are now, each copied under its stripe lock while edits go on
+    private BinarySnapshot.RecordSource captureRoster() {
+        if (studentsById instanceof OffHeapStudentMap) {
+            // Saved students are stored whole under the write lock, so each row is consistent as read
+            return ((OffHeapStudentMap) studentsById).records(rosterLock.readLock());
+        }
+        RosterSnapshot students = getSnapshot();
+        return BinarySnapshot.recordsOf(() -> new Iterator<Student>() {
+            private int index;
+            private Student next;
+            
+            @Override
+            public boolean hasNext() {
+                while (next == null && index < students.size()) {
+                    String id = students.getId(index++);
+                    ReentrantLock lock = studentLocks.lockFor(id);
+                    lock.lock();
+                    try {
+                        // Skip students removed (or rolled back) since the roster was listed
+                        Student current = peekStudent(id);
+                        next = current != null ? new Student(current) : null;
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+                return next != null;
+            }
+            
+            @Override
+            public Student next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Student student = next;
+                next = null;
+                return student;
+            }
+        });
+    }
+    
+    // Whether students are decoded on demand instead of held on the heap
+    private boolean isPaged() {
+        return studentsById instanceof LazyStudentMap || studentsById instanceof OffHeapStudentMap;
+    }
+    
+    // IDs in roster order, read without decoding the students (caller holds the roster lock)
+    private String[] listIds() {
+        List<String> ids = new ArrayList<>(studentsById.size());
+        if (studentsById instanceof LazyStudentMap) {
+            ((LazyStudentMap) studentsById).forEachGrade((id, grade) -> ids.add(id));
+        } else {
+            ((OffHeapStudentMap) studentsById).forEachGrade((id, grade) -> ids.add(id));
+        }
+        return ids.toArray(new String[0]);
+    }
+    
+    // Current student without caching it in a memory-mapped roster
+    private Student peekStudent(String id) {
+        rosterLock.readLock().lock();
+        try {
+            return studentsById instanceof LazyStudentMap
+                    ? ((LazyStudentMap) studentsById).peek(id) : studentsById.get(id);
+        } finally {
+            rosterLock.readLock().unlock();
+        }
+    }
+    
+    // Point a memory-mapped roster at a newly written snapshot, keeping in-memory changes
+    private void remapStore(File file) throws IOException {
+        if (!(studentsById instanceof LazyStudentMap)) {
             return;
         }
+        MappedStudentStore store = MappedStudentStore.open(file);
+        rosterLock.writeLock().lock();
+        try {
+            studentsById = ((LazyStudentMap) studentsById).rebase(store);
+        } finally {
+            rosterLock.writeLock().unlock();
+        }
+    }
+    
+    // Load students from file, then replay the journal on top of them
+    private void loadStudents() {
+        boolean migrate = false;
+        boolean loaded = false;
+        File file = BinarySnapshot.latestGeneration(dataFile);
+        // Generations a crash or a still-mapped file kept from being deleted
+        BinarySnapshot.deleteOlderGenerations(dataFile, file);
+        if (Boolean.getBoolean(OFF_HEAP_STORE_PROPERTY)) {
+            // The grade index would hold every ID on the heap, so it is only built when asked for
+            studentsById = new OffHeapStudentMap(new OffHeapStudentStore());
+            gradeIndexReady = false;
+            loaded = file.exists() && streamSnapshot(file);
+        } else if (useMappedStore(file)) {
+            try {
+                studentsById = new LazyStudentMap(MappedStudentStore.open(file));
+                gradeIndexReady = false;
+                loaded = true;
+            } catch (IOException e) {
+                System.err.println("Error mapping students, loading them instead: " + e.getMessage());
+            }
+        }
+        
+        if (!loaded) {
+            try {
+                for (Student student : readSnapshot(file)) {
+                    putStudent(student);
+                }
+                migrate = !file.exists() && legacyDataFile.exists();
+            } catch (IOException | ClassNotFoundException e) {
+                System.err.println("Error loading students: " + e.getMessage());
+                studentsById.clear();
+                idsByGrade.clear();
+                indexedGrades.clear();
+            }
+        }
         
+        // Archives are left behind by a checkpoint that did not finish
+        List<File> archives = journal.getArchives();
+        try {
+            for (File archive : archives) {
+                replay(new StudentJournal(archive));
+            }
+            replay(journal);
+        } catch (IOException e) {
+            System.err.println("Error replaying journal: " + e.getMessage());
+        }
+        
+        // Rewrite legacy data in the current formats so the next start is fast
+        if (migrate || journal.isLegacyFormat() || !archives.isEmpty()
+                || journal.getSize() >= checkpointBytes) {
+            checkpoint();
+        }
+    }
+    
+    private void replay(StudentJournal source) throws IOException {
+        for (StudentJournal.Entry entry : source.replay()) {
+            if (entry.getOperation() == StudentJournal.Operation.PUT) {
+                putStudent(entry.getStudent());
+            } else {
+                deleteStudent(entry.getId());
+            }
+        }
+    }
+    
+    // Copy a snapshot into the roster one student at a time, without reading it all onto the heap
+    private boolean streamSnapshot(File file) {
+        try {
+            MappedStudentStore source = MappedStudentStore.open(file);
+            for (int offset = source.firstRecord(); offset >= 0; offset = source.nextRecord(offset)) {
+                putStudent(source.read(offset));
+            }
+            return true;
+        } catch (IOException | RuntimeException e) {
+            // A corrupt record is reported again, and the roster started empty, by the full load
+            System.err.println("Error streaming students, loading them instead: " + e.getMessage());
+            studentsById.clear();
+            return false;
+        }
+    }
+    
+    private static boolean useMappedStore(File file) {
+        return file.exists() && (Boolean.getBoolean(MAPPED_STORE_PROPERTY)
+                || file.length() >= MAPPED_STORE_MIN_BYTES);
+    }
+    
+    // Read the binary snapshot, falling back to the legacy serialized roster
+    @SuppressWarnings("unchecked")
+    private List<Student> readSnapshot(File file) throws IOException, ClassNotFoundException {
+        if (file.exists()) {
+            return BinarySnapshot.read(file);
+        }
+        
+        if (!legacyDataFile.exists()) {
+            return new ArrayList<>();
+        }
         try (ObjectInputStream ois = new ObjectInputStream(
-                new FileInputStream(DATA_FILE))) {
-            students = (List<Student>) ois.readObject();
-        } catch (IOException | ClassNotFoundException e) {
-            System.err.println("Error loading students: " + e.getMessage());
-            students = new ArrayList<>();
+                new BufferedInputStream(new FileInputStream(legacyDataFile)))) {
+            return (List<Student>) ois.readObject();
+        }
+    }
+    
+    // Grade and overall average a student is ranked under
+    private static final class RankedStudent {
+        
+        final String grade;
+        final double average;
+        
+        RankedStudent(String grade, double average) {
+            this.grade = grade;
+            this.average = average;
         }
     }
 }
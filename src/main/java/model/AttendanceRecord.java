@@ -1,87 +1,572 @@
 package model;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.ObjLongConsumer;
 
 /**
  * Represents the attendance record for a student
+ *
+ * Days are stored as a packed array indexed by epoch day, four bits per day,
+ * instead of a map of {@link Date} objects: a school year costs about a
+ * hundred bytes per student. Dates are calendar days in the local time zone.
+ *
+ * A running count per status is kept as days are recorded or overwritten, so
+ * the counts and the attendance percentage take constant time. Queries over a
+ * range of dates use a prefix count per status for every block of 64 days,
+ * built on first use after a change: counts take constant time and finding
+ * the first or last absence takes logarithmic time.
+ *
+ * The current run of absences and the attendance over the
+ * {@link #ROLLING_WINDOW_DAYS} days ending at the latest recorded day are
+ * also kept up to date as days are recorded, so students can be checked for
+ * chronic absence without looking at their history.
  */
 public class AttendanceRecord implements Serializable {
     
     private static final long serialVersionUID = 1L;
     
-    private Map<Date, AttendanceStatus> attendanceMap;
+    // attendanceMap is only read, from records serialized before days were packed
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("firstDay", long.class),
+        new ObjectStreamField("days", byte[].class),
+        new ObjectStreamField("attendanceMap", Map.class)
+    };
+    
+    private static final AttendanceStatus[] STATUSES = AttendanceStatus.values();
+    private static final int INITIAL_DAYS = 64;
+    private static final int BLOCK_DAYS = 64;
+    private static final byte[] NO_DAYS = new byte[0];
+    
+    // Returned by the find methods when no day matches
+    public static final long NO_DAY = Long.MIN_VALUE;
+    
+    // Length of the rolling attendance window, in calendar days
+    public static final int ROLLING_WINDOW_DAYS = 30;
+    
+    private static final int PRESENT_CODE = AttendanceStatus.PRESENT.ordinal() + 1;
+    private static final int ABSENT_CODE = AttendanceStatus.ABSENT.ordinal() + 1;
+    
+    // Two days per byte, low nibble first: 0 = no record, otherwise status ordinal + 1
+    private byte[] days;
+    // Epoch day of the first slot in days
+    private long firstDay;
+    private int recordedDays;
+    // Number of recorded days per status, indexed by ordinal
+    private int[] tallies;
+    // Days of each status before each block, blockStart[block * STATUSES.length + ordinal]; null when stale
+    private int[] blockStart;
+    // Latest recorded day and the number of absences in a row up to it
+    private long lastDay;
+    private int absenceStreak;
+    // Recorded and present days in the rolling window ending at lastDay
+    private int windowDays;
+    private int windowPresent;
     
     public AttendanceRecord() {
-        this.attendanceMap = new HashMap<>();
+        this.days = NO_DAYS;
+        this.tallies = new int[STATUSES.length];
+    }
+    
+    // Create a copy of another attendance record
+    public AttendanceRecord(AttendanceRecord other) {
+        this.days = other.days.clone();
+        this.firstDay = other.firstDay;
+        this.recordedDays = other.recordedDays;
+        this.tallies = other.tallies.clone();
+        this.lastDay = other.lastDay;
+        this.absenceStreak = other.absenceStreak;
+        this.windowDays = other.windowDays;
+        this.windowPresent = other.windowPresent;
     }
     
     // Record attendance for a specific date
     public void recordAttendance(Date date, AttendanceStatus status) {
-        attendanceMap.put(date, status);
+        recordAttendance(toEpochDay(date), status);
+    }
+    
+    // Record attendance for a day given as days since 1970-01-01
+    public void recordAttendance(long epochDay, AttendanceStatus status) {
+        if (status == null) {
+            throw new IllegalArgumentException("Attendance status is required");
+        }
+        int slot = slotFor(epochDay);
+        int previous = get(slot);
+        if (previous == 0) {
+            recordedDays++;
+        } else {
+            tallies[previous - 1]--;
+        }
+        tallies[status.ordinal()]++;
+        set(slot, status.ordinal() + 1);
+        blockStart = null;
+        updateTrends(epochDay, previous, status.ordinal() + 1);
     }
     
     // Get the attendance status for a specific date
     public AttendanceStatus getStatusForDate(Date date) {
-        return attendanceMap.getOrDefault(date, AttendanceStatus.UNKNOWN);
+        return getStatusForDay(toEpochDay(date));
+    }
+    
+    // Get the attendance status for a day given as days since 1970-01-01
+    public AttendanceStatus getStatusForDay(long epochDay) {
+        long slot = epochDay - firstDay;
+        if (slot < 0 || slot >= capacity()) {
+            return AttendanceStatus.UNKNOWN;
+        }
+        int code = get((int) slot);
+        return code == 0 ? AttendanceStatus.UNKNOWN : STATUSES[code - 1];
     }
     
     // Calculate the attendance percentage
     public double calculateAttendancePercentage() {
-        if (attendanceMap.isEmpty()) {
+        if (recordedDays == 0) {
             return 0.0;
         }
         
-        int presentCount = 0;
-        for (AttendanceStatus status : attendanceMap.values()) {
-            if (status == AttendanceStatus.PRESENT) {
-                presentCount++;
-            }
+        return (double) tallies[AttendanceStatus.PRESENT.ordinal()] / recordedDays * 100;
+    }
+    
+    // Calculate the attendance percentage between two dates, both inclusive
+    public double calculateAttendancePercentage(Date from, Date to) {
+        return calculateAttendancePercentage(toEpochDay(from), toEpochDay(to));
+    }
+    
+    // Calculate the attendance percentage between two epoch days, both inclusive
+    public double calculateAttendancePercentage(long fromDay, long toDay) {
+        int recorded = 0;
+        for (AttendanceStatus status : STATUSES) {
+            recorded += count(status, fromDay, toDay);
+        }
+        if (recorded == 0) {
+            return 0.0;
+        }
+        
+        return (double) count(AttendanceStatus.PRESENT, fromDay, toDay) / recorded * 100;
+    }
+    
+    // Calculate the attendance percentage over the given number of days up to today
+    public double calculateRecentAttendancePercentage(int days) {
+        long today = LocalDate.now().toEpochDay();
+        return calculateAttendancePercentage(today - days + 1, today);
+    }
+    
+    // Number of absences in a row up to the latest recorded day; days without a record are skipped
+    public int getAbsenceStreak() {
+        return absenceStreak;
+    }
+    
+    // Latest recorded day as days since 1970-01-01, or NO_DAY if nothing is recorded
+    public long getLastRecordedDay() {
+        return recordedDays == 0 ? NO_DAY : lastDay;
+    }
+    
+    // Attendance percentage over the rolling window ending at the latest recorded day
+    public double getRollingAttendancePercentage() {
+        if (windowDays == 0) {
+            return 0.0;
         }
         
-        return (double) presentCount / attendanceMap.size() * 100;
+        return (double) windowPresent / windowDays * 100;
+    }
+    
+    // Number of recorded days in the rolling window ending at the latest recorded day
+    public int getRollingRecordedDays() {
+        return windowDays;
+    }
+    
+    // Number of present days in the rolling window ending at the latest recorded day
+    public int getRollingPresentDays() {
+        return windowPresent;
     }
     
-    // Get all attendance records
+    /**
+     * Whether the student is chronically absent, in constant time
+     *
+     * @param maxAbsenceStreak Absences in a row at which the student is flagged
+     * @param minRollingPercentage Rolling attendance percentage below which the student is flagged
+     */
+    public boolean isFlagged(int maxAbsenceStreak, double minRollingPercentage) {
+        return absenceStreak >= maxAbsenceStreak
+                || (windowDays > 0 && getRollingAttendancePercentage() < minRollingPercentage);
+    }
+    
+    // Get all attendance records, oldest first, as a new map
     public Map<Date, AttendanceStatus> getAttendanceMap() {
-        return attendanceMap;
+        Map<Date, AttendanceStatus> attendance = new TreeMap<>();
+        forEachDay((status, epochDay) -> attendance.put(toDate(epochDay), status));
+        return Collections.unmodifiableMap(attendance);
     }
     
-    // Count total days present
-    public int countPresent() {
-        int count = 0;
-        for (AttendanceStatus status : attendanceMap.values()) {
-            if (status == AttendanceStatus.PRESENT) {
-                count++;
+    /**
+     * Visit every recorded day, oldest first, without creating Date objects
+     *
+     * @param action Called with the status and the day as days since 1970-01-01
+     */
+    public void forEachDay(ObjLongConsumer<AttendanceStatus> action) {
+        int slots = capacity();
+        for (int slot = 0; slot < slots; slot++) {
+            int code = get(slot);
+            if (code != 0) {
+                action.accept(STATUSES[code - 1], firstDay + slot);
             }
         }
-        return count;
+    }
+    
+    // Number of days with a recorded status
+    public int getRecordedDays() {
+        return recordedDays;
+    }
+    
+    // Count the days recorded with the given status
+    public int count(AttendanceStatus status) {
+        return tallies[status.ordinal()];
+    }
+    
+    // Count total days present
+    public int countPresent() {
+        return count(AttendanceStatus.PRESENT);
     }
     
     // Count total days absent
     public int countAbsent() {
-        int count = 0;
-        for (AttendanceStatus status : attendanceMap.values()) {
-            if (status == AttendanceStatus.ABSENT) {
-                count++;
-            }
-        }
-        return count;
+        return count(AttendanceStatus.ABSENT);
     }
     
     // Count total days late
     public int countLate() {
-        int count = 0;
-        for (AttendanceStatus status : attendanceMap.values()) {
-            if (status == AttendanceStatus.LATE) {
+        return count(AttendanceStatus.LATE);
+    }
+    
+    // Count total days excused
+    public int countExcused() {
+        return count(AttendanceStatus.EXCUSED);
+    }
+    
+    // Count the days with the given status between two dates, both inclusive
+    public int count(AttendanceStatus status, Date from, Date to) {
+        return count(status, toEpochDay(from), toEpochDay(to));
+    }
+    
+    // Count the days with the given status between two epoch days, both inclusive
+    public int count(AttendanceStatus status, long fromDay, long toDay) {
+        long first = Math.max(fromDay - firstDay, 0);
+        long last = Math.min(toDay - firstDay, capacity() - 1L);
+        if (first > last) {
+            return 0;
+        }
+        
+        int code = status.ordinal() + 1;
+        return countBefore(code, (int) last + 1) - countBefore(code, (int) first);
+    }
+    
+    // First date with an absence between two dates, both inclusive, or null if there is none
+    public Date findFirstAbsence(Date from, Date to) {
+        long day = findFirstDay(AttendanceStatus.ABSENT, toEpochDay(from), toEpochDay(to));
+        return day == NO_DAY ? null : toDate(day);
+    }
+    
+    // Last date with an absence between two dates, both inclusive, or null if there is none
+    public Date findLastAbsence(Date from, Date to) {
+        long day = findLastDay(AttendanceStatus.ABSENT, toEpochDay(from), toEpochDay(to));
+        return day == NO_DAY ? null : toDate(day);
+    }
+    
+    /**
+     * Find the earliest day with the given status in a range
+     *
+     * @return The epoch day, or {@link #NO_DAY} if no day in the range has the status
+     */
+    public long findFirstDay(AttendanceStatus status, long fromDay, long toDay) {
+        long first = Math.max(fromDay - firstDay, 0);
+        long last = Math.min(toDay - firstDay, capacity() - 1L);
+        if (first > last) {
+            return NO_DAY;
+        }
+        
+        int code = status.ordinal() + 1;
+        int target = countBefore(code, (int) first) + 1;
+        if (countBefore(code, (int) last + 1) < target) {
+            return NO_DAY;
+        }
+        return firstDay + slotOfOccurrence(code, target);
+    }
+    
+    /**
+     * Find the latest day with the given status in a range
+     *
+     * @return The epoch day, or {@link #NO_DAY} if no day in the range has the status
+     */
+    public long findLastDay(AttendanceStatus status, long fromDay, long toDay) {
+        long first = Math.max(fromDay - firstDay, 0);
+        long last = Math.min(toDay - firstDay, capacity() - 1L);
+        if (first > last) {
+            return NO_DAY;
+        }
+        
+        int code = status.ordinal() + 1;
+        int target = countBefore(code, (int) last + 1);
+        if (target <= countBefore(code, (int) first)) {
+            return NO_DAY;
+        }
+        return firstDay + slotOfOccurrence(code, target);
+    }
+    
+    // Attendance dates are calendar days in the local time zone
+    public static long toEpochDay(Date date) {
+        return date.toInstant().atZone(ZoneId.systemDefault()).toLocalDate().toEpochDay();
+    }
+    
+    // Midnight at the start of the given day in the local time zone
+    public static Date toDate(long epochDay) {
+        return Date.from(LocalDate.ofEpochDay(epochDay)
+                .atStartOfDay(ZoneId.systemDefault()).toInstant());
+    }
+    
+    // Keep the streak and rolling window in step with a day that changed from previous to code
+    private void updateTrends(long epochDay, int previous, int code) {
+        if (recordedDays == 1 && previous == 0) {
+            // First recorded day
+            lastDay = epochDay;
+        } else if (epochDay > lastDay) {
+            // A new latest day: slide the window forward, dropping the days that fall out of it
+            long dropTo = Math.min(lastDay, epochDay - ROLLING_WINDOW_DAYS);
+            for (long day = lastDay - ROLLING_WINDOW_DAYS + 1; day <= dropTo; day++) {
+                int dropped = codeAt(day);
+                if (dropped != 0) {
+                    windowDays--;
+                    if (dropped == PRESENT_CODE) {
+                        windowPresent--;
+                    }
+                }
+            }
+            lastDay = epochDay;
+            absenceStreak = code == ABSENT_CODE ? absenceStreak + 1 : 0;
+            windowDays++;
+            if (code == PRESENT_CODE) {
+                windowPresent++;
+            }
+            return;
+        }
+        
+        // The latest day or an earlier one changed
+        if (epochDay > lastDay - ROLLING_WINDOW_DAYS) {
+            if (previous == 0) {
+                windowDays++;
+            } else if (previous == PRESENT_CODE) {
+                windowPresent--;
+            }
+            if (code == PRESENT_CODE) {
+                windowPresent++;
+            }
+        }
+        if (previous != code) {
+            absenceStreak = countAbsenceStreak();
+        }
+    }
+    
+    // Recompute the streak and rolling window from the stored days
+    private void rebuildTrends() {
+        absenceStreak = 0;
+        windowDays = 0;
+        windowPresent = 0;
+        for (int slot = capacity() - 1; slot >= 0; slot--) {
+            if (get(slot) != 0) {
+                lastDay = firstDay + slot;
+                break;
+            }
+        }
+        if (recordedDays == 0) {
+            return;
+        }
+        
+        for (long day = lastDay - ROLLING_WINDOW_DAYS + 1; day <= lastDay; day++) {
+            int code = codeAt(day);
+            if (code != 0) {
+                windowDays++;
+                if (code == PRESENT_CODE) {
+                    windowPresent++;
+                }
+            }
+        }
+        absenceStreak = countAbsenceStreak();
+    }
+    
+    // Absences in a row counting back from the latest recorded day
+    private int countAbsenceStreak() {
+        int streak = 0;
+        for (long slot = lastDay - firstDay; slot >= 0; slot--) {
+            int code = get((int) slot);
+            if (code == ABSENT_CODE) {
+                streak++;
+            } else if (code != 0) {
+                break;
+            }
+        }
+        return streak;
+    }
+    
+    private int codeAt(long epochDay) {
+        long slot = epochDay - firstDay;
+        return slot < 0 || slot >= capacity() ? 0 : get((int) slot);
+    }
+    
+    // Number of slots before the given slot holding the code
+    private int countBefore(int code, int slot) {
+        int[] index = blockIndex();
+        int block = slot / BLOCK_DAYS;
+        int count = index[block * STATUSES.length + code - 1];
+        for (int i = block * BLOCK_DAYS; i < slot; i++) {
+            if (get(i) == code) {
                 count++;
             }
         }
         return count;
     }
     
+    // Slot of the n-th (1-based) slot holding the code; it must exist
+    private int slotOfOccurrence(int code, int n) {
+        int[] index = blockIndex();
+        // Last block that starts with fewer than n occurrences before it
+        int low = 0;
+        int high = index.length / STATUSES.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (index[mid * STATUSES.length + code - 1] < n) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        
+        int count = index[low * STATUSES.length + code - 1];
+        for (int slot = low * BLOCK_DAYS; ; slot++) {
+            if (get(slot) == code && ++count == n) {
+                return slot;
+            }
+        }
+    }
+    
+    // Prefix counts per block, rebuilt if a day was recorded since they were last built
+    private int[] blockIndex() {
+        int[] index = blockStart;
+        if (index != null) {
+            return index;
+        }
+        
+        int blocks = (capacity() + BLOCK_DAYS - 1) / BLOCK_DAYS;
+        index = new int[(blocks + 1) * STATUSES.length];
+        for (int block = 0; block < blocks; block++) {
+            int base = block * STATUSES.length;
+            System.arraycopy(index, base, index, base + STATUSES.length, STATUSES.length);
+            int end = Math.min((block + 1) * BLOCK_DAYS, capacity());
+            for (int slot = block * BLOCK_DAYS; slot < end; slot++) {
+                int code = get(slot);
+                if (code != 0) {
+                    index[base + STATUSES.length + code - 1]++;
+                }
+            }
+        }
+        blockStart = index;
+        return index;
+    }
+    
+    private int capacity() {
+        return days.length * 2;
+    }
+    
+    private int get(int slot) {
+        return (days[slot >> 1] >>> ((slot & 1) << 2)) & 0xF;
+    }
+    
+    private void set(int slot, int code) {
+        int shift = (slot & 1) << 2;
+        days[slot >> 1] = (byte) ((days[slot >> 1] & ~(0xF << shift)) | (code << shift));
+    }
+    
+    // Slot of a day, growing the array at either end if needed
+    private int slotFor(long epochDay) {
+        if (days.length == 0) {
+            days = new byte[INITIAL_DAYS / 2];
+            firstDay = epochDay;
+            return 0;
+        }
+        
+        long slot = epochDay - firstDay;
+        if (slot < 0) {
+            // Grow at the front by an even number of days so the nibbles keep their byte halves
+            long shift = Math.max(-slot, capacity());
+            shift += shift & 1;
+            byte[] grown = new byte[checkedLength(capacity() + shift)];
+            System.arraycopy(days, 0, grown, (int) (shift / 2), days.length);
+            days = grown;
+            firstDay -= shift;
+            slot += shift;
+        } else if (slot >= capacity()) {
+            days = Arrays.copyOf(days, checkedLength(Math.max(slot + 1, 2L * capacity())));
+        }
+        return (int) slot;
+    }
+    
+    private static int checkedLength(long slots) {
+        long bytes = (slots + 1) / 2;
+        if (bytes > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Attendance spans too many days");
+        }
+        return (int) bytes;
+    }
+    
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("firstDay", firstDay);
+        fields.put("days", days);
+        out.writeFields();
+    }
+    
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        Map<Date, AttendanceStatus> legacy = (Map<Date, AttendanceStatus>) fields.get("attendanceMap", null);
+        days = NO_DAYS;
+        firstDay = 0;
+        recordedDays = 0;
+        tallies = new int[STATUSES.length];
+        if (legacy != null) {
+            // Migrate a record written before days were packed
+            for (Map.Entry<Date, AttendanceStatus> entry : legacy.entrySet()) {
+                recordAttendance(entry.getKey(), entry.getValue());
+            }
+            return;
+        }
+        
+        byte[] packed = (byte[]) fields.get("days", null);
+        if (packed != null) {
+            days = packed;
+            firstDay = fields.get("firstDay", 0L);
+            for (int slot = 0; slot < capacity(); slot++) {
+                int code = get(slot);
+                if (code > STATUSES.length) {
+                    throw new IOException("Corrupt attendance record");
+                }
+                if (code != 0) {
+                    recordedDays++;
+                    tallies[code - 1]++;
+                }
+            }
+            rebuildTrends();
+        }
+    }
+    
     // Enum for attendance status
     public enum AttendanceStatus {
         PRESENT,
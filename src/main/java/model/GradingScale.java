@@ -0,0 +1,213 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Maps marks to letter grades, GPA points and pass/fail.
+ *
+ * A scale is a list of bands, each starting at a minimum mark given to the
+ * hundredth, plus a pass mark, which need not start a band. The band of
+ * every hundredth from 0 to 100 is worked out once, when the scale is
+ * built, so grading a mark is a table lookup plus a comparison to settle
+ * marks that fall between two hundredths. Marks below 0 get the lowest
+ * band and marks above 100 the highest.
+ *
+ * Scales are immutable; {@link GradingScales} decides which one applies to a
+ * student or subject.
+ */
+public final class GradingScale {
+    
+    // A/B/C/D/F at 90/80/70/60, passing from D
+    public static final GradingScale STANDARD = new Builder("Standard")
+            .band(0, "F", 0.0)
+            .band(60, "D", 1.0)
+            .band(70, "C", 2.0)
+            .band(80, "B", 3.0)
+            .band(90, "A", 4.0)
+            .passMark(60)
+            .build();
+    
+    // Letter grades with plus and minus steps, passing from D-
+    public static final GradingScale PLUS_MINUS = new Builder("Plus/Minus")
+            .band(0, "F", 0.0)
+            .band(60, "D-", 0.7)
+            .band(63, "D", 1.0)
+            .band(67, "D+", 1.3)
+            .band(70, "C-", 1.7)
+            .band(73, "C", 2.0)
+            .band(77, "C+", 2.3)
+            .band(80, "B-", 2.7)
+            .band(83, "B", 3.0)
+            .band(87, "B+", 3.3)
+            .band(90, "A-", 3.7)
+            .band(93, "A", 4.0)
+            .band(97, "A+", 4.0)
+            .passMark(60)
+            .build();
+    
+    private static final int SLOTS = 100 * 100;
+    
+    private final String name;
+    private final double[] minMarks;
+    private final String[] grades;
+    private final double[] gpaPoints;
+    private final double passMark;
+    // Band of each hundredth of a mark from 0.00 to 100.00
+    private final byte[] bandBySlot;
+    // Range of each band, open-ended at the bottom and top, for settling marks between hundredths
+    private final double[] lowerBounds;
+    private final double[] upperBounds;
+    
+    private GradingScale(Builder builder) {
+        int count = builder.bands.size();
+        this.name = builder.name;
+        this.minMarks = new double[count];
+        this.grades = new String[count];
+        this.gpaPoints = new double[count];
+        this.passMark = builder.passMark;
+        for (int band = 0; band < count; band++) {
+            Band source = builder.bands.get(band);
+            minMarks[band] = source.minMark;
+            grades[band] = source.grade;
+            gpaPoints[band] = source.gpaPoints;
+        }
+        
+        this.lowerBounds = minMarks.clone();
+        this.upperBounds = new double[count];
+        lowerBounds[0] = Double.NEGATIVE_INFINITY;
+        for (int band = 0; band < count; band++) {
+            upperBounds[band] = band + 1 < count ? minMarks[band + 1] : Double.POSITIVE_INFINITY;
+        }
+        
+        this.bandBySlot = new byte[SLOTS + 1];
+        int band = 0;
+        for (int slot = 0; slot <= SLOTS; slot++) {
+            while (band + 1 < count && Math.round(minMarks[band + 1] * 100) <= slot) {
+                band++;
+            }
+            bandBySlot[slot] = (byte) band;
+        }
+    }
+    
+    /**
+     * Find the band a mark falls in
+     *
+     * @return Index of the band, 0 being the lowest
+     */
+    public int bandFor(double mark) {
+        // The cast maps NaN to slot 0, where it fails both comparisons and gets the lowest band
+        int slot = (int) (mark * 100);
+        int band = bandBySlot[Math.min(Math.max(slot, 0), SLOTS)];
+        // mark * 100 can round across a band boundary by one slot, so at most one step is off;
+        // the adjustment is arithmetic rather than a branch
+        int up = mark >= upperBounds[band] ? 1 : 0;
+        int down = mark < lowerBounds[band] ? 1 : 0;
+        return band + up - down;
+    }
+    
+    // Letter grade for a mark
+    public String gradeFor(double mark) {
+        return grades[bandFor(mark)];
+    }
+    
+    // GPA points for a mark
+    public double gpaFor(double mark) {
+        return gpaPoints[bandFor(mark)];
+    }
+    
+    // Whether a mark is a pass; a band can hold both passing and failing marks
+    public boolean isPassing(double mark) {
+        return mark >= passMark;
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    // Number of bands in the scale
+    public int getBandCount() {
+        return grades.length;
+    }
+    
+    // Letter grade of a band
+    public String getGrade(int band) {
+        return grades[band];
+    }
+    
+    // Lowest mark of a band
+    public double getMinMark(int band) {
+        return minMarks[band];
+    }
+    
+    // Letter grades from the lowest band to the highest
+    public List<String> getGrades() {
+        return Collections.unmodifiableList(Arrays.asList(grades));
+    }
+    
+    @Override
+    public String toString() {
+        return name;
+    }
+    
+    /**
+     * Builds a {@link GradingScale}. Bands can be added in any order; the
+     * lowest one must start at 0.
+     */
+    public static class Builder {
+        
+        private final String name;
+        private final List<Band> bands = new ArrayList<>();
+        private double passMark;
+        
+        public Builder(String name) {
+            this.name = name;
+        }
+        
+        // Add a band starting at minMark (to the hundredth) with its letter grade and GPA points
+        public Builder band(double minMark, String grade, double gpaPoints) {
+            if (!(minMark >= 0 && minMark <= 100) || Math.round(minMark * 100) / 100.0 != minMark) {
+                throw new IllegalArgumentException("Band marks must be hundredths from 0 to 100: " + minMark);
+            }
+            bands.add(new Band(minMark, grade, gpaPoints));
+            return this;
+        }
+        
+        // Lowest passing mark; it is compared with the mark itself, not with band starts
+        public Builder passMark(double passMark) {
+            this.passMark = passMark;
+            return this;
+        }
+        
+        public GradingScale build() {
+            bands.sort((a, b) -> Double.compare(a.minMark, b.minMark));
+            if (bands.isEmpty() || bands.get(0).minMark != 0) {
+                throw new IllegalArgumentException("The lowest band of a grading scale must start at 0");
+            }
+            if (bands.size() > Byte.MAX_VALUE) {
+                throw new IllegalArgumentException("Too many bands in grading scale " + name);
+            }
+            for (int i = 1; i < bands.size(); i++) {
+                if (bands.get(i).minMark == bands.get(i - 1).minMark) {
+                    throw new IllegalArgumentException("Two bands start at " + bands.get(i).minMark);
+                }
+            }
+            return new GradingScale(this);
+        }
+    }
+    
+    private static final class Band {
+        
+        final double minMark;
+        final String grade;
+        final double gpaPoints;
+        
+        Band(double minMark, String grade, double gpaPoints) {
+            this.minMark = minMark;
+            this.grade = grade;
+            this.gpaPoints = gpaPoints;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package model;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Decides which {@link GradingScale} applies to a mark.
+ *
+ * A scale set for a subject wins over one set for the student's grade level,
+ * which wins over the default. The default is {@link GradingScale#STANDARD},
+ * or {@link GradingScale#PLUS_MINUS} when the {@code studentreport.gradingScale}
+ * system property is {@code plusminus}. Subject scales are kept in an array
+ * indexed by {@link SubjectCatalog} ID, so finding a scale takes constant time.
+ */
+public final class GradingScales {
+    
+    private static final String SCALE_PROPERTY = "studentreport.gradingScale";
+    
+    private static final Map<String, GradingScale> BY_GRADE_LEVEL = new ConcurrentHashMap<>();
+    // Replaced, never changed in place, so readers need no lock
+    private static volatile GradingScale[] bySubject = new GradingScale[0];
+    private static volatile GradingScale defaultScale =
+            "plusminus".equalsIgnoreCase(System.getProperty(SCALE_PROPERTY))
+                    ? GradingScale.PLUS_MINUS : GradingScale.STANDARD;
+    
+    private GradingScales() {
+    }
+    
+    public static GradingScale getDefault() {
+        return defaultScale;
+    }
+    
+    public static void setDefault(GradingScale scale) {
+        if (scale == null) {
+            throw new IllegalArgumentException("Grading scale is required");
+        }
+        defaultScale = scale;
+    }
+    
+    // Use a scale for one grade level/class; null goes back to the default
+    public static void setForGradeLevel(String gradeLevel, GradingScale scale) {
+        if (gradeLevel == null) {
+            throw new IllegalArgumentException("Grade level is required");
+        }
+        if (scale == null) {
+            BY_GRADE_LEVEL.remove(gradeLevel);
+        } else {
+            BY_GRADE_LEVEL.put(gradeLevel, scale);
+        }
+    }
+    
+    // Use a scale for one subject at every grade level; null goes back to the grade level's scale
+    public static synchronized void setForSubject(String subjectName, GradingScale scale) {
+        int subjectId = SubjectCatalog.idOf(subjectName);
+        GradingScale[] scales = Arrays.copyOf(bySubject, Math.max(bySubject.length, subjectId + 1));
+        scales[subjectId] = scale;
+        bySubject = scales;
+    }
+    
+    // Scale for overall results at a grade level; gradeLevel may be null
+    public static GradingScale forGradeLevel(String gradeLevel) {
+        GradingScale scale = gradeLevel == null ? null : BY_GRADE_LEVEL.get(gradeLevel);
+        return scale != null ? scale : defaultScale;
+    }
+    
+    // Scale for a subject, by catalog ID, at a grade level; gradeLevel may be null
+    public static GradingScale forSubject(String gradeLevel, int subjectId) {
+        GradingScale[] scales = bySubject;
+        if (subjectId >= 0 && subjectId < scales.length && scales[subjectId] != null) {
+            return scales[subjectId];
+        }
+        return forGradeLevel(gradeLevel);
+    }
+}
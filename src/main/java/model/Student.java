@@ -1,67 +1,262 @@
 package model;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 /**
  * Represents a student in the Student Report Generator system
+ *
+ * Marks are kept in a primitive array indexed by {@link SubjectCatalog} ID,
+ * with a bit mask of the subjects the student takes; {@link Subject} objects
+ * handed out are views of that array. Subjects are listed in catalog order.
+ *
+ * The overall average, lowest and highest mark and the subject list are
+ * computed once and cached until a subject is added, removed or has its mark
+ * changed, so reports and sorting by average do not recompute them. Grades,
+ * GPA points and pass/fail come from the scale {@link GradingScales} picks
+ * for the student's grade level and each subject.
  */
 public class Student implements Serializable {
     
     private static final long serialVersionUID = 1L;
     
+    // Subjects are stored by name, as catalog IDs only hold within one process;
+    // subjects is only read, from students serialized before marks were packed
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("id", String.class),
+        new ObjectStreamField("name", String.class),
+        new ObjectStreamField("age", int.class),
+        new ObjectStreamField("grade", String.class),
+        new ObjectStreamField("attendanceRecord", AttendanceRecord.class),
+        new ObjectStreamField("subjectNames", String[].class),
+        new ObjectStreamField("subjectMarks", double[].class),
+        new ObjectStreamField("subjects", Map.class)
+    };
+    
+    private static final double[] NO_MARKS = new double[0];
+    private static final long[] NO_SUBJECTS = new long[0];
+    
     private String id;
     private String name;
     private int age;
     private String grade; // Class/Grade level
-    private Map<String, Subject> subjects;
     private AttendanceRecord attendanceRecord;
     
+    // Mark per subject ID, valid where the bit for the ID is set in taken
+    private double[] marks;
+    private long[] taken;
+    private int subjectCount;
+    
+    // Bumped on every change to the subjects; cached values from an older count are stale
+    private transient int subjectsVersion;
+    private transient Aggregates aggregates;
+    private transient SubjectViews subjectViews;
+    
     public Student(String id, String name, int age, String grade) {
         this.id = id;
         this.name = name;
         this.age = age;
         this.grade = grade;
-        this.subjects = new HashMap<>();
+        this.marks = NO_MARKS;
+        this.taken = NO_SUBJECTS;
         this.attendanceRecord = new AttendanceRecord();
     }
     
-    // Add a subject to the student's record
+    // Create a deep copy of another student
+    public Student(Student other) {
+        this(other.id, other.name, other.age, other.grade);
+        this.marks = other.marks.clone();
+        this.taken = other.taken.clone();
+        this.subjectCount = other.subjectCount;
+        this.attendanceRecord = new AttendanceRecord(other.attendanceRecord);
+    }
+    
+    /**
+     * Add a subject to the student's record, replacing any subject with the
+     * same name. A subject that is not part of another student becomes a
+     * view of this student's mark.
+     */
     public void addSubject(Subject subject) {
-        subjects.put(subject.getName(), subject);
+        putMark(subject.getId(), subject.getMark());
+        if (subject.getOwner() == null) {
+            subject.setOwner(this);
+        }
+    }
+    
+    // Remove a subject by name; returns it with its last mark, or null if there was none
+    public Subject removeSubject(String subjectName) {
+        int subjectId = SubjectCatalog.find(subjectName);
+        if (!hasSubject(subjectId)) {
+            return null;
+        }
+        Subject removed = new Subject(subjectName, marks[subjectId]);
+        taken[subjectId >> 6] &= ~(1L << subjectId);
+        subjectCount--;
+        subjectsChanged();
+        return removed;
+    }
+    
+    // Get a subject by name as a view of this student's mark, or null if the student does not take it
+    public Subject getSubject(String subjectName) {
+        int subjectId = SubjectCatalog.find(subjectName);
+        return hasSubject(subjectId) ? new Subject(this, subjectId) : null;
+    }
+    
+    // Whether the student takes the subject with the given catalog ID
+    public boolean hasSubject(int subjectId) {
+        return subjectId >= 0 && (subjectId >> 6) < taken.length
+                && (taken[subjectId >> 6] & (1L << subjectId)) != 0;
+    }
+    
+    // Get the mark for a subject by catalog ID, or NaN if the student does not take it
+    public double getMark(int subjectId) {
+        return hasSubject(subjectId) ? marks[subjectId] : Double.NaN;
+    }
+    
+    // Set the mark for a subject by catalog ID, adding the subject if needed
+    public void putMark(int subjectId, double mark) {
+        if (subjectId >= marks.length) {
+            marks = Arrays.copyOf(marks, Math.max(subjectId + 1, SubjectCatalog.size()));
+        }
+        if ((subjectId >> 6) >= taken.length) {
+            taken = Arrays.copyOf(taken, (subjectId >> 6) + 1);
+        }
+        if (!hasSubject(subjectId)) {
+            taken[subjectId >> 6] |= 1L << subjectId;
+            subjectCount++;
+        }
+        marks[subjectId] = mark;
+        subjectsChanged();
+    }
+    
+    /**
+     * Find the next subject the student takes, in catalog order
+     *
+     * @param fromId Catalog ID to start looking at, inclusive
+     * @return The catalog ID, or -1 if there are no more subjects
+     */
+    public int nextSubjectId(int fromId) {
+        int word = fromId >> 6;
+        if (fromId < 0 || word >= taken.length) {
+            return -1;
+        }
+        long bits = taken[word] & (-1L << fromId);
+        while (bits == 0) {
+            if (++word == taken.length) {
+                return -1;
+            }
+            bits = taken[word];
+        }
+        return (word << 6) + Long.numberOfTrailingZeros(bits);
     }
     
     // Calculate the average mark across all subjects
     public double calculateOverallAverage() {
-        if (subjects.isEmpty()) {
+        return aggregates().average;
+    }
+    
+    // Calculate the grade of the overall average on the student's grading scale
+    public String calculateOverallGrade() {
+        return getGradingScale().gradeFor(calculateOverallAverage());
+    }
+    
+    // Whether the overall average is a pass on the student's grading scale
+    public boolean isPassing() {
+        return getGradingScale().isPassing(calculateOverallAverage());
+    }
+    
+    // Average GPA points across all subjects, each on its own scale, or 0 if there are none
+    public double calculateGpa() {
+        if (subjectCount == 0) {
             return 0.0;
         }
         
-        double totalMarks = 0.0;
-        for (Subject subject : subjects.values()) {
-            totalMarks += subject.getMark();
+        double totalPoints = 0.0;
+        for (int subjectId = nextSubjectId(0); subjectId >= 0; subjectId = nextSubjectId(subjectId + 1)) {
+            totalPoints += GradingScales.forSubject(grade, subjectId).gpaFor(marks[subjectId]);
         }
-        
-        return totalMarks / subjects.size();
+        return totalPoints / subjectCount;
     }
     
-    // Calculate the grade based on the mark (A, B, C, D, F)
-    public String calculateOverallGrade() {
-        double average = calculateOverallAverage();
-        
-        if (average >= 90) return "A";
-        if (average >= 80) return "B";
-        if (average >= 70) return "C";
-        if (average >= 60) return "D";
-        return "F";
+    // Number of subjects whose mark is not a pass on the subject's scale
+    public int countFailedSubjects() {
+        int failed = 0;
+        for (int subjectId = nextSubjectId(0); subjectId >= 0; subjectId = nextSubjectId(subjectId + 1)) {
+            if (!GradingScales.forSubject(grade, subjectId).isPassing(marks[subjectId])) {
+                failed++;
+            }
+        }
+        return failed;
+    }
+    
+    // Scale for overall results at the student's grade level
+    public GradingScale getGradingScale() {
+        return GradingScales.forGradeLevel(grade);
+    }
+    
+    // Get the lowest mark across all subjects, or 0 if there are none
+    public double getLowestMark() {
+        return aggregates().lowest;
+    }
+    
+    // Get the highest mark across all subjects, or 0 if there are none
+    public double getHighestMark() {
+        return aggregates().highest;
+    }
+    
+    public int getSubjectCount() {
+        return subjectCount;
     }
     
-    // Get all subjects as a list
+    // Get all subjects as an unmodifiable list, shared until the subjects change
     public List<Subject> getSubjectList() {
-        return new ArrayList<>(subjects.values());
+        return subjectViews().list;
+    }
+    
+    // Move the mark of a subject to another subject ID, replacing its mark
+    void moveMark(int fromId, int toId) {
+        if (fromId == toId || !hasSubject(fromId)) {
+            return;
+        }
+        double mark = marks[fromId];
+        taken[fromId >> 6] &= ~(1L << fromId);
+        subjectCount--;
+        putMark(toId, mark);
+    }
+    
+    private void subjectsChanged() {
+        subjectsVersion++;
+        aggregates = null;
+        subjectViews = null;
+    }
+    
+    private Aggregates aggregates() {
+        Aggregates current = aggregates;
+        int version = subjectsVersion;
+        if (current == null || current.version != version) {
+            current = new Aggregates(version, this);
+            aggregates = current;
+        }
+        return current;
+    }
+    
+    private SubjectViews subjectViews() {
+        SubjectViews current = subjectViews;
+        int version = subjectsVersion;
+        if (current == null || current.version != version) {
+            current = new SubjectViews(version, this);
+            subjectViews = current;
+        }
+        return current;
     }
     
     // Getters and Setters
@@ -97,12 +292,21 @@ public class Student implements Serializable {
         this.grade = grade;
     }
 
+    // Subjects by name, read-only; use addSubject and removeSubject to change them
     public Map<String, Subject> getSubjects() {
-        return subjects;
+        return subjectViews().map;
     }
 
+    // Replace all subjects with the given ones
     public void setSubjects(Map<String, Subject> subjects) {
-        this.subjects = subjects;
+        List<Subject> replacements = new ArrayList<>(subjects.values());
+        marks = NO_MARKS;
+        taken = NO_SUBJECTS;
+        subjectCount = 0;
+        subjectsChanged();
+        for (Subject subject : replacements) {
+            addSubject(subject);
+        }
     }
     
     public AttendanceRecord getAttendanceRecord() {
@@ -117,4 +321,107 @@ public class Student implements Serializable {
     public String toString() {
         return name + " (ID: " + id + ")";
     }
+    
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        String[] subjectNames = new String[subjectCount];
+        double[] subjectMarks = new double[subjectCount];
+        int index = 0;
+        for (int subjectId = nextSubjectId(0); subjectId >= 0; subjectId = nextSubjectId(subjectId + 1)) {
+            subjectNames[index] = SubjectCatalog.nameOf(subjectId);
+            subjectMarks[index++] = marks[subjectId];
+        }
+        
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("id", id);
+        fields.put("name", name);
+        fields.put("age", age);
+        fields.put("grade", grade);
+        fields.put("attendanceRecord", attendanceRecord);
+        fields.put("subjectNames", subjectNames);
+        fields.put("subjectMarks", subjectMarks);
+        out.writeFields();
+    }
+    
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        id = (String) fields.get("id", null);
+        name = (String) fields.get("name", null);
+        age = fields.get("age", 0);
+        grade = (String) fields.get("grade", null);
+        attendanceRecord = (AttendanceRecord) fields.get("attendanceRecord", null);
+        if (attendanceRecord == null) {
+            attendanceRecord = new AttendanceRecord();
+        }
+        marks = NO_MARKS;
+        taken = NO_SUBJECTS;
+        subjectCount = 0;
+        
+        Map<String, Subject> legacy = (Map<String, Subject>) fields.get("subjects", null);
+        if (legacy != null) {
+            // Migrate a student written before marks were packed
+            for (Subject subject : legacy.values()) {
+                putMark(subject.getId(), subject.getMark());
+            }
+            return;
+        }
+        
+        String[] subjectNames = (String[]) fields.get("subjectNames", null);
+        double[] subjectMarks = (double[]) fields.get("subjectMarks", null);
+        if (subjectNames == null || subjectMarks == null || subjectNames.length != subjectMarks.length) {
+            throw new IOException("Corrupt student subjects");
+        }
+        for (int i = 0; i < subjectNames.length; i++) {
+            putMark(SubjectCatalog.idOf(subjectNames[i]), subjectMarks[i]);
+        }
+    }
+    
+    // Aggregates of one version of the marks; immutable, so readers can share it
+    private static final class Aggregates {
+        
+        final int version;
+        final double average;
+        final double lowest;
+        final double highest;
+        
+        Aggregates(int version, Student student) {
+            this.version = version;
+            double total = 0.0;
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (int subjectId = student.nextSubjectId(0); subjectId >= 0;
+                    subjectId = student.nextSubjectId(subjectId + 1)) {
+                double mark = student.marks[subjectId];
+                total += mark;
+                min = Math.min(min, mark);
+                max = Math.max(max, mark);
+            }
+            boolean empty = student.subjectCount == 0;
+            this.average = empty ? 0.0 : total / student.subjectCount;
+            this.lowest = empty ? 0.0 : min;
+            this.highest = empty ? 0.0 : max;
+        }
+    }
+    
+    // Subject views of one version of the marks, made only when asked for
+    private static final class SubjectViews {
+        
+        final int version;
+        final List<Subject> list;
+        final Map<String, Subject> map;
+        
+        SubjectViews(int version, Student student) {
+            this.version = version;
+            List<Subject> subjects = new ArrayList<>(student.subjectCount);
+            Map<String, Subject> byName = new LinkedHashMap<>();
+            for (int subjectId = student.nextSubjectId(0); subjectId >= 0;
+                    subjectId = student.nextSubjectId(subjectId + 1)) {
+                Subject subject = new Subject(student, subjectId);
+                subjects.add(subject);
+                byName.put(subject.getName(), subject);
+            }
+            this.list = Collections.unmodifiableList(subjects);
+            this.map = Collections.unmodifiableMap(byName);
+        }
+    }
 }
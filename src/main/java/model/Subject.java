@@ -1,50 +1,129 @@
 package model;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 
 /**
  * Represents a subject with name and mark
+ *
+ * Once added to a {@link Student}, a subject is a view of the student's mark
+ * for that subject: reading and setting the mark go to the student's mark
+ * array. A subject that is not part of a student, or was removed from it,
+ * keeps its own mark.
  */
 public class Subject implements Serializable {
     
     private static final long serialVersionUID = 1L;
     
-    private String name;
+    // Same serialized form as before marks moved into Student
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("name", String.class),
+        new ObjectStreamField("mark", double.class)
+    };
+    
+    // SubjectCatalog ID of the name
+    private int id;
+    // Mark while the subject is not part of a student
     private double mark;
+    // Student whose mark this subject shows, if any
+    private Student owner;
     
     public Subject(String name, double mark) {
-        this.name = name;
+        this.id = SubjectCatalog.idOf(name);
         this.mark = mark;
     }
     
+    // View of a student's mark
+    Subject(Student owner, int id) {
+        this.id = id;
+        this.mark = owner.getMark(id);
+        this.owner = owner;
+    }
+    
     // Calculate the letter grade based on the mark
     public String getGrade() {
-        if (mark >= 90) return "A";
-        if (mark >= 80) return "B";
-        if (mark >= 70) return "C";
-        if (mark >= 60) return "D";
-        return "F";
+        return getGradingScale().gradeFor(getMark());
+    }
+    
+    // GPA points earned by the mark
+    public double getGpaPoints() {
+        return getGradingScale().gpaFor(getMark());
+    }
+    
+    // Whether the mark is a pass
+    public boolean isPassing() {
+        return getGradingScale().isPassing(getMark());
+    }
+    
+    // Scale for this subject at the grade level of the student it belongs to
+    public GradingScale getGradingScale() {
+        return GradingScales.forSubject(owner != null ? owner.getGrade() : null, id);
     }
     
     // Getters and Setters
     public String getName() {
-        return name;
+        return SubjectCatalog.nameOf(id);
     }
     
+    // Rename the subject; for a subject of a student, the mark moves to the new name
     public void setName(String name) {
-        this.name = name;
+        int newId = SubjectCatalog.idOf(name);
+        if (isAttached()) {
+            owner.moveMark(id, newId);
+        }
+        this.id = newId;
     }
     
     public double getMark() {
-        return mark;
+        return isAttached() ? owner.getMark(id) : mark;
     }
     
     public void setMark(double mark) {
         this.mark = mark;
+        if (isAttached()) {
+            owner.putMark(id, mark);
+        }
+    }
+    
+    // SubjectCatalog ID of the subject name
+    public int getId() {
+        return id;
+    }
+    
+    Student getOwner() {
+        return owner;
+    }
+    
+    void setOwner(Student owner) {
+        this.owner = owner;
+    }
+    
+    private boolean isAttached() {
+        return owner != null && owner.hasSubject(id);
     }
     
     @Override
     public String toString() {
-        return name + ": " + mark + " (" + getGrade() + ")";
+        return getName() + ": " + getMark() + " (" + getGrade() + ")";
+    }
+    
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("name", getName());
+        fields.put("mark", getMark());
+        out.writeFields();
+    }
+    
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        String name = (String) fields.get("name", null);
+        if (name == null) {
+            throw new IOException("Subject without a name");
+        }
+        this.id = SubjectCatalog.idOf(name);
+        this.mark = fields.get("mark", 0.0);
     }
 }
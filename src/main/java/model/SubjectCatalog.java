@@ -0,0 +1,64 @@
+package model;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process-wide dictionary of subject names.
+ *
+ * Every subject name gets a small integer ID the first time it is seen, so
+ * students can keep their marks in a primitive array indexed by subject ID
+ * instead of a map of named objects. IDs are dense and never reused, but they
+ * only hold for the running process: persisted data stores subject names.
+ */
+public final class SubjectCatalog {
+    
+    private static final Map<String, Integer> IDS = new ConcurrentHashMap<>();
+    // Replaced, never changed in place, so readers need no lock
+    private static volatile String[] names = new String[0];
+    
+    private SubjectCatalog() {
+    }
+    
+    // Get the ID of a subject name, registering the name if it is new
+    public static int idOf(String name) {
+        if (name == null) {
+            throw new IllegalArgumentException("Subject name is required");
+        }
+        Integer id = IDS.get(name);
+        return id != null ? id : register(name);
+    }
+    
+    // Get the ID of a subject name, or -1 if the name was never registered
+    public static int find(String name) {
+        Integer id = name == null ? null : IDS.get(name);
+        return id != null ? id : -1;
+    }
+    
+    // Get the subject name registered under an ID
+    public static String nameOf(int id) {
+        String[] current = names;
+        if (id < 0 || id >= current.length) {
+            throw new IllegalArgumentException("Unknown subject ID: " + id);
+        }
+        return current[id];
+    }
+    
+    // Number of registered subject names; IDs run from 0 to size() - 1
+    public static int size() {
+        return names.length;
+    }
+    
+    private static synchronized int register(String name) {
+        Integer id = IDS.get(name);
+        if (id != null) {
+            return id;
+        }
+        String[] grown = Arrays.copyOf(names, names.length + 1);
+        grown[names.length] = name;
+        names = grown;
+        IDS.put(name, names.length - 1);
+        return names.length - 1;
+    }
+}
@@ -0,0 +1,497 @@
+package persistence;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import model.Student;
+
+/**
+ * Versioned binary snapshot of the whole roster.
+ *
+ * File layout:
+ * <pre>
+ *   header (32 bytes)   magic, version, flags, student count,
+ *                       dictionary offset, index offset, reserved
+ *   records             per student: int length + {@link StudentCodec} record
+ *   dictionary          int count + strings shared by all records
+ *   index               record offsets sorted by student ID (version 2)
+ * </pre>
+ * The index lets {@link MappedStudentStore} find a student by binary search
+ * over the mapped file without reading the whole roster. While a snapshot is
+ * written, the index is built outside the heap.
+ * Unlike Java serialization the format does not depend on the shape of the
+ * model classes, so fields can be added to them without breaking old files.
+ */
+public final class BinarySnapshot {
+    
+    static final int MAGIC = 0x53524753; // "SRGS"
+    static final short VERSION = 2;
+    static final short FIRST_VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    
+    private static final int BUFFER_SIZE = 64 * 1024;
+    
+    private BinarySnapshot() {
+    }
+    
+    /**
+     * Write a snapshot of the given students, replacing the file if it exists
+     *
+     * @param file Destination file
+     * @param students Students to store, in roster order
+     * @throws IOException If the file cannot be written
+     */
+    public static void write(File file, Iterable<Student> students) throws IOException {
+        write(file, recordsOf(students));
+    }
+    
+    /**
+     * Write a snapshot of the students a source encodes, replacing the file if it exists
+     *
+     * @param file Destination file
+     * @param students Source of the student records, in roster order
+     * @throws IOException If the file cannot be written
+     */
+    public static void write(File file, RecordSource students) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            StringDictionary dictionary = new StringDictionary();
+            RecordBuffer record = new RecordBuffer();
+            DataOutputStream recordOut = new DataOutputStream(record);
+            ByteBuffer out = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            
+            channel.position(HEADER_SIZE);
+            IndexBuilder index = new IndexBuilder();
+            record.reset();
+            for (String id = students.writeNext(recordOut, dictionary); id != null;
+                    id = students.writeNext(recordOut, dictionary)) {
+                recordOut.flush();
+                index.add(id, channel.position() + out.position());
+                writeFramed(channel, out, record);
+                record.reset();
+            }
+            int count = index.size();
+            
+            long dictionaryOffset = channel.position() + out.position();
+            ensureSpace(channel, out, 4);
+            out.putInt(dictionary.size());
+            for (int i = 0; i < dictionary.size(); i++) {
+                record.reset();
+                StudentCodec.writeString(recordOut, dictionary.get(i));
+                recordOut.flush();
+                writeRaw(channel, out, record);
+            }
+            
+            long indexOffset = channel.position() + out.position();
+            index.sort();
+            for (int i = 0; i < count; i++) {
+                ensureSpace(channel, out, 4);
+                out.putInt(index.offsetAt(i));
+            }
+            drain(channel, out);
+            if (channel.position() > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot exceeds the 2 GB format limit");
+            }
+            
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC);
+            header.putShort(VERSION);
+            header.putShort((short) 0);
+            header.putInt(count);
+            header.putLong(dictionaryOffset);
+            header.putLong(indexOffset);
+            header.flip();
+            channel.position(0);
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            channel.force(true);
+        }
+    }
+    
+    /**
+     * Write the next generation of a snapshot without ever leaving a partial
+     * file behind: the snapshot is written to a temporary file, synced, and
+     * renamed to a name no other file has ({@code students.dat.1},
+     * {@code students.dat.2}, ...). An older generation is never replaced,
+     * so it can stay memory-mapped while the new one is written, and after a
+     * crash the newest generation holds a complete roster.
+     *
+     * @param file Base snapshot file, which counts as generation 0
+     * @param students Students to store, in roster order
+     * @return The new generation
+     * @throws IOException If the snapshot cannot be written; older generations are kept
+     */
+    public static File writeNextGeneration(File file, Iterable<Student> students) throws IOException {
+        return writeNextGeneration(file, recordsOf(students));
+    }
+    
+    // Same as writeNextGeneration(File, Iterable), with the records encoded by a source
+    public static File writeNextGeneration(File file, RecordSource students) throws IOException {
+        File tempFile = new File(file.getPath() + ".tmp");
+        write(tempFile, students);
+        File target = new File(file.getPath() + "." + (generationOf(file, latestGeneration(file)) + 1));
+        try {
+            Files.move(tempFile.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tempFile.toPath(), target.toPath());
+        }
+        syncDirectory(file.getAbsoluteFile().getParentFile());
+        return target;
+    }
+    
+    /**
+     * Newest generation of a snapshot written by {@link #writeNextGeneration}
+     *
+     * @param file Base snapshot file
+     * @return The newest generation, or the base file if no numbered one exists
+     */
+    public static File latestGeneration(File file) {
+        List<File> generations = generations(file);
+        return generations.isEmpty() ? file : generations.get(generations.size() - 1);
+    }
+    
+    /**
+     * Delete the generations older than the given one. A file that is still
+     * memory-mapped cannot be deleted on some platforms (Windows); it is kept
+     * and deleted by a later call.
+     *
+     * @param file Base snapshot file
+     * @param current Generation in use
+     */
+    public static void deleteOlderGenerations(File file, File current) {
+        int currentGeneration = generationOf(file, current);
+        for (File generation : generations(file)) {
+            if (generationOf(file, generation) < currentGeneration) {
+                try {
+                    Files.deleteIfExists(generation.toPath());
+                } catch (IOException e) {
+                    // Still mapped; the next checkpoint tries again
+                }
+            }
+        }
+    }
+    
+    /**
+     * Read every student stored in a snapshot file
+     *
+     * @param file Snapshot file
+     * @return The students, in the order they were written
+     * @throws IOException If the file cannot be read or is not a valid snapshot
+     */
+    public static List<Student> read(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot file too large: " + file);
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // Read the whole file in one pass
+            }
+            buffer.flip();
+            try {
+                int count = readHeader(buffer);
+                StringDictionary dictionary = readDictionary(buffer, buffer.getLong(12));
+                
+                List<Student> students = new ArrayList<>(count);
+                buffer.position(HEADER_SIZE);
+                for (int i = 0; i < count; i++) {
+                    int length = buffer.getInt();
+                    ByteBuffer record = buffer.slice();
+                    record.limit(length);
+                    students.add(StudentCodec.read(record, dictionary));
+                    buffer.position(buffer.position() + length);
+                }
+                return students;
+            } catch (RuntimeException e) {
+                // Buffer underflows, bad dictionary codes and the like all mean a damaged file
+                throw new IOException("Corrupt snapshot file: " + file, e);
+            }
+        }
+    }
+    
+    // Check whether a file starts with the snapshot magic number
+    public static boolean isSnapshot(File file) {
+        if (!file.isFile() || file.length() < HEADER_SIZE) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(4);
+            channel.read(magic, 0);
+            return magic.getInt(0) == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+    
+    // Validate the header and return the number of student records
+    static int readHeader(ByteBuffer buffer) throws IOException {
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a student snapshot file");
+        }
+        short version = buffer.getShort(4);
+        if (version != VERSION && version != FIRST_VERSION) {
+            throw new IOException("Unsupported snapshot version: " + version);
+        }
+        return buffer.getInt(8);
+    }
+    
+    // Offset of the sorted ID index, or 0 if the file predates it
+    static long indexOffset(ByteBuffer buffer) {
+        return buffer.getShort(4) >= VERSION ? buffer.getLong(20) : 0;
+    }
+    
+    static StringDictionary readDictionary(ByteBuffer buffer, long offset) {
+        ByteBuffer in = buffer.duplicate();
+        in.position((int) offset);
+        int size = in.getInt();
+        StringDictionary dictionary = new StringDictionary();
+        for (int i = 0; i < size; i++) {
+            dictionary.codeOf(StudentCodec.readString(in));
+        }
+        return dictionary;
+    }
+    
+    // Source that encodes students held as objects
+    public static RecordSource recordsOf(Iterable<Student> students) {
+        Iterator<Student> iterator = students.iterator();
+        return (out, dictionary) -> {
+            if (!iterator.hasNext()) {
+                return null;
+            }
+            Student student = iterator.next();
+            StudentCodec.write(student, out, dictionary);
+            return student.getId();
+        };
+    }
+    
+    // Existing generations of a snapshot, oldest first
+    private static List<File> generations(File file) {
+        List<File> generations = new ArrayList<>();
+        File[] candidates = file.getAbsoluteFile().getParentFile()
+                .listFiles((dir, name) -> generationOf(file, new File(dir, name)) >= 0);
+        if (candidates != null) {
+            generations.addAll(Arrays.asList(candidates));
+        }
+        generations.sort(Comparator.comparingInt(generation -> generationOf(file, generation)));
+        return generations;
+    }
+    
+    // 0 for the base file, N for "<base>.N", or -1 for any other file
+    private static int generationOf(File file, File candidate) {
+        String name = candidate.getName();
+        if (name.equals(file.getName())) {
+            return 0;
+        }
+        String prefix = file.getName() + ".";
+        if (!name.startsWith(prefix) || name.length() == prefix.length()) {
+            return -1;
+        }
+        for (int i = prefix.length(); i < name.length(); i++) {
+            if (!Character.isDigit(name.charAt(i))) {
+                return -1;
+            }
+        }
+        try {
+            return Integer.parseInt(name.substring(prefix.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+    
+    // Make a rename durable; not every platform can open a directory, so this is best effort
+    private static void syncDirectory(File directory) {
+        if (directory == null) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Directory sync is unsupported here (e.g. Windows)
+        }
+    }
+    
+    private static void writeFramed(FileChannel channel, ByteBuffer out, RecordBuffer record)
+            throws IOException {
+        ensureSpace(channel, out, 4);
+        out.putInt(record.size());
+        writeRaw(channel, out, record);
+    }
+    
+    private static void writeRaw(FileChannel channel, ByteBuffer out, RecordBuffer record)
+            throws IOException {
+        if (record.size() > out.remaining()) {
+            drain(channel, out);
+        }
+        if (record.size() > out.capacity()) {
+            // Oversized record: bypass the staging buffer
+            ByteBuffer large = record.asBuffer();
+            while (large.hasRemaining()) {
+                channel.write(large);
+            }
+        } else {
+            out.put(record.asBuffer());
+        }
+    }
+    
+    private static void ensureSpace(FileChannel channel, ByteBuffer out, int bytes)
+            throws IOException {
+        if (out.remaining() < bytes) {
+            drain(channel, out);
+        }
+    }
+    
+    private static void drain(FileChannel channel, ByteBuffer out) throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+        out.clear();
+    }
+    
+    /**
+     * Students to write, each encoded by the source itself, so a roster that
+     * is not held as {@link Student} objects can be written without decoding it
+     */
+    public interface RecordSource {
+        
+        /**
+         * Encode the next student with {@link StudentCodec}
+         *
+         * @param out Destination of the record
+         * @param dictionary Dictionary for the snapshot's shared strings
+         * @return The student's ID, or null once every student has been written
+         * @throws IOException If the record cannot be encoded
+         */
+        String writeNext(DataOutput out, StringDictionary dictionary) throws IOException;
+    }
+    
+    /**
+     * Record offsets and student IDs collected while the records are written,
+     * then sorted by ID for the index. They are kept in direct buffers, outside
+     * the heap, so writing the snapshot of an off-heap roster does not put
+     * every ID on the heap. IDs are stored as UTF-16 chars, so they are
+     * compared in the same order as {@link String#compareTo} without decoding.
+     */
+    private static class IndexBuilder {
+        
+        // Per student: int record offset, int ID length, then the ID's chars
+        private ByteBuffer entries = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        // Position of each student's entry in entries, in index order once sorted
+        private ByteBuffer positions = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private int size;
+        
+        void add(String id, long offset) throws IOException {
+            if (offset > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot exceeds the 2 GB format limit");
+            }
+            entries = ensureCapacity(entries, 8 + 2 * id.length());
+            positions = ensureCapacity(positions, 4);
+            positions.putInt(entries.position());
+            entries.putInt((int) offset);
+            entries.putInt(id.length());
+            for (int i = 0; i < id.length(); i++) {
+                entries.putChar(id.charAt(i));
+            }
+            size++;
+        }
+        
+        int size() {
+            return size;
+        }
+        
+        // Record offset of the i-th entry
+        int offsetAt(int i) {
+            return entries.getInt(positions.getInt(4 * i));
+        }
+        
+        // Heapsort the positions by ID: in place, with no recursion and no extra memory
+        void sort() {
+            for (int i = size / 2 - 1; i >= 0; i--) {
+                siftDown(i, size);
+            }
+            for (int end = size - 1; end > 0; end--) {
+                swap(0, end);
+                siftDown(0, end);
+            }
+        }
+        
+        private void siftDown(int i, int end) {
+            while (2 * i + 1 < end) {
+                int child = 2 * i + 1;
+                if (child + 1 < end && compare(child + 1, child) > 0) {
+                    child++;
+                }
+                if (compare(i, child) >= 0) {
+                    return;
+                }
+                swap(i, child);
+                i = child;
+            }
+        }
+        
+        private int compare(int a, int b) {
+            int first = positions.getInt(4 * a);
+            int second = positions.getInt(4 * b);
+            int firstLength = entries.getInt(first + 4);
+            int secondLength = entries.getInt(second + 4);
+            for (int k = 0; k < Math.min(firstLength, secondLength); k++) {
+                char x = entries.getChar(first + 8 + 2 * k);
+                char y = entries.getChar(second + 8 + 2 * k);
+                if (x != y) {
+                    return x - y;
+                }
+            }
+            return firstLength - secondLength;
+        }
+        
+        private void swap(int a, int b) {
+            int first = positions.getInt(4 * a);
+            positions.putInt(4 * a, positions.getInt(4 * b));
+            positions.putInt(4 * b, first);
+        }
+        
+        // Grow a buffer by doubling; the old one is freed when it is collected
+        private static ByteBuffer ensureCapacity(ByteBuffer buffer, int bytes) throws IOException {
+            if (buffer.remaining() >= bytes) {
+                return buffer;
+            }
+            long needed = (long) buffer.position() + bytes;
+            long capacity = Math.max(needed, 2L * buffer.capacity());
+            if (needed > Integer.MAX_VALUE) {
+                throw new IOException("Too many students for one snapshot index");
+            }
+            ByteBuffer grown = ByteBuffer.allocateDirect((int) Math.min(capacity, Integer.MAX_VALUE));
+            buffer.flip();
+            grown.put(buffer);
+            return grown;
+        }
+    }
+    
+    /**
+     * Reusable encoding buffer that exposes its contents without copying
+     */
+    static class RecordBuffer extends ByteArrayOutputStream {
+        
+        RecordBuffer() {
+            super(256);
+        }
+        
+        ByteBuffer asBuffer() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package persistence;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Writes roster snapshots in the background while edits continue.
+ *
+ * A checkpoint first asks the {@link PersistenceWriter} to rotate the journal,
+ * so every record written before that point lands in an archive and every
+ * later record in the fresh journal. It then captures the roster, writes it
+ * as the next generation with {@link BinarySnapshot#writeNextGeneration} and
+ * deletes the archives and the older generations. Each student is captured
+ * after the rotation, so the snapshot is at least as new as the archives;
+ * changes made while it is written are replayed from the fresh journal, which
+ * is idempotent for students the snapshot already has.
+ *
+ * If a checkpoint fails, its archives stay and the next attempt does not
+ * rotate again: the snapshot it writes covers them all. Failed attempts are
+ * retried after a delay that doubles up to a limit, so a persistent failure
+ * does not retry on every poll.
+ *
+ * A checkpoint runs when the journal grows past a size limit, when a time
+ * interval has passed since the last one, or on request. Only one runs at a
+ * time, on a dedicated daemon thread.
+ */
+public class Checkpointer implements Closeable {
+    
+    private static final long POLL_INTERVAL_MS = 1000;
+    private static final long ROTATE_TIMEOUT_SECONDS = 10;
+    private static final long CLOSE_TIMEOUT_SECONDS = 30;
+    private static final long MAX_RETRY_DELAY_MS = 5 * 60 * 1000;
+    
+    private final File dataFile;
+    private final StudentJournal journal;
+    private final PersistenceWriter writer;
+    private final Roster roster;
+    private final long maxJournalBytes;
+    private final long intervalMillis;
+    private final ScheduledExecutorService executor;
+    private final AtomicBoolean requested = new AtomicBoolean();
+    private volatile long lastCheckpoint = System.currentTimeMillis();
+    // Only touched on the checkpoint thread
+    private long retryDelay;
+    private long retryAt;
+    
+    /**
+     * @param dataFile Base name of the snapshot generations
+     * @param journal Journal whose records the snapshot makes obsolete
+     * @param writer Writer that appends to the journal
+     * @param roster Source of the students to snapshot
+     * @param maxJournalBytes Journal size that triggers a checkpoint
+     * @param intervalMillis Time after which a non-empty journal is checkpointed, or 0 for never
+     */
+    public Checkpointer(File dataFile, StudentJournal journal, PersistenceWriter writer,
+            Roster roster, long maxJournalBytes, long intervalMillis) {
+        this.dataFile = dataFile;
+        this.journal = journal;
+        this.writer = writer;
+        this.roster = roster;
+        this.maxJournalBytes = maxJournalBytes;
+        this.intervalMillis = intervalMillis;
+        this.executor = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "student-checkpoint");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.scheduleWithFixedDelay(this::checkpointIfDue, POLL_INTERVAL_MS,
+                POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+    
+    // Run a checkpoint in the background as soon as possible
+    public void request() {
+        if (requested.compareAndSet(false, true) && !executor.isShutdown()) {
+            executor.execute(this::checkpointIfDue);
+        }
+    }
+    
+    /**
+     * Write a snapshot now, on the calling thread
+     *
+     * @throws IOException If the snapshot could not be written; the archives are kept
+     */
+    public synchronized void checkpoint() throws IOException {
+        // Archives left by a failed checkpoint are covered by this snapshot too
+        if (journal.getArchives().isEmpty()) {
+            writer.submit(journal::rotate);
+            try {
+                writer.awaitFlush(ROTATE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while rotating the journal", e);
+            }
+        }
+        
+        File snapshot = BinarySnapshot.writeNextGeneration(dataFile, roster.capture());
+        roster.checkpointed(snapshot);
+        journal.deleteArchives();
+        BinarySnapshot.deleteOlderGenerations(dataFile, snapshot);
+        lastCheckpoint = System.currentTimeMillis();
+    }
+    
+    // Wait for a running checkpoint to finish and stop the background thread
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    private void checkpointIfDue() {
+        long now = System.currentTimeMillis();
+        boolean due = requested.getAndSet(false)
+                || (now >= retryAt && (journal.getSize() >= maxJournalBytes
+                        || (intervalMillis > 0 && journal.getRecordCount() > 0
+                                && now - lastCheckpoint >= intervalMillis)));
+        if (!due) {
+            return;
+        }
+        try {
+            checkpoint();
+            retryDelay = 0;
+            retryAt = 0;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Error writing checkpoint: " + e.getMessage());
+            retryDelay = Math.min(Math.max(retryDelay * 2, POLL_INTERVAL_MS), MAX_RETRY_DELAY_MS);
+            retryAt = System.currentTimeMillis() + retryDelay;
+        }
+    }
+    
+    /**
+     * The roster being checkpointed
+     */
+    public interface Roster {
+        
+        /**
+         * Students to write, each encoded in a state that no longer changes
+         * while it is being written (for example from a copy)
+         */
+        BinarySnapshot.RecordSource capture();
+        
+        // Called with the new generation once it is safely on disk
+        void checkpointed(File snapshot) throws IOException;
+    }
+}
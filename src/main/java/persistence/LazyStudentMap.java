@@ -0,0 +1,225 @@
+package persistence;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import model.Student;
+
+/**
+ * Roster map backed by a {@link MappedStudentStore}.
+ *
+ * Only students that were looked up or changed are held on the heap; all
+ * others stay in the mapped snapshot until they are needed. Changes are kept
+ * in an in-memory overlay on top of the read-only snapshot, in the same way
+ * the journal is replayed on top of the snapshot file. Iteration follows
+ * snapshot order followed by newly added students and decodes untouched
+ * students without caching them.
+ *
+ * Lookups may run concurrently with each other; changes must be made while
+ * no other thread reads the map (the controller's roster write lock).
+ */
+public class LazyStudentMap extends AbstractMap<String, Student> {
+    
+    private final MappedStudentStore store;
+    private final Map<String, Student> materialized;
+    private final Set<String> removed;
+    private final Map<String, Student> appended;
+    
+    public LazyStudentMap(MappedStudentStore store) {
+        this.store = store;
+        this.materialized = new ConcurrentHashMap<>();
+        this.removed = new HashSet<>();
+        this.appended = new LinkedHashMap<>();
+    }
+    
+    @Override
+    public Student get(Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        String id = (String) key;
+        Student student = appended.get(id);
+        if (student == null) {
+            student = materialized.get(id);
+        }
+        if (student != null || removed.contains(id)) {
+            return student;
+        }
+        
+        int offset = store.find(id);
+        if (offset < 0) {
+            return null;
+        }
+        // Concurrent lookups of the same student must agree on one instance
+        student = store.read(offset);
+        Student existing = materialized.putIfAbsent(id, student);
+        return existing != null ? existing : student;
+    }
+    
+    // Like get, but a student that is only in the snapshot is decoded without being cached
+    public Student peek(String id) {
+        Student student = appended.get(id);
+        if (student == null) {
+            student = materialized.get(id);
+        }
+        if (student != null || removed.contains(id)) {
+            return student;
+        }
+        int offset = store.find(id);
+        return offset >= 0 ? store.read(offset) : null;
+    }
+    
+    /**
+     * Same roster on top of a newer snapshot of it. Students held in memory
+     * are carried over, all others are read from the new snapshot.
+     *
+     * @param newStore Snapshot written from this roster (or an older state of it)
+     * @return A map with the same contents as this one
+     */
+    public LazyStudentMap rebase(MappedStudentStore newStore) {
+        LazyStudentMap rebased = new LazyStudentMap(newStore);
+        for (String id : removed) {
+            if (newStore.find(id) >= 0) {
+                rebased.removed.add(id);
+            }
+        }
+        materialized.forEach(rebased::carryOver);
+        appended.forEach(rebased::carryOver);
+        return rebased;
+    }
+    
+    // Insert without looking up the previous value, which rebase does not need
+    private void carryOver(String id, Student student) {
+        if (store.find(id) >= 0) {
+            materialized.put(id, student);
+        } else {
+            appended.put(id, student);
+        }
+    }
+    
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+    
+    @Override
+    public Student put(String id, Student student) {
+        if (appended.containsKey(id) || store.find(id) < 0) {
+            return appended.put(id, student);
+        }
+        Student previous = get(id);
+        removed.remove(id);
+        materialized.put(id, student);
+        return previous;
+    }
+    
+    @Override
+    public Student remove(Object key) {
+        Student previous = get(key);
+        if (previous == null) {
+            return null;
+        }
+        if (appended.remove(key) == null) {
+            materialized.remove(key);
+            removed.add((String) key);
+        }
+        return previous;
+    }
+    
+    @Override
+    public void clear() {
+        materialized.clear();
+        appended.clear();
+        for (int offset = store.firstRecord(); offset >= 0; offset = store.nextRecord(offset)) {
+            removed.add(store.readId(offset));
+        }
+    }
+    
+    @Override
+    public int size() {
+        return store.size() - removed.size() + appended.size();
+    }
+    
+    // Number of students currently decoded on the heap
+    public int materializedCount() {
+        return materialized.size() + appended.size();
+    }
+    
+    /**
+     * Visit the grade of every student without decoding the students that
+     * are still only in the snapshot
+     *
+     * @param action Called with each student ID and grade, in roster order
+     */
+    public void forEachGrade(BiConsumer<String, String> action) {
+        for (int offset = store.firstRecord(); offset >= 0; offset = store.nextRecord(offset)) {
+            String id = store.readId(offset);
+            if (removed.contains(id)) {
+                continue;
+            }
+            Student student = materialized.get(id);
+            action.accept(id, student != null ? student.getGrade() : store.readGrade(offset));
+        }
+        for (Student student : appended.values()) {
+            action.accept(student.getId(), student.getGrade());
+        }
+    }
+    
+    @Override
+    public Set<Map.Entry<String, Student>> entrySet() {
+        return new AbstractSet<Map.Entry<String, Student>>() {
+            @Override
+            public Iterator<Map.Entry<String, Student>> iterator() {
+                return new EntryIterator();
+            }
+            
+            @Override
+            public int size() {
+                return LazyStudentMap.this.size();
+            }
+        };
+    }
+    
+    // Walks the snapshot records, then the appended students
+    private class EntryIterator implements Iterator<Map.Entry<String, Student>> {
+        
+        private int offset = store.firstRecord();
+        private final Iterator<Student> tail = appended.values().iterator();
+        private Map.Entry<String, Student> next;
+        
+        @Override
+        public boolean hasNext() {
+            while (next == null && offset >= 0) {
+                String id = store.readId(offset);
+                if (!removed.contains(id)) {
+                    Student student = materialized.get(id);
+                    next = new SimpleImmutableEntry<>(id,
+                            student != null ? student : store.read(offset));
+                }
+                offset = store.nextRecord(offset);
+            }
+            if (next == null && tail.hasNext()) {
+                Student student = tail.next();
+                next = new SimpleImmutableEntry<>(student.getId(), student);
+            }
+            return next != null;
+        }
+        
+        @Override
+        public Map.Entry<String, Student> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<String, Student> entry = next;
+            next = null;
+            return entry;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package persistence;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import model.Student;
+
+/**
+ * Read-only, memory-mapped view of a {@link BinarySnapshot} file.
+ *
+ * Opening the store maps the file and reads only the header and string
+ * dictionary; students are located through the sorted ID index stored in the
+ * file and decoded one at a time when they are asked for. The operating
+ * system pages the file in on demand, so heap use follows the working set
+ * rather than the size of the roster.
+ */
+public class MappedStudentStore {
+    
+    private final File file;
+    private final ByteBuffer buffer;
+    private final StringDictionary dictionary;
+    private final int count;
+    private final int indexOffset;
+    
+    private MappedStudentStore(File file, ByteBuffer buffer, StringDictionary dictionary,
+            int count, int indexOffset) {
+        this.file = file;
+        this.buffer = buffer;
+        this.dictionary = dictionary;
+        this.count = count;
+        this.indexOffset = indexOffset;
+    }
+    
+    /**
+     * Map a snapshot file
+     *
+     * @param file Snapshot written by {@link BinarySnapshot#write}
+     * @return The opened store
+     * @throws IOException If the file cannot be mapped or has no ID index
+     */
+    public static MappedStudentStore open(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot file too large to map: " + file);
+            }
+            // The mapping stays valid after the channel is closed
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            try {
+                int count = BinarySnapshot.readHeader(buffer);
+                long indexOffset = BinarySnapshot.indexOffset(buffer);
+                if (indexOffset == 0) {
+                    throw new IOException("Snapshot has no ID index: " + file);
+                }
+                StringDictionary dictionary = BinarySnapshot.readDictionary(buffer,
+                        buffer.getLong(12));
+                return new MappedStudentStore(file, buffer, dictionary, count, (int) indexOffset);
+            } catch (RuntimeException e) {
+                // Buffer underflows, bad dictionary codes and the like all mean a damaged file
+                throw new IOException("Corrupt snapshot file: " + file, e);
+            }
+        }
+    }
+    
+    // Number of students in the snapshot
+    public int size() {
+        return count;
+    }
+    
+    // Offset of the first record, for walking records in roster order
+    public int firstRecord() {
+        return count == 0 ? -1 : BinarySnapshot.HEADER_SIZE;
+    }
+    
+    // Offset of the record after the given one, or -1 at the end
+    public int nextRecord(int offset) {
+        int next = offset + 4 + buffer.getInt(offset);
+        return next >= dictionaryOffset() ? -1 : next;
+    }
+    
+    /**
+     * Find the record of a student by binary search over the ID index
+     *
+     * @param id Student ID
+     * @return Record offset, or -1 if the student is not in the snapshot
+     */
+    public int find(String id) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int offset = buffer.getInt(indexOffset + mid * 4);
+            int cmp = readId(offset).compareTo(id);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return offset;
+            }
+        }
+        return -1;
+    }
+    
+    // Decode the full student stored at a record offset
+    public Student read(int offset) {
+        return StudentCodec.read(record(offset), dictionary);
+    }
+    
+    // Decode only the ID of the student stored at a record offset
+    public String readId(int offset) {
+        return StudentCodec.readString(record(offset));
+    }
+    
+    // Decode only the grade of the student stored at a record offset
+    public String readGrade(int offset) {
+        return StudentCodec.readGrade(record(offset), dictionary);
+    }
+    
+    public File getFile() {
+        return file;
+    }
+    
+    private ByteBuffer record(int offset) {
+        ByteBuffer record = buffer.duplicate();
+        record.position(offset + 4);
+        record.limit(offset + 4 + buffer.getInt(offset));
+        return record;
+    }
+    
+    private int dictionaryOffset() {
+        return (int) buffer.getLong(12);
+    }
+}
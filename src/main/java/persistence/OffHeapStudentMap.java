@@ -0,0 +1,158 @@
+package persistence;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.function.BiConsumer;
+import model.Student;
+
+/**
+ * Roster map backed by an {@link OffHeapStudentStore}.
+ *
+ * Unlike {@link LazyStudentMap} nothing is cached on the heap: every lookup
+ * decodes a new, detached student, and changes to it are only stored when it
+ * is put back (the controller does this on every save). {@link #put} does not
+ * decode the student it replaces and always returns null. Iteration follows
+ * row order, in which removed students' rows are reused by later additions.
+ * Full scans should use {@link #cursor()} or {@link #records}, which decode
+ * nothing.
+ *
+ * Lookups may run concurrently with each other; changes must be made while
+ * no other thread reads the map (the controller's roster write lock).
+ */
+public class OffHeapStudentMap extends AbstractMap<String, Student> {
+    
+    private final OffHeapStudentStore store;
+    
+    public OffHeapStudentMap(OffHeapStudentStore store) {
+        this.store = store;
+    }
+    
+    @Override
+    public Student get(Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        int row = store.find((String) key);
+        return row >= 0 ? store.read(row) : null;
+    }
+    
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof String && store.find((String) key) >= 0;
+    }
+    
+    // Store a student; returns null instead of decoding the student it replaces
+    @Override
+    public Student put(String id, Student student) {
+        if (!id.equals(student.getId())) {
+            throw new IllegalArgumentException("Student " + student.getId() + " stored under ID " + id);
+        }
+        store.put(student);
+        return null;
+    }
+    
+    @Override
+    public Student remove(Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        int row = store.find((String) key);
+        if (row < 0) {
+            return null;
+        }
+        Student previous = store.read(row);
+        store.remove(row);
+        return previous;
+    }
+    
+    @Override
+    public void clear() {
+        store.clear();
+    }
+    
+    @Override
+    public int size() {
+        return store.size();
+    }
+    
+    // Cursor over the stored students, for scans that must not create objects
+    public OffHeapStudentStore.Cursor cursor() {
+        return store.cursor();
+    }
+    
+    // Store behind the map, for scans split into row ranges
+    public OffHeapStudentStore getStore() {
+        return store;
+    }
+    
+    /**
+     * Snapshot records of the stored students, encoded straight from the
+     * columns. Each student is read under the given lock, so the map may
+     * change between students; a student added in a row the source has
+     * already passed is not written.
+     *
+     * @param readLock Lock that keeps changes out while a student is read
+     * @return Source for {@link BinarySnapshot#write(java.io.File, BinarySnapshot.RecordSource)}
+     */
+    public BinarySnapshot.RecordSource records(Lock readLock) {
+        OffHeapStudentStore.Cursor cursor = store.cursor();
+        return (out, dictionary) -> {
+            readLock.lock();
+            try {
+                return cursor.next() ? StudentCodec.write(cursor, out, dictionary) : null;
+            } finally {
+                readLock.unlock();
+            }
+        };
+    }
+    
+    /**
+     * Visit the grade of every student without decoding the students
+     *
+     * @param action Called with each student ID and grade, in row order
+     */
+    public void forEachGrade(BiConsumer<String, String> action) {
+        store.forEachGrade(action);
+    }
+    
+    @Override
+    public Set<Map.Entry<String, Student>> entrySet() {
+        return new AbstractSet<Map.Entry<String, Student>>() {
+            @Override
+            public Iterator<Map.Entry<String, Student>> iterator() {
+                return new EntryIterator();
+            }
+            
+            @Override
+            public int size() {
+                return store.size();
+            }
+        };
+    }
+    
+    // Decodes each student as it is reached
+    private class EntryIterator implements Iterator<Map.Entry<String, Student>> {
+        
+        private int row = store.firstRow();
+        
+        @Override
+        public boolean hasNext() {
+            return row >= 0;
+        }
+        
+        @Override
+        public Map.Entry<String, Student> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Student student = store.read(row);
+            row = store.nextRow(row);
+            return new SimpleImmutableEntry<>(student.getId(), student);
+        }
+    }
+}
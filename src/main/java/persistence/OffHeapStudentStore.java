@@ -0,0 +1,611 @@
+package persistence;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.function.BiConsumer;
+import model.AttendanceRecord;
+import model.AttendanceRecord.AttendanceStatus;
+import model.Student;
+import model.SubjectCatalog;
+
+/**
+ * Roster kept outside the Java heap, one column per field.
+ *
+ * Every student occupies a row. Fixed-width fields (age, grade, one mark
+ * column per subject, attendance tallies, the absence streak and rolling
+ * attendance window, and references to the ID, name and attendance days)
+ * are stored in direct byte buffers, one buffer per
+ * column, so a scan over one field only touches that field's memory. IDs,
+ * names and attendance days live in a variable-length area, with attendance
+ * encoded as in {@link StudentCodec}. Students are found by ID through an
+ * open-addressing hash table that is also held in a direct buffer.
+ *
+ * The store keeps no per-student objects on the heap: {@link #read} decodes
+ * a detached {@link Student}, and a {@link Cursor} walks the rows without
+ * creating any objects at all. Removed rows are reused, and the
+ * variable-length area is compacted when it fills up with replaced values.
+ *
+ * Reads may run concurrently with each other; changes must be made while no
+ * other thread reads the store (the controller's roster write lock). Direct
+ * memory is limited by {@code -XX:MaxDirectMemorySize}, which defaults to
+ * the maximum heap size.
+ */
+public class OffHeapStudentStore {
+    
+    private static final int INITIAL_ROWS = 1024;
+    private static final int INITIAL_AREA_BYTES = 64 * 1024;
+    private static final int MAX_AREA_BYTES = Integer.MAX_VALUE - 8;
+    private static final int NO_ROW = -1;
+    private static final int NO_GRADE = -1;
+    // Mark column value for a student who does not take the subject; a NaN that arithmetic never produces
+    private static final long NO_MARK = 0x7ff8dead00000001L;
+    private static final AttendanceStatus[] STATUSES = AttendanceStatus.values();
+    
+    private int capacity;
+    // Rows below the limit are live or on the free list; rows above it were never used
+    private int rowLimit;
+    private int size;
+    private int firstFreeRow = NO_ROW;
+    
+    // Fixed-width columns, 4 bytes per row unless noted
+    private ByteBuffer idRefs;            // area offset of the ID, or NO_ROW for a free row
+    private ByteBuffer nameRefs;          // area offset of the name
+    private ByteBuffer ages;              // for a free row: the next free row
+    private ByteBuffer gradeCodes;        // code in the grade dictionary, or NO_GRADE
+    private ByteBuffer attendanceRefs;    // area offset of the encoded attendance days
+    private ByteBuffer attendanceLengths;
+    private ByteBuffer[] tallies;         // days per attendance status
+    private ByteBuffer absenceStreaks;
+    private ByteBuffer rollingDays;       // recorded days in the rolling attendance window
+    private ByteBuffer rollingPresent;    // present days in the rolling attendance window
+    private ByteBuffer[] marks;           // per subject ID, 8 bytes per row; null until the subject is used
+    
+    // Variable-length values; garbage counts the bytes of values that were replaced or removed
+    private ByteBuffer area;
+    private int areaUsed;
+    private int areaGarbage;
+    
+    // 8 bytes per slot: hash of the ID, then row + 1 (0 for an empty slot)
+    private ByteBuffer index;
+    private int indexMask;
+    
+    private final StringDictionary grades;
+    private final ByteArrayOutputStream encoded;
+    private final DataOutputStream encodedOut;
+    
+    public OffHeapStudentStore() {
+        this.grades = new StringDictionary();
+        this.encoded = new ByteArrayOutputStream();
+        this.encodedOut = new DataOutputStream(encoded);
+        clear();
+    }
+    
+    // Number of students in the store
+    public int size() {
+        return size;
+    }
+    
+    /**
+     * Find the row of a student
+     *
+     * @param id Student ID
+     * @return The row, or -1 if no student has that ID
+     */
+    public int find(String id) {
+        int hash = hash(id);
+        for (int slot = hash & indexMask; ; slot = (slot + 1) & indexMask) {
+            int row = index.getInt(slot * 8 + 4) - 1;
+            if (row == NO_ROW) {
+                return NO_ROW;
+            }
+            if (index.getInt(slot * 8) == hash && id.equals(readString(idRefs.getInt(row * 4)))) {
+                return row;
+            }
+        }
+    }
+    
+    // Decode the student stored in a row into a new, detached object
+    public Student read(int row) {
+        Student student = new Student(readId(row), readString(nameRefs.getInt(row * 4)),
+                ages.getInt(row * 4), readGrade(row));
+        for (int subjectId = 0; subjectId < marks.length; subjectId++) {
+            if (marks[subjectId] != null && marks[subjectId].getLong(row * 8) != NO_MARK) {
+                student.putMark(subjectId, marks[subjectId].getDouble(row * 8));
+            }
+        }
+        ByteBuffer days = area.duplicate();
+        days.position(attendanceRefs.getInt(row * 4));
+        days.limit(days.position() + attendanceLengths.getInt(row * 4));
+        StudentCodec.readAttendance(days, student.getAttendanceRecord());
+        return student;
+    }
+    
+    // Decode only the ID stored in a row
+    public String readId(int row) {
+        return readString(idRefs.getInt(row * 4));
+    }
+    
+    // Grade stored in a row; grades are shared strings, so nothing is decoded
+    public String readGrade(int row) {
+        int code = gradeCodes.getInt(row * 4);
+        return code == NO_GRADE ? null : grades.get(code);
+    }
+    
+    /**
+     * Store a student, replacing the row of the student with the same ID
+     *
+     * @param student Student to store; later changes to it are not seen by the store
+     * @return The row the student is stored in
+     */
+    public int put(Student student) {
+        byte[] id = student.getId().getBytes(StandardCharsets.UTF_8);
+        byte[] name = student.getName() == null ? null : student.getName().getBytes(StandardCharsets.UTF_8);
+        encoded.reset();
+        try {
+            StudentCodec.writeAttendance(encodedOut, student.getAttendanceRecord());
+            encodedOut.flush();
+        } catch (IOException e) {
+            // Writing to a byte array cannot fail
+            throw new UncheckedIOException(e);
+        }
+        
+        int row = find(student.getId());
+        boolean added = row == NO_ROW;
+        reserve((added ? stringBytes(id) : 0) + stringBytes(name) + encoded.size());
+        if (added) {
+            row = allocateRow();
+            idRefs.putInt(row * 4, appendString(id));
+            insertIntoIndex(hash(student.getId()), row);
+            size++;
+        } else {
+            areaGarbage += storedStringBytes(nameRefs.getInt(row * 4)) + attendanceLengths.getInt(row * 4);
+        }
+        
+        nameRefs.putInt(row * 4, appendString(name));
+        ages.putInt(row * 4, student.getAge());
+        gradeCodes.putInt(row * 4, student.getGrade() == null ? NO_GRADE : grades.codeOf(student.getGrade()));
+        attendanceRefs.putInt(row * 4, appendBytes(encoded.toByteArray()));
+        attendanceLengths.putInt(row * 4, encoded.size());
+        AttendanceRecord attendance = student.getAttendanceRecord();
+        for (AttendanceStatus status : STATUSES) {
+            tallies[status.ordinal()].putInt(row * 4, attendance.count(status));
+        }
+        absenceStreaks.putInt(row * 4, attendance.getAbsenceStreak());
+        rollingDays.putInt(row * 4, attendance.getRollingRecordedDays());
+        rollingPresent.putInt(row * 4, attendance.getRollingPresentDays());
+        
+        int subjects = Math.max(marks.length, SubjectCatalog.size());
+        for (int subjectId = 0; subjectId < subjects; subjectId++) {
+            if (student.hasSubject(subjectId)) {
+                markColumn(subjectId).putDouble(row * 8, student.getMark(subjectId));
+            } else if (subjectId < marks.length && marks[subjectId] != null) {
+                marks[subjectId].putLong(row * 8, NO_MARK);
+            }
+        }
+        return row;
+    }
+    
+    // Remove the student stored in a row; the row is reused by a later put
+    public void remove(int row) {
+        int idRef = idRefs.getInt(row * 4);
+        removeFromIndex(hash(readString(idRef)), row);
+        areaGarbage += storedStringBytes(idRef) + storedStringBytes(nameRefs.getInt(row * 4))
+                + attendanceLengths.getInt(row * 4);
+        idRefs.putInt(row * 4, NO_ROW);
+        ages.putInt(row * 4, firstFreeRow);
+        firstFreeRow = row;
+        size--;
+    }
+    
+    // Remove every student and release the columns
+    public final void clear() {
+        capacity = INITIAL_ROWS;
+        rowLimit = 0;
+        size = 0;
+        firstFreeRow = NO_ROW;
+        idRefs = allocate(capacity * 4);
+        nameRefs = allocate(capacity * 4);
+        ages = allocate(capacity * 4);
+        gradeCodes = allocate(capacity * 4);
+        attendanceRefs = allocate(capacity * 4);
+        attendanceLengths = allocate(capacity * 4);
+        tallies = new ByteBuffer[STATUSES.length];
+        for (int status = 0; status < STATUSES.length; status++) {
+            tallies[status] = allocate(capacity * 4);
+        }
+        absenceStreaks = allocate(capacity * 4);
+        rollingDays = allocate(capacity * 4);
+        rollingPresent = allocate(capacity * 4);
+        marks = new ByteBuffer[0];
+        area = allocate(INITIAL_AREA_BYTES);
+        areaUsed = 0;
+        areaGarbage = 0;
+        index = allocate(INITIAL_ROWS * 2 * 8);
+        indexMask = INITIAL_ROWS * 2 - 1;
+    }
+    
+    // First live row in row order, or -1 if the store is empty
+    public int firstRow() {
+        return nextRow(NO_ROW);
+    }
+    
+    // Next live row after the given one, or -1 at the end
+    public int nextRow(int row) {
+        for (int next = row + 1; next < rowLimit; next++) {
+            if (idRefs.getInt(next * 4) != NO_ROW) {
+                return next;
+            }
+        }
+        return NO_ROW;
+    }
+    
+    /**
+     * Visit the grade of every student without decoding the students
+     *
+     * @param action Called with each student ID and grade, in row order
+     */
+    public void forEachGrade(BiConsumer<String, String> action) {
+        for (int row = firstRow(); row >= 0; row = nextRow(row)) {
+            action.accept(readId(row), readGrade(row));
+        }
+    }
+    
+    // Row numbers are below this limit; rows below it that hold no student are skipped by cursors
+    public int rowLimit() {
+        return rowLimit;
+    }
+    
+    // New cursor positioned before the first row
+    public Cursor cursor() {
+        return new Cursor(0, Integer.MAX_VALUE);
+    }
+    
+    // New cursor over the rows from fromRow (inclusive) to toRow (exclusive), so scans can be split
+    public Cursor cursor(int fromRow, int toRow) {
+        return new Cursor(fromRow, toRow);
+    }
+    
+    // Bytes of direct memory held by the columns, the variable-length area and the index
+    public long getOffHeapBytes() {
+        long bytes = (long) capacity * 4 * (9 + tallies.length) + area.capacity() + index.capacity();
+        for (ByteBuffer column : marks) {
+            bytes += column == null ? 0 : column.capacity();
+        }
+        return bytes;
+    }
+    
+    /**
+     * Flyweight over the rows of the store. Moving the cursor and reading
+     * numbers, grades and attendance tallies creates no objects, so a scan of
+     * the whole roster leaves nothing for the garbage collector; only
+     * {@link #getId} and {@link #getName} decode new strings.
+     *
+     * The store must not change while the cursor reads a row. Between rows it
+     * may: rows never move, so the cursor carries on where it was, but a
+     * student added in a row it has already passed is not visited.
+     */
+    public final class Cursor {
+        
+        private int row;
+        private final int endRow;
+        private boolean done;
+        
+        private Cursor(int fromRow, int toRow) {
+            this.row = fromRow - 1;
+            this.endRow = toRow;
+        }
+        
+        // Move to the next student; false once every student has been visited
+        public boolean next() {
+            if (!done) {
+                row = nextRow(row);
+                done = row == NO_ROW || row >= endRow;
+            }
+            return !done;
+        }
+        
+        public String getId() {
+            return readId(row);
+        }
+        
+        public String getName() {
+            return readString(nameRefs.getInt(row * 4));
+        }
+        
+        public int getAge() {
+            return ages.getInt(row * 4);
+        }
+        
+        public String getGrade() {
+            return readGrade(row);
+        }
+        
+        public boolean hasSubject(int subjectId) {
+            return subjectId >= 0 && subjectId < marks.length && marks[subjectId] != null
+                    && marks[subjectId].getLong(row * 8) != NO_MARK;
+        }
+        
+        // Mark in a subject (by SubjectCatalog ID), or NaN if the student does not take it
+        public double getMark(int subjectId) {
+            return hasSubject(subjectId) ? marks[subjectId].getDouble(row * 8) : Double.NaN;
+        }
+        
+        // First subject ID at or after from that the student takes, or -1 if there is none
+        public int nextSubjectId(int from) {
+            for (int subjectId = Math.max(from, 0); subjectId < marks.length; subjectId++) {
+                if (hasSubject(subjectId)) {
+                    return subjectId;
+                }
+            }
+            return -1;
+        }
+        
+        public int getSubjectCount() {
+            int count = 0;
+            for (int subjectId = 0; subjectId < marks.length; subjectId++) {
+                if (hasSubject(subjectId)) {
+                    count++;
+                }
+            }
+            return count;
+        }
+        
+        // Same value as Student.calculateOverallAverage()
+        public double getOverallAverage() {
+            double total = 0.0;
+            int count = 0;
+            for (int subjectId = 0; subjectId < marks.length; subjectId++) {
+                if (hasSubject(subjectId)) {
+                    total += marks[subjectId].getDouble(row * 8);
+                    count++;
+                }
+            }
+            return count == 0 ? 0.0 : total / count;
+        }
+        
+        // Number of days with a status
+        public int count(AttendanceStatus status) {
+            return tallies[status.ordinal()].getInt(row * 4);
+        }
+        
+        // Number of days with any status
+        public int getRecordedDays() {
+            int days = 0;
+            for (ByteBuffer tally : tallies) {
+                days += tally.getInt(row * 4);
+            }
+            return days;
+        }
+        
+        // Same value as AttendanceRecord.isFlagged()
+        public boolean isFlagged(int maxAbsenceStreak, double minRollingPercentage) {
+            int windowDays = rollingDays.getInt(row * 4);
+            return absenceStreaks.getInt(row * 4) >= maxAbsenceStreak
+                    || (windowDays > 0 && (double) rollingPresent.getInt(row * 4) / windowDays * 100
+                            < minRollingPercentage);
+        }
+        
+        // Copy the encoded attendance days, in the format StudentCodec writes them
+        void writeAttendance(DataOutput out) throws IOException {
+            int offset = attendanceRefs.getInt(row * 4);
+            int end = offset + attendanceLengths.getInt(row * 4);
+            for (int i = offset; i < end; i++) {
+                out.writeByte(area.get(i));
+            }
+        }
+    }
+    
+    private int allocateRow() {
+        if (firstFreeRow != NO_ROW) {
+            int row = firstFreeRow;
+            firstFreeRow = ages.getInt(row * 4);
+            return row;
+        }
+        if (rowLimit == capacity) {
+            growRows();
+        }
+        return rowLimit++;
+    }
+    
+    private void growRows() {
+        if (capacity > Integer.MAX_VALUE / 16) {
+            throw new IllegalStateException("Off-heap roster is full");
+        }
+        int grown = capacity * 2;
+        idRefs = copyOf(idRefs, grown * 4);
+        nameRefs = copyOf(nameRefs, grown * 4);
+        ages = copyOf(ages, grown * 4);
+        gradeCodes = copyOf(gradeCodes, grown * 4);
+        attendanceRefs = copyOf(attendanceRefs, grown * 4);
+        attendanceLengths = copyOf(attendanceLengths, grown * 4);
+        for (int status = 0; status < tallies.length; status++) {
+            tallies[status] = copyOf(tallies[status], grown * 4);
+        }
+        absenceStreaks = copyOf(absenceStreaks, grown * 4);
+        rollingDays = copyOf(rollingDays, grown * 4);
+        rollingPresent = copyOf(rollingPresent, grown * 4);
+        for (int subjectId = 0; subjectId < marks.length; subjectId++) {
+            if (marks[subjectId] != null) {
+                marks[subjectId] = copyOf(marks[subjectId], grown * 8);
+            }
+        }
+        capacity = grown;
+    }
+    
+    // Column of a subject's marks, created with every existing row marked as not taking it
+    private ByteBuffer markColumn(int subjectId) {
+        if (subjectId >= marks.length) {
+            ByteBuffer[] grown = new ByteBuffer[Math.max(subjectId + 1, SubjectCatalog.size())];
+            System.arraycopy(marks, 0, grown, 0, marks.length);
+            marks = grown;
+        }
+        if (marks[subjectId] == null) {
+            ByteBuffer column = allocate(capacity * 8);
+            for (int row = 0; row < rowLimit; row++) {
+                column.putLong(row * 8, NO_MARK);
+            }
+            marks[subjectId] = column;
+        }
+        return marks[subjectId];
+    }
+    
+    // Make room for the given number of bytes in the variable-length area, compacting or growing it
+    private void reserve(int bytes) {
+        if (areaUsed + bytes <= area.capacity()) {
+            return;
+        }
+        long required = (long) areaUsed - areaGarbage + bytes;
+        if (required > MAX_AREA_BYTES) {
+            throw new IllegalStateException("Off-heap roster is full");
+        }
+        // Leave a third of the area free after compacting, so compactions stay rare
+        long grown = area.capacity();
+        while (grown < required + required / 2 && grown < MAX_AREA_BYTES) {
+            grown *= 2;
+        }
+        compactArea((int) Math.min(grown, MAX_AREA_BYTES));
+    }
+    
+    // Copy the live values into a new area, dropping replaced ones
+    private void compactArea(int newCapacity) {
+        ByteBuffer compacted = allocate(newCapacity);
+        int used = 0;
+        for (int row = firstRow(); row >= 0; row = nextRow(row)) {
+            used = moveValue(idRefs, row, storedStringBytes(idRefs.getInt(row * 4)), compacted, used);
+            used = moveValue(nameRefs, row, storedStringBytes(nameRefs.getInt(row * 4)), compacted, used);
+            used = moveValue(attendanceRefs, row, attendanceLengths.getInt(row * 4), compacted, used);
+        }
+        area = compacted;
+        areaUsed = used;
+        areaGarbage = 0;
+    }
+    
+    private int moveValue(ByteBuffer refs, int row, int length, ByteBuffer target, int targetOffset) {
+        ByteBuffer source = area.duplicate();
+        source.position(refs.getInt(row * 4));
+        source.limit(source.position() + length);
+        ByteBuffer destination = target.duplicate();
+        destination.position(targetOffset);
+        destination.put(source);
+        refs.putInt(row * 4, targetOffset);
+        return targetOffset + length;
+    }
+    
+    // Strings are an int byte length (-1 for null) followed by UTF-8 bytes
+    private int appendString(byte[] bytes) {
+        int offset = areaUsed;
+        area.putInt(offset, bytes == null ? -1 : bytes.length);
+        areaUsed += 4;
+        if (bytes != null) {
+            appendBytes(bytes);
+        }
+        return offset;
+    }
+    
+    private int appendBytes(byte[] bytes) {
+        int offset = areaUsed;
+        ByteBuffer target = area.duplicate();
+        target.position(offset);
+        target.put(bytes);
+        areaUsed += bytes.length;
+        return offset;
+    }
+    
+    private String readString(int offset) {
+        int length = area.getInt(offset);
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        ByteBuffer source = area.duplicate();
+        source.position(offset + 4);
+        source.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+    
+    private static int stringBytes(byte[] bytes) {
+        return 4 + (bytes == null ? 0 : bytes.length);
+    }
+    
+    private int storedStringBytes(int offset) {
+        return 4 + Math.max(0, area.getInt(offset));
+    }
+    
+    private void insertIntoIndex(int hash, int row) {
+        if ((size + 1) * 2L > indexMask + 1) {
+            growIndex();
+        }
+        int slot = hash & indexMask;
+        while (index.getInt(slot * 8 + 4) != 0) {
+            slot = (slot + 1) & indexMask;
+        }
+        index.putInt(slot * 8, hash);
+        index.putInt(slot * 8 + 4, row + 1);
+    }
+    
+    // Linear probing removal: shift later entries of the probe run back into the hole
+    private void removeFromIndex(int hash, int row) {
+        int hole = hash & indexMask;
+        while (index.getInt(hole * 8 + 4) != row + 1) {
+            hole = (hole + 1) & indexMask;
+        }
+        for (int slot = (hole + 1) & indexMask; index.getInt(slot * 8 + 4) != 0;
+                slot = (slot + 1) & indexMask) {
+            int home = index.getInt(slot * 8) & indexMask;
+            // The entry may move into the hole if the hole lies between its home slot and its slot
+            if (((slot - home) & indexMask) >= ((slot - hole) & indexMask)) {
+                index.putInt(hole * 8, index.getInt(slot * 8));
+                index.putInt(hole * 8 + 4, index.getInt(slot * 8 + 4));
+                hole = slot;
+            }
+        }
+        index.putInt(hole * 8, 0);
+        index.putInt(hole * 8 + 4, 0);
+    }
+    
+    private void growIndex() {
+        ByteBuffer old = index;
+        int oldSlots = indexMask + 1;
+        if (oldSlots > Integer.MAX_VALUE / 16) {
+            throw new IllegalStateException("Off-heap roster is full");
+        }
+        index = allocate(oldSlots * 2 * 8);
+        indexMask = oldSlots * 2 - 1;
+        for (int slot = 0; slot < oldSlots; slot++) {
+            int rowPlusOne = old.getInt(slot * 8 + 4);
+            if (rowPlusOne != 0) {
+                int hash = old.getInt(slot * 8);
+                int target = hash & indexMask;
+                while (index.getInt(target * 8 + 4) != 0) {
+                    target = (target + 1) & indexMask;
+                }
+                index.putInt(target * 8, hash);
+                index.putInt(target * 8 + 4, rowPlusOne);
+            }
+        }
+    }
+    
+    private static int hash(String id) {
+        int hash = id.hashCode() * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+    
+    private static ByteBuffer allocate(int bytes) {
+        return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+    }
+    
+    private static ByteBuffer copyOf(ByteBuffer column, int bytes) {
+        ByteBuffer grown = allocate(bytes);
+        ByteBuffer source = column.duplicate();
+        source.clear();
+        grown.put(source);
+        grown.clear();
+        return grown;
+    }
+}
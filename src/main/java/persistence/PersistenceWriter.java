@@ -0,0 +1,298 @@
+package persistence;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Background writer that persists roster changes off the calling thread.
+ *
+ * Callers hand over journal records that are already encoded, so each record
+ * captures the student as it was at the time of the call. A single daemon
+ * thread drains everything queued so far, keeps only the latest record per
+ * student and appends the batch with one write and one sync (group commit).
+ * Write failures are reported to an error listener and the unwritten records
+ * are retried with the next batch. Transactional batches go through
+ * {@link #commit} instead, which either writes them or discards them.
+ */
+public class PersistenceWriter implements Closeable {
+    
+    // How long the writer waits for more edits to join a batch
+    private static final long GROUP_COMMIT_WINDOW_MS = 20;
+    private static final long CLOSE_TIMEOUT_SECONDS = 10;
+    private static final Object STOP = new Object();
+    
+    private final StudentJournal journal;
+    private final BlockingQueue<Object> queue;
+    private final Map<String, byte[]> pending;
+    private final Thread thread;
+    private volatile Consumer<Exception> errorListener;
+    private volatile boolean closed;
+    private Exception failureSinceFlush;
+    
+    public PersistenceWriter(StudentJournal journal) {
+        this.journal = journal;
+        this.queue = new LinkedBlockingQueue<>();
+        this.pending = new LinkedHashMap<>();
+        this.thread = new Thread(this::run, "student-persistence");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+    
+    // Queue an encoded journal record for a student
+    public void append(String id, byte[] record) {
+        enqueue(new Record(id, record));
+    }
+    
+    /**
+     * Write a batch record and wait for the outcome. Unlike records queued
+     * with {@link #append}, a batch that cannot be written is discarded
+     * rather than retried, so the caller can safely undo the changes it
+     * describes when this method throws.
+     *
+     * @param record Encoded batch record
+     * @param timeout Maximum time to wait
+     * @param unit Unit of the timeout
+     * @throws IOException If the batch was not written; it never will be
+     * @throws InterruptedException If interrupted before the batch was written
+     */
+    public void commit(byte[] record, long timeout, TimeUnit unit)
+            throws IOException, InterruptedException {
+        Commit commit = new Commit(record);
+        enqueue(commit);
+        try {
+            commit.done.get(timeout, unit);
+        } catch (ExecutionException e) {
+            throw new IOException("Error writing student data: " + e.getCause().getMessage(),
+                    e.getCause());
+        } catch (TimeoutException | InterruptedException e) {
+            if (commit.claimed.compareAndSet(false, true)) {
+                // The writer has not started on the batch and now never will
+                if (e instanceof InterruptedException) {
+                    throw (InterruptedException) e;
+                }
+                throw new IOException("Timed out writing student data", e);
+            }
+            // The writer is already writing the batch: its outcome decides
+            try {
+                commit.done.join();
+            } catch (RuntimeException failure) {
+                throw new IOException("Error writing student data: "
+                        + failure.getCause().getMessage(), failure.getCause());
+            }
+        }
+    }
+    
+    // Queue a task that runs on the writer thread after every record queued before it
+    public void submit(Task task) {
+        enqueue(task);
+    }
+    
+    /**
+     * Request that everything queued so far be written
+     *
+     * @return A future completed once the queued records are on disk, or
+     *         completed exceptionally if a write since the last flush failed
+     */
+    public CompletableFuture<Void> flush() {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        enqueue(done);
+        return done;
+    }
+    
+    /**
+     * Wait until everything queued so far has been written
+     *
+     * @param timeout Maximum time to wait
+     * @param unit Unit of the timeout
+     * @throws IOException If a write failed or the timeout elapsed
+     * @throws InterruptedException If the calling thread was interrupted
+     */
+    public void awaitFlush(long timeout, TimeUnit unit) throws IOException, InterruptedException {
+        try {
+            flush().get(timeout, unit);
+        } catch (ExecutionException e) {
+            throw new IOException("Error writing student data: " + e.getCause().getMessage(),
+                    e.getCause());
+        } catch (TimeoutException e) {
+            throw new IOException("Timed out writing student data", e);
+        }
+    }
+    
+    // Listener notified on the writer thread whenever a write fails
+    public void setErrorListener(Consumer<Exception> errorListener) {
+        this.errorListener = errorListener;
+    }
+    
+    // Flush pending records, stop the writer thread and close the journal
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            awaitFlush(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            closed = true;
+            queue.add(STOP);
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(CLOSE_TIMEOUT_SECONDS));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            journal.close();
+        }
+    }
+    
+    private void enqueue(Object item) {
+        if (closed) {
+            throw new IllegalStateException("Persistence writer is closed");
+        }
+        queue.add(item);
+    }
+    
+    private void run() {
+        List<Object> batch = new ArrayList<>();
+        while (true) {
+            try {
+                Object first = queue.take();
+                if (first instanceof Record) {
+                    // Give a burst of edits the chance to join this batch
+                    Thread.sleep(GROUP_COMMIT_WINDOW_MS);
+                }
+                batch.add(first);
+                queue.drainTo(batch);
+            } catch (InterruptedException e) {
+                return;
+            }
+            
+            for (Object item : batch) {
+                if (item instanceof Record) {
+                    Record record = (Record) item;
+                    pending.remove(record.id);
+                    pending.put(record.id, record.bytes);
+                } else if (item instanceof Task) {
+                    writePending();
+                    try {
+                        ((Task) item).run();
+                    } catch (IOException | RuntimeException e) {
+                        fail(e);
+                    }
+                } else if (item instanceof Commit) {
+                    writeCommit((Commit) item);
+                } else if (item instanceof CompletableFuture) {
+                    writePending();
+                    completeFlush((CompletableFuture<?>) item);
+                } else if (item == STOP) {
+                    writePending();
+                    return;
+                }
+            }
+            writePending();
+            batch.clear();
+        }
+    }
+    
+    private void writePending() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        try {
+            journal.appendAll(new ArrayList<>(pending.values()));
+            journal.sync();
+            pending.clear();
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+    
+    // Write a batch after the records queued before it, or discard it
+    private void writeCommit(Commit commit) {
+        if (!commit.claimed.compareAndSet(false, true)) {
+            return; // the caller gave up waiting
+        }
+        writePending();
+        if (!pending.isEmpty()) {
+            // Earlier records must reach the journal before the batch
+            commit.done.completeExceptionally(failureSinceFlush != null ? failureSinceFlush
+                    : new IOException("Student data could not be written"));
+            return;
+        }
+        try {
+            journal.appendAll(Collections.singletonList(commit.bytes));
+            journal.sync();
+            commit.done.complete(null);
+        } catch (IOException e) {
+            fail(e);
+            commit.done.completeExceptionally(e);
+        }
+    }
+    
+    @SuppressWarnings("unchecked")
+    private void completeFlush(CompletableFuture<?> done) {
+        CompletableFuture<Void> flush = (CompletableFuture<Void>) done;
+        if (failureSinceFlush != null || !pending.isEmpty()) {
+            flush.completeExceptionally(failureSinceFlush != null ? failureSinceFlush
+                    : new IOException("Student data could not be written"));
+        } else {
+            flush.complete(null);
+        }
+        failureSinceFlush = null;
+    }
+    
+    private void fail(Exception e) {
+        failureSinceFlush = e;
+        Consumer<Exception> listener = errorListener;
+        if (listener != null) {
+            listener.accept(e);
+        } else {
+            System.err.println("Error writing student data: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Work executed on the writer thread, in queue order
+     */
+    @FunctionalInterface
+    public interface Task {
+        void run() throws IOException;
+    }
+    
+    // An encoded journal record and the student it belongs to
+    private static class Record {
+        
+        private final String id;
+        private final byte[] bytes;
+        
+        Record(String id, byte[] bytes) {
+            this.id = id;
+            this.bytes = bytes;
+        }
+    }
+    
+    // A batch record whose caller waits for the outcome; whoever claims it first decides its fate
+    private static class Commit {
+        
+        private final byte[] bytes;
+        private final AtomicBoolean claimed = new AtomicBoolean();
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+        
+        Commit(byte[] bytes) {
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package persistence;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps repeated strings (subject names, grades) to small integer codes so a
+ * snapshot stores each distinct string only once.
+ */
+public class StringDictionary {
+    
+    private final List<String> strings;
+    private final Map<String, Integer> codes;
+    
+    public StringDictionary() {
+        this.strings = new ArrayList<>();
+        this.codes = new HashMap<>();
+    }
+    
+    // Get the code for a string, assigning the next free code if it is new
+    public int codeOf(String value) {
+        Integer code = codes.get(value);
+        if (code == null) {
+            code = strings.size();
+            strings.add(value);
+            codes.put(value, code);
+        }
+        return code;
+    }
+    
+    // Get the string stored under a code
+    public String get(int code) {
+        if (code < 0 || code >= strings.size()) {
+            throw new IllegalArgumentException("Unknown dictionary code: " + code);
+        }
+        return strings.get(code);
+    }
+    
+    // Number of distinct strings in the dictionary
+    public int size() {
+        return strings.size();
+    }
+}
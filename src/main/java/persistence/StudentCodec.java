@@ -0,0 +1,256 @@
+package persistence;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import model.AttendanceRecord;
+import model.AttendanceRecord.AttendanceStatus;
+import model.Student;
+import model.SubjectCatalog;
+
+/**
+ * Compact binary encoding of a single {@link Student}.
+ *
+ * Record layout:
+ * <pre>
+ *   id, name                 string
+ *   age                      varint
+ *   grade                    dictionary code (or inline string)
+ *   subject count            varint
+ *     subject name           dictionary code (or inline string)
+ *     mark                   zig-zag varint of hundredths, or -1 escape + double
+ *   attendance day count     varint
+ *     days                   zig-zag varint first epoch day, then varint deltas
+ *     statuses               4 bits per day, two days per byte
+ * </pre>
+ * When no dictionary is given (journal records) repeated strings are written
+ * inline so each record stands on its own.
+ */
+public final class StudentCodec {
+    
+    private static final AttendanceStatus[] STATUSES = AttendanceStatus.values();
+    private static final int MARK_ESCAPE = -1;
+    
+    private StudentCodec() {
+    }
+    
+    // Encode a student; dictionary may be null to write every string inline
+    public static void write(Student student, DataOutput out, StringDictionary dictionary)
+            throws IOException {
+        writeString(out, student.getId());
+        writeString(out, student.getName());
+        writeVarInt(out, student.getAge());
+        writeShared(out, student.getGrade(), dictionary);
+        
+        writeVarInt(out, student.getSubjectCount());
+        for (int subjectId = student.nextSubjectId(0); subjectId >= 0;
+                subjectId = student.nextSubjectId(subjectId + 1)) {
+            writeShared(out, SubjectCatalog.nameOf(subjectId), dictionary);
+            writeMark(out, student.getMark(subjectId));
+        }
+        
+        writeAttendance(out, student.getAttendanceRecord());
+    }
+    
+    /**
+     * Encode the student at a cursor's row in the same format as
+     * {@link #write(Student, DataOutput, StringDictionary)}, without decoding
+     * a student
+     *
+     * @return The student's ID
+     */
+    static String write(OffHeapStudentStore.Cursor student, DataOutput out, StringDictionary dictionary)
+            throws IOException {
+        String id = student.getId();
+        writeString(out, id);
+        writeString(out, student.getName());
+        writeVarInt(out, student.getAge());
+        writeShared(out, student.getGrade(), dictionary);
+        
+        writeVarInt(out, student.getSubjectCount());
+        for (int subjectId = student.nextSubjectId(0); subjectId >= 0;
+                subjectId = student.nextSubjectId(subjectId + 1)) {
+            writeShared(out, SubjectCatalog.nameOf(subjectId), dictionary);
+            writeMark(out, student.getMark(subjectId));
+        }
+        
+        student.writeAttendance(out);
+        return id;
+    }
+    
+    // Decode a student written by write(); the buffer is advanced past the record
+    public static Student read(ByteBuffer in, StringDictionary dictionary) {
+        String id = readString(in);
+        String name = readString(in);
+        int age = readVarInt(in);
+        String grade = readShared(in, dictionary);
+        Student student = new Student(id, name, age, grade);
+        
+        int subjectCount = readVarInt(in);
+        for (int i = 0; i < subjectCount; i++) {
+            String subjectName = readShared(in, dictionary);
+            student.putMark(SubjectCatalog.idOf(subjectName), readMark(in));
+        }
+        
+        readAttendance(in, student.getAttendanceRecord());
+        return student;
+    }
+    
+    // Read only the grade of a record, skipping the fields before it
+    public static String readGrade(ByteBuffer in, StringDictionary dictionary) {
+        skipString(in);
+        skipString(in);
+        readVarInt(in);
+        return readShared(in, dictionary);
+    }
+    
+    private static void writeMark(DataOutput out, double mark) throws IOException {
+        // Marks with at most two decimals round-trip exactly through hundredths
+        long rounded = Math.round(mark * 100);
+        if (rounded >= 0 && rounded < Integer.MAX_VALUE && rounded / 100.0 == mark) {
+            writeVarInt(out, (int) rounded);
+        } else {
+            writeVarInt(out, MARK_ESCAPE);
+            out.writeDouble(mark);
+        }
+    }
+    
+    private static double readMark(ByteBuffer in) {
+        int hundredths = readVarInt(in);
+        if (hundredths == MARK_ESCAPE) {
+            return in.getDouble();
+        }
+        return hundredths / 100.0;
+    }
+    
+    static void writeAttendance(DataOutput out, AttendanceRecord record) throws IOException {
+        // Days come out of the record already in order
+        int count = record.getRecordedDays();
+        long[] days = new long[count];
+        byte[] statuses = new byte[count];
+        int[] index = new int[1];
+        record.forEachDay((status, day) -> {
+            days[index[0]] = day;
+            statuses[index[0]++] = (byte) status.ordinal();
+        });
+        
+        writeVarInt(out, count);
+        for (int i = 0; i < count; i++) {
+            writeVarInt(out, (int) (i == 0 ? days[i] : days[i] - days[i - 1]));
+        }
+        for (int i = 0; i < count; i += 2) {
+            int low = statuses[i];
+            int high = i + 1 < count ? statuses[i + 1] : 0;
+            out.writeByte(low | (high << 4));
+        }
+    }
+    
+    static void readAttendance(ByteBuffer in, AttendanceRecord record) {
+        int count = readVarInt(in);
+        // Every day takes at least one byte, so a larger count can only come from a corrupt record
+        if (count < 0 || count > in.remaining()) {
+            throw new IllegalArgumentException("Corrupt attendance day count: " + count);
+        }
+        long[] days = new long[count];
+        long day = 0;
+        for (int i = 0; i < count; i++) {
+            day = i == 0 ? readVarInt(in) : day + readVarInt(in);
+            days[i] = day;
+        }
+        for (int i = 0; i < count; i += 2) {
+            int packed = in.get() & 0xFF;
+            record.recordAttendance(days[i], statusOf(packed & 0xF));
+            if (i + 1 < count) {
+                record.recordAttendance(days[i + 1], statusOf(packed >>> 4));
+            }
+        }
+    }
+    
+    private static AttendanceStatus statusOf(int code) {
+        if (code >= STATUSES.length) {
+            throw new IllegalArgumentException("Corrupt attendance status: " + code);
+        }
+        return STATUSES[code];
+    }
+    
+    private static void writeShared(DataOutput out, String value, StringDictionary dictionary)
+            throws IOException {
+        if (dictionary == null) {
+            writeString(out, value);
+        } else {
+            writeVarInt(out, value == null ? 0 : dictionary.codeOf(value) + 1);
+        }
+    }
+    
+    private static String readShared(ByteBuffer in, StringDictionary dictionary) {
+        if (dictionary == null) {
+            return readString(in);
+        }
+        int code = readVarInt(in);
+        return code == 0 ? null : dictionary.get(code - 1);
+    }
+    
+    // Strings are a varint of (byte length + 1), 0 meaning null, then UTF-8 bytes
+    static void writeString(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length + 1);
+        out.write(bytes);
+    }
+    
+    static String readString(ByteBuffer in) {
+        int length = readVarInt(in) - 1;
+        if (length < 0) {
+            return null;
+        }
+        if (length > in.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        if (in.hasArray()) {
+            String value = new String(in.array(), in.arrayOffset() + in.position(), length,
+                    StandardCharsets.UTF_8);
+            in.position(in.position() + length);
+            return value;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+    
+    static void skipString(ByteBuffer in) {
+        int length = readVarInt(in) - 1;
+        if (length > 0) {
+            in.position(in.position() + length);
+        }
+    }
+    
+    // Zig-zag encoded LEB128 varint: small magnitudes take one byte
+    static void writeVarInt(DataOutput out, int value) throws IOException {
+        int zigZag = (value << 1) ^ (value >> 31);
+        while ((zigZag & ~0x7F) != 0) {
+            out.writeByte((zigZag & 0x7F) | 0x80);
+            zigZag >>>= 7;
+        }
+        out.writeByte(zigZag);
+    }
+    
+    static int readVarInt(ByteBuffer in) {
+        int zigZag = 0;
+        int shift = 0;
+        int b;
+        do {
+            if (shift > 28) {
+                throw new IllegalArgumentException("Malformed varint");
+            }
+            b = in.get();
+            zigZag |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return (zigZag >>> 1) ^ -(zigZag & 1);
+    }
+}
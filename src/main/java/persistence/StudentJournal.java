@@ -0,0 +1,458 @@
+package persistence;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.CRC32;
+import model.Student;
+
+/**
+ * Append-only journal of roster mutations.
+ *
+ * Every add, update or removal is written as one small checksummed record,
+ * so the I/O cost of an edit is proportional to the changed student rather
+ * than to the whole roster. The journal is replayed on top of the last
+ * snapshot at startup.
+ *
+ * Before a checkpoint the journal is rotated: the current file is renamed to
+ * a numbered archive (e.g. {@code students.journal.3}) and new records go to
+ * a fresh file. Archives are deleted once a snapshot covering them is safely
+ * on disk; archives still present at startup are replayed first, oldest first.
+ *
+ * Several changes can be written as one batch record, which is replayed
+ * either completely or not at all.
+ *
+ * Records are encoded with {@link StudentCodec}. Journals written by the
+ * older Java-serialization format (version 1) can still be replayed, but
+ * {@link #isLegacyFormat()} tells the caller to compact them away before
+ * appending.
+ */
+public class StudentJournal implements Closeable {
+    
+    private static final int MAGIC = 0x534A524E; // "SJRN"
+    private static final short VERSION = 2;
+    private static final short LEGACY_VERSION = 1;
+    private static final int HEADER_SIZE = 6;
+    private static final int RECORD_HEADER_SIZE = 8; // length + CRC32
+    
+    private final File file;
+    private FileChannel channel;
+    private volatile int recordCount;
+    private short version = VERSION;
+    // Start of records a failed append may have left partly written, or -1
+    private long tornFrom = -1;
+    
+    public StudentJournal(File file) {
+        this.file = file;
+    }
+    
+    /**
+     * Read every intact record in the journal, in the order it was written.
+     * A torn record at the tail (for example after a crash mid-append) ends
+     * the replay and is cut off, so the next append starts on a clean boundary.
+     *
+     * @return The journal entries, oldest first
+     * @throws IOException If the journal exists but cannot be read
+     */
+    public List<Entry> replay() throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        if (!file.exists()) {
+            return entries;
+        }
+        
+        try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            if (readFully(in, header) < HEADER_SIZE || header.getInt(0) != MAGIC) {
+                // Empty or foreign file: start over with a fresh journal
+                in.truncate(0);
+                return entries;
+            }
+            version = header.getShort(4);
+            if (version != VERSION && version != LEGACY_VERSION) {
+                throw new IOException("Unsupported journal version: " + version);
+            }
+            
+            int records = 0;
+            long validEnd = HEADER_SIZE;
+            ByteBuffer recordHeader = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+            while (true) {
+                recordHeader.clear();
+                if (readFully(in, recordHeader) < RECORD_HEADER_SIZE) {
+                    break;
+                }
+                int length = recordHeader.getInt(0);
+                int checksum = recordHeader.getInt(4);
+                if (length <= 0 || length > in.size() - in.position()) {
+                    break;
+                }
+                
+                ByteBuffer payload = ByteBuffer.allocate(length);
+                if (readFully(in, payload) < length || checksum(payload.array()) != checksum) {
+                    break;
+                }
+                
+                decode(payload.array(), 0, length, version, entries);
+                records++;
+                validEnd = in.position();
+            }
+            
+            if (validEnd < in.size()) {
+                System.err.println("Discarding torn journal tail at offset " + validEnd);
+                in.truncate(validEnd);
+            }
+            recordCount = records;
+        }
+        return entries;
+    }
+    
+    // Append a new or updated student to the journal
+    public void appendPut(Student student) throws IOException {
+        appendAll(Collections.singletonList(encodePut(student)));
+    }
+    
+    // Append the removal of a student to the journal
+    public void appendRemove(String id) throws IOException {
+        appendAll(Collections.singletonList(encodeRemove(id)));
+    }
+    
+    /**
+     * Append several encoded records with a single write
+     * 
+     * @param payloads Records produced by {@link #encodePut}, {@link #encodeRemove}
+     *                 or {@link #encodeBatch}
+     * @throws IOException If the journal cannot be written; whatever part of
+     *                     the records was written is cut off again
+     */
+    public void appendAll(List<byte[]> payloads) throws IOException {
+        FileChannel out = openForAppend();
+        if (tornFrom >= 0) {
+            // A failed append could not be cut off at the time; a torn record would end the replay
+            out.truncate(tornFrom);
+            out.position(tornFrom);
+            tornFrom = -1;
+        }
+        ByteBuffer[] records = new ByteBuffer[payloads.size()];
+        for (int i = 0; i < records.length; i++) {
+            byte[] payload = payloads.get(i);
+            ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + payload.length);
+            record.putInt(payload.length);
+            record.putInt(checksum(payload));
+            record.put(payload);
+            record.flip();
+            records[i] = record;
+        }
+        
+        long remaining = 0;
+        for (ByteBuffer record : records) {
+            remaining += record.remaining();
+        }
+        long start = out.position();
+        try {
+            while (remaining > 0) {
+                remaining -= out.write(records);
+            }
+        } catch (IOException e) {
+            // Records appended after a torn one would be lost on replay, so remove it before a retry
+            tornFrom = start;
+            try {
+                out.truncate(start);
+                out.position(start);
+                tornFrom = -1;
+            } catch (IOException truncateFailure) {
+                e.addSuppressed(truncateFailure);
+            }
+            throw e;
+        }
+        recordCount += records.length;
+    }
+    
+    // Force appended records to the storage device
+    public void sync() throws IOException {
+        if (channel != null) {
+            channel.force(false);
+        }
+    }
+    
+    // Encode a put record capturing the current state of a student
+    public static byte[] encodePut(Student student) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(Operation.PUT.ordinal());
+            out.writeUTF(student.getId());
+            StudentCodec.write(student, out, null);
+        }
+        return bytes.toByteArray();
+    }
+    
+    // Encode a removal record
+    public static byte[] encodeRemove(String id) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(Operation.REMOVE.ordinal());
+            out.writeUTF(id);
+        }
+        return bytes.toByteArray();
+    }
+    
+    /**
+     * Combine several encoded records into one batch record. The batch
+     * is checksummed as a whole, so a crash never leaves part of it applied.
+     * 
+     * @param records Records produced by {@link #encodePut} or {@link #encodeRemove}
+     * @return The encoded batch record
+     */
+    public static byte[] encodeBatch(List<byte[]> records) throws IOException {
+        int size = 5;
+        for (byte[] record : records) {
+            size += 4 + record.length;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(size);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(Operation.BATCH.ordinal());
+            out.writeInt(records.size());
+            for (byte[] record : records) {
+                out.writeInt(record.length);
+                out.write(record);
+            }
+        }
+        return bytes.toByteArray();
+    }
+    
+    // Discard all records, typically right after a new snapshot was written
+    public void reset() throws IOException {
+        FileChannel out = openForAppend();
+        out.truncate(0);
+        writeHeader(out);
+        tornFrom = -1;
+        recordCount = 0;
+        version = VERSION;
+    }
+    
+    /**
+     * Move the current records to a new archive and continue with an empty
+     * journal. Must not run concurrently with appends.
+     *
+     * @throws IOException If the journal cannot be renamed
+     */
+    public void rotate() throws IOException {
+        close();
+        if (!file.exists()) {
+            return;
+        }
+        List<File> archives = getArchives();
+        int generation = archives.isEmpty() ? 1 : generationOf(archives.get(archives.size() - 1)) + 1;
+        Files.move(file.toPath(), archiveFile(generation).toPath(), StandardCopyOption.ATOMIC_MOVE);
+        recordCount = 0;
+        version = VERSION;
+    }
+    
+    // Archived journals left by rotate(), oldest first
+    public List<File> getArchives() {
+        List<File> archives = new ArrayList<>();
+        File[] candidates = file.getAbsoluteFile().getParentFile()
+                .listFiles((dir, name) -> generationOf(name) > 0);
+        if (candidates != null) {
+            archives.addAll(Arrays.asList(candidates));
+        }
+        archives.sort(Comparator.comparingInt(this::generationOf));
+        return archives;
+    }
+    
+    // Delete all archives, once a snapshot taken after the last rotation is on disk
+    public void deleteArchives() throws IOException {
+        for (File archive : getArchives()) {
+            Files.deleteIfExists(archive.toPath());
+        }
+    }
+    
+    // Whether the replayed journal uses an older format and must be reset before appending
+    public boolean isLegacyFormat() {
+        return version != VERSION;
+    }
+    
+    // Number of records written since the last reset
+    public int getRecordCount() {
+        return recordCount;
+    }
+    
+    // Current size of the journal file in bytes
+    public long getSize() {
+        return file.length();
+    }
+    
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            try {
+                if (tornFrom >= 0) {
+                    channel.truncate(tornFrom);
+                }
+            } finally {
+                tornFrom = -1;
+                channel.close();
+                channel = null;
+            }
+        }
+    }
+    
+    private File archiveFile(int generation) {
+        return new File(file.getPath() + "." + generation);
+    }
+    
+    private int generationOf(File archive) {
+        return generationOf(archive.getName());
+    }
+    
+    // Generation encoded in an archive's file name, or 0 if the name is not an archive of this journal
+    private int generationOf(String name) {
+        String prefix = file.getName() + ".";
+        if (!name.startsWith(prefix) || name.length() == prefix.length()) {
+            return 0;
+        }
+        for (int i = prefix.length(); i < name.length(); i++) {
+            if (!Character.isDigit(name.charAt(i))) {
+                return 0;
+            }
+        }
+        try {
+            return Integer.parseInt(name.substring(prefix.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+    
+    private FileChannel openForAppend() throws IOException {
+        if (channel == null) {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE);
+            if (channel.size() < HEADER_SIZE) {
+                channel.truncate(0);
+                writeHeader(channel);
+            }
+            channel.position(channel.size());
+        }
+        return channel;
+    }
+    
+    private static void writeHeader(FileChannel out) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC);
+        header.putShort(VERSION);
+        header.flip();
+        out.position(0);
+        while (header.hasRemaining()) {
+            out.write(header);
+        }
+    }
+    
+    // Decode one record into the entries list, expanding batch records
+    private static void decode(byte[] payload, int offset, int length, short version,
+            List<Entry> entries) throws IOException {
+        ByteArrayInputStream bytes = new ByteArrayInputStream(payload, offset, length);
+        try (DataInputStream in = new DataInputStream(bytes)) {
+            Operation operation = Operation.values()[in.readUnsignedByte()];
+            if (operation == Operation.BATCH) {
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    int recordLength = in.readInt();
+                    int recordOffset = offset + length - bytes.available();
+                    if (recordLength <= 0 || recordLength > bytes.available()) {
+                        throw new IOException("Unreadable journal batch record");
+                    }
+                    decode(payload, recordOffset, recordLength, version, entries);
+                    in.skipBytes(recordLength);
+                }
+                return;
+            }
+            
+            String id = in.readUTF();
+            Student student = null;
+            if (operation == Operation.PUT && version == LEGACY_VERSION) {
+                try {
+                    student = (Student) new ObjectInputStream(in).readObject();
+                } catch (ClassNotFoundException e) {
+                    throw new IOException("Unreadable journal record for student " + id, e);
+                }
+            } else if (operation == Operation.PUT) {
+                int studentOffset = offset + length - bytes.available();
+                try {
+                    student = StudentCodec.read(ByteBuffer.wrap(payload, studentOffset,
+                            bytes.available()).slice(), null);
+                } catch (RuntimeException e) {
+                    throw new IOException("Unreadable journal record for student " + id, e);
+                }
+            }
+            entries.add(new Entry(operation, id, student));
+        }
+    }
+    
+    private static int readFully(FileChannel in, ByteBuffer buffer) throws IOException {
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            int read = in.read(buffer);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+    
+    private static int checksum(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        return (int) crc.getValue();
+    }
+    
+    // Kind of mutation stored in a journal record; replayed entries are never BATCH
+    public enum Operation {
+        PUT,
+        REMOVE,
+        BATCH
+    }
+    
+    /**
+     * A single replayed journal record
+     */
+    public static class Entry {
+        
+        private final Operation operation;
+        private final String id;
+        private final Student student;
+        
+        public Entry(Operation operation, String id, Student student) {
+            this.operation = operation;
+            this.id = id;
+            this.student = student;
+        }
+        
+        public Operation getOperation() {
+            return operation;
+        }
+        
+        public String getId() {
+            return id;
+        }
+        
+        // The stored student for PUT records, null for REMOVE records
+        public Student getStudent() {
+            return student;
+        }
+    }
+}
@@ -0,0 +1,322 @@
+package util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import model.Student;
+
+/**
+ * Exports report cards for many students at once, either one file per
+ * student or a single report book with a page per student.
+ *
+ * Separate files are rendered in parallel on a fixed number of worker
+ * threads. At most a few reports per worker are queued at a time, so
+ * exporting a whole roster does not queue a task per student up front. A
+ * failed report does not stop the others; failures are collected in the
+ * {@link Result}. Students whose file names would be the same get a numbered
+ * suffix, so no report overwrites another.
+ */
+public class BatchReportExporter {
+    
+    // Report file format
+    public enum Format {
+        TEXT(".txt"), PDF(".pdf");
+        
+        private final String extension;
+        
+        Format(String extension) {
+            this.extension = extension;
+        }
+        
+        public String getExtension() {
+            return extension;
+        }
+    }
+    
+    // Receives progress; called from the worker threads
+    public interface ProgressListener {
+        void progress(int completed, int total);
+    }
+    
+    private static final int QUEUED_PER_THREAD = 4;
+    
+    private final int threads;
+    private final AtomicBoolean cancelled;
+    
+    // Exporter with one worker per available processor
+    public BatchReportExporter() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+    
+    public BatchReportExporter(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("At least one thread is required");
+        }
+        this.threads = threads;
+        this.cancelled = new AtomicBoolean();
+    }
+    
+    /**
+     * Export a report for each student into a directory. Each report
+     * includes a comparison with the student's grade/class, worked out from
+     * the given students.
+     *
+     * @param students Students to export
+     * @param directory Directory for the report files; created if missing
+     * @param format File format of the reports
+     * @param listener Progress listener, or null
+     * @return Number of reports written, failures and whether the export was cancelled
+     * @throws InterruptedException If the calling thread is interrupted. Reports not yet started are
+     *         cancelled, running ones are finished first, and the thread is left interrupted
+     */
+    public Result export(List<Student> students, File directory, Format format,
+            ProgressListener listener) throws InterruptedException {
+        long start = System.nanoTime();
+        int total = students.size();
+        AtomicInteger completed = new AtomicInteger();
+        AtomicInteger written = new AtomicInteger();
+        ConcurrentLinkedQueue<Failure> failures = new ConcurrentLinkedQueue<>();
+        
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            for (Student student : students) {
+                failures.add(new Failure(student, "Could not create directory " + directory));
+            }
+            return new Result(total, 0, new ArrayList<>(failures), false, System.nanoTime() - start);
+        }
+        
+        ClassStatistics statistics = ClassStatistics.compute(students);
+        // A full queue makes the submitting thread render the report itself, which throttles submission
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads * QUEUED_PER_THREAD),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        // Names are picked here, in roster order, so the same students always get the same files
+        Set<String> usedNames = new HashSet<>();
+        try {
+            for (Student student : students) {
+                if (cancelled.get()) {
+                    break;
+                }
+                String fileName = uniqueFileName(fileNameFor(student, format), usedNames);
+                executor.execute(() -> {
+                    if (cancelled.get()) {
+                        return;
+                    }
+                    try {
+                        String path = new File(directory, fileName).getPath();
+                        if (format == Format.PDF) {
+                            PdfExporter.writePdf(student, statistics, path);
+                        } else {
+                            TextExporter.exportToText(student, statistics, path);
+                        }
+                        written.incrementAndGet();
+                    } catch (Exception e) {
+                        failures.add(new Failure(student, messageOf(e)));
+                    }
+                    if (listener != null) {
+                        listener.progress(completed.incrementAndGet(), total);
+                    }
+                });
+            }
+        } finally {
+            executor.shutdown();
+            awaitWorkers(executor);
+        }
+        return new Result(total, written.get(), new ArrayList<>(failures), cancelled.get(),
+                System.nanoTime() - start);
+    }
+    
+    /**
+     * Export the reports of all the students into one PDF report book, one
+     * page per student, written in the order given. Reports are rendered one
+     * at a time and written out as they go, so memory use does not grow with
+     * the number of students.
+     *
+     * @param students Students to export
+     * @param file The report book file; its directory is created if missing
+     * @param listener Progress listener, or null
+     * @return Number of reports written, failures and whether the export was cancelled
+     * @throws IOException If the book cannot be created or written
+     */
+    public Result exportBook(List<Student> students, File file, ProgressListener listener)
+            throws IOException {
+        long start = System.nanoTime();
+        int total = students.size();
+        int completed = 0;
+        List<Failure> failures = new ArrayList<>();
+        
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create directory " + directory);
+        }
+        
+        ClassStatistics statistics = ClassStatistics.compute(students);
+        try (PdfExporter.ReportBook book = PdfExporter.openReportBook(file.getPath())) {
+            for (Student student : students) {
+                if (cancelled.get()) {
+                    break;
+                }
+                try {
+                    book.add(student, statistics);
+                } catch (RuntimeException e) {
+                    // A bad record only loses its own page; I/O errors end the book
+                    failures.add(new Failure(student, messageOf(e)));
+                }
+                if (listener != null) {
+                    listener.progress(++completed, total);
+                }
+            }
+            return new Result(total, book.getReportCount(), failures, cancelled.get(),
+                    System.nanoTime() - start);
+        }
+    }
+    
+    // Wait for the workers to finish. Reports already running are finished rather than left half
+    // written, even if the thread is interrupted meanwhile; an interrupt cancels the reports not
+    // yet started, and is passed on once the workers are done
+    private void awaitWorkers(ThreadPoolExecutor executor) throws InterruptedException {
+        InterruptedException interrupted = null;
+        while (true) {
+            try {
+                if (executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                    break;
+                }
+            } catch (InterruptedException e) {
+                cancel();
+                interrupted = e;
+            }
+        }
+        if (interrupted != null) {
+            Thread.currentThread().interrupt();
+            throw interrupted;
+        }
+    }
+    
+    // Stop the running export; reports already being written are finished
+    public void cancel() {
+        cancelled.set(true);
+    }
+    
+    public boolean isCancelled() {
+        return cancelled.get();
+    }
+    
+    // File name of a student's report: ID and name, with characters unsafe in file names replaced
+    public static String fileNameFor(Student student, Format format) {
+        String name = student.getId() + "_" + (student.getName() != null ? student.getName() : "") +
+                "_Report";
+        return name.replaceAll("[^A-Za-z0-9._-]", "_") + format.getExtension();
+    }
+    
+    // Add a numbered suffix to a file name already used in this export; names are compared
+    // ignoring case, as they are on Windows and macOS file systems
+    private static String uniqueFileName(String fileName, Set<String> usedNames) {
+        int dot = fileName.lastIndexOf('.');
+        String base = fileName.substring(0, dot);
+        String extension = fileName.substring(dot);
+        String candidate = fileName;
+        for (int n = 2; !usedNames.add(candidate.toLowerCase(Locale.ROOT)); n++) {
+            candidate = base + "_" + n + extension;
+        }
+        return candidate;
+    }
+    
+    private static String messageOf(Exception e) {
+        return e.getMessage() != null ? e.getMessage() : e.toString();
+    }
+    
+    // File name of the report book for a grade/class or other group of students
+    public static String bookFileNameFor(String group) {
+        return (group + "_Report_Book").replaceAll("[^A-Za-z0-9._-]", "_") + Format.PDF.getExtension();
+    }
+    
+    /**
+     * Outcome of a batch export
+     */
+    public static class Result {
+        
+        private final int total;
+        private final int written;
+        private final List<Failure> failures;
+        private final boolean cancelled;
+        private final long elapsedNanos;
+        
+        Result(int total, int written, List<Failure> failures, boolean cancelled, long elapsedNanos) {
+            this.total = total;
+            this.written = written;
+            this.failures = Collections.unmodifiableList(failures);
+            this.cancelled = cancelled;
+            this.elapsedNanos = elapsedNanos;
+        }
+        
+        // Number of students the export was asked for
+        public int getTotal() {
+            return total;
+        }
+        
+        // Number of reports written
+        public int getWritten() {
+            return written;
+        }
+        
+        public List<Failure> getFailures() {
+            return failures;
+        }
+        
+        // Number of students skipped because the export was cancelled
+        public int getSkipped() {
+            return total - written - failures.size();
+        }
+        
+        public boolean isCancelled() {
+            return cancelled;
+        }
+        
+        public long getElapsedMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+        }
+    }
+    
+    /**
+     * A report that could not be written
+     */
+    public static class Failure {
+        
+        private final String studentId;
+        private final String studentName;
+        private final String message;
+        
+        Failure(Student student, String message) {
+            this.studentId = student.getId();
+            this.studentName = student.getName();
+            this.message = message;
+        }
+        
+        public String getStudentId() {
+            return studentId;
+        }
+        
+        public String getStudentName() {
+            return studentName;
+        }
+        
+        public String getMessage() {
+            return message;
+        }
+        
+        @Override
+        public String toString() {
+            return studentId + " (" + studentName + "): " + message;
+        }
+    }
+}
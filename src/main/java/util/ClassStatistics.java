@@ -0,0 +1,248 @@
+package util;
+
+import controller.StudentController;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+import model.GradingScales;
+import model.Student;
+import model.SubjectCatalog;
+import persistence.OffHeapStudentStore;
+
+/**
+ * Class-level statistics over a roster: for every grade/class the overall
+ * averages of its students, and for every subject the marks across the
+ * roster and within each grade/class.
+ *
+ * Everything is gathered in one pass. The roster is split into one chunk per
+ * core, each chunk is summed into its own {@link MarkStatistics.Accumulator}s
+ * on the common fork/join pool, and the partial results are merged. An
+ * off-heap roster is split into row ranges and read through cursors, so no
+ * students are decoded. The result is a snapshot; it does not follow later
+ * changes to the roster.
+ */
+public final class ClassStatistics {
+    
+    private static final int MIN_CHUNK_SIZE = 1024;
+    
+    private final MarkStatistics overall;
+    private final Map<String, MarkStatistics> byGrade;
+    private final Map<String, MarkStatistics> bySubject;
+    private final Map<String, Map<String, MarkStatistics>> byGradeAndSubject;
+    
+    private ClassStatistics(Partial partial) {
+        this.overall = partial.overall.toStatistics(GradingScales.getDefault());
+        // Students without a grade/class are kept under a null grade, sorted first
+        this.byGrade = new TreeMap<>(Comparator.nullsFirst(Comparator.naturalOrder()));
+        this.byGradeAndSubject = new TreeMap<>(Comparator.nullsFirst(Comparator.naturalOrder()));
+        for (Map.Entry<String, GradeTotals> entry : partial.byGrade.entrySet()) {
+            String grade = entry.getKey();
+            GradeTotals totals = entry.getValue();
+            byGrade.put(grade, totals.averages.toStatistics(GradingScales.forGradeLevel(grade)));
+            byGradeAndSubject.put(grade, subjectStatistics(totals.bySubject, grade));
+        }
+        this.bySubject = subjectStatistics(partial.bySubject, null);
+    }
+    
+    // Compute statistics for every student on the controller's roster
+    public static ClassStatistics compute(StudentController controller) {
+        ClassStatistics statistics = controller.scanOffHeap(ClassStatistics::compute);
+        return statistics != null ? statistics : compute(controller.getAllStudents());
+    }
+    
+    // Compute statistics for the given students in one parallel pass
+    public static ClassStatistics compute(Collection<Student> students) {
+        Student[] roster = students.toArray(new Student[0]);
+        int chunks = Math.max(1, Math.min(ForkJoinPool.getCommonPoolParallelism(),
+                roster.length / MIN_CHUNK_SIZE));
+        Partial total = IntStream.range(0, chunks)
+                .parallel()
+                .mapToObj(chunk -> {
+                    Partial partial = new Partial();
+                    int end = (int) ((long) roster.length * (chunk + 1) / chunks);
+                    for (int i = (int) ((long) roster.length * chunk / chunks); i < end; i++) {
+                        partial.add(roster[i]);
+                    }
+                    return partial;
+                })
+                .reduce((a, b) -> {
+                    a.merge(b);
+                    return a;
+                })
+                .orElseGet(Partial::new);
+        return new ClassStatistics(total);
+    }
+    
+    // Compute statistics straight from the columns of an off-heap roster, which must not change meanwhile
+    private static ClassStatistics compute(OffHeapStudentStore store) {
+        int rows = store.rowLimit();
+        int chunks = Math.max(1, Math.min(ForkJoinPool.getCommonPoolParallelism(),
+                rows / MIN_CHUNK_SIZE));
+        Partial total = IntStream.range(0, chunks)
+                .parallel()
+                .mapToObj(chunk -> {
+                    Partial partial = new Partial();
+                    OffHeapStudentStore.Cursor cursor = store.cursor((int) ((long) rows * chunk / chunks),
+                            (int) ((long) rows * (chunk + 1) / chunks));
+                    while (cursor.next()) {
+                        partial.add(cursor);
+                    }
+                    return partial;
+                })
+                .reduce((a, b) -> {
+                    a.merge(b);
+                    return a;
+                })
+                .orElseGet(Partial::new);
+        return new ClassStatistics(total);
+    }
+    
+    // Overall averages of every student
+    public MarkStatistics getOverall() {
+        return overall;
+    }
+    
+    // Overall averages of the students in a grade/class (which may be null), or null if there are none
+    public MarkStatistics getGradeStatistics(String grade) {
+        return byGrade.get(grade);
+    }
+    
+    // Marks in a subject across all students, or null if nobody takes it
+    public MarkStatistics getSubjectStatistics(String subject) {
+        return bySubject.get(subject);
+    }
+    
+    // Marks in a subject within a grade/class, or null if nobody there takes it
+    public MarkStatistics getSubjectStatistics(String grade, String subject) {
+        Map<String, MarkStatistics> subjects = byGradeAndSubject.get(grade);
+        return subjects == null ? null : subjects.get(subject);
+    }
+    
+    // Statistics per grade/class, sorted by grade, with students without one first
+    public Map<String, MarkStatistics> getGradeStatistics() {
+        return Collections.unmodifiableMap(byGrade);
+    }
+    
+    // Statistics per subject, sorted by subject name
+    public Map<String, MarkStatistics> getSubjectStatistics() {
+        return Collections.unmodifiableMap(bySubject);
+    }
+    
+    // Rank of a student's overall average within their grade/class, or 0 if the grade is unknown
+    public long getRankInGrade(Student student) {
+        MarkStatistics grade = byGrade.get(student.getGrade());
+        return grade == null ? 0 : grade.getRank(student.calculateOverallAverage());
+    }
+    
+    private static Map<String, MarkStatistics> subjectStatistics(MarkStatistics.Accumulator[] bySubjectId,
+            String grade) {
+        Map<String, MarkStatistics> statistics = new TreeMap<>();
+        for (int subjectId = 0; subjectId < bySubjectId.length; subjectId++) {
+            if (bySubjectId[subjectId] != null) {
+                statistics.put(SubjectCatalog.nameOf(subjectId),
+                        bySubjectId[subjectId].toStatistics(GradingScales.forSubject(grade, subjectId)));
+            }
+        }
+        return statistics;
+    }
+    
+    // Accumulators for one chunk of the roster, indexed by subject ID where they are per subject
+    private static final class Partial {
+        
+        final MarkStatistics.Accumulator overall = new MarkStatistics.Accumulator();
+        final Map<String, GradeTotals> byGrade = new HashMap<>();
+        MarkStatistics.Accumulator[] bySubject = new MarkStatistics.Accumulator[0];
+        
+        void add(Student student) {
+            GradeTotals grade = byGrade.computeIfAbsent(student.getGrade(), g -> new GradeTotals());
+            if (student.getSubjectCount() > 0) {
+                addAverage(grade, student.calculateOverallAverage());
+            }
+            for (int subjectId = student.nextSubjectId(0); subjectId >= 0;
+                    subjectId = student.nextSubjectId(subjectId + 1)) {
+                addMark(grade, subjectId, student.getMark(subjectId));
+            }
+        }
+        
+        // Same as add(Student), for the student at a cursor's row
+        void add(OffHeapStudentStore.Cursor student) {
+            GradeTotals grade = byGrade.computeIfAbsent(student.getGrade(), g -> new GradeTotals());
+            if (student.getSubjectCount() > 0) {
+                addAverage(grade, student.getOverallAverage());
+            }
+            for (int subjectId = student.nextSubjectId(0); subjectId >= 0;
+                    subjectId = student.nextSubjectId(subjectId + 1)) {
+                addMark(grade, subjectId, student.getMark(subjectId));
+            }
+        }
+        
+        private void addAverage(GradeTotals grade, double average) {
+            overall.add(average);
+            grade.averages.add(average);
+        }
+        
+        private void addMark(GradeTotals grade, int subjectId, double mark) {
+            bySubject = accumulatorFor(bySubject, subjectId);
+            bySubject[subjectId].add(mark);
+            grade.bySubject = accumulatorFor(grade.bySubject, subjectId);
+            grade.bySubject[subjectId].add(mark);
+        }
+        
+        void merge(Partial other) {
+            overall.merge(other.overall);
+            for (Map.Entry<String, GradeTotals> entry : other.byGrade.entrySet()) {
+                GradeTotals grade = byGrade.get(entry.getKey());
+                if (grade == null) {
+                    byGrade.put(entry.getKey(), entry.getValue());
+                } else {
+                    grade.averages.merge(entry.getValue().averages);
+                    grade.bySubject = mergeAll(grade.bySubject, entry.getValue().bySubject);
+                }
+            }
+            bySubject = mergeAll(bySubject, other.bySubject);
+        }
+    }
+    
+    // Accumulators for one grade/class within a chunk
+    private static final class GradeTotals {
+        
+        final MarkStatistics.Accumulator averages = new MarkStatistics.Accumulator();
+        MarkStatistics.Accumulator[] bySubject = new MarkStatistics.Accumulator[0];
+    }
+    
+    // Make sure the array has an accumulator for the subject, growing it if needed
+    private static MarkStatistics.Accumulator[] accumulatorFor(MarkStatistics.Accumulator[] accumulators,
+            int subjectId) {
+        if (subjectId >= accumulators.length) {
+            accumulators = Arrays.copyOf(accumulators, Math.max(subjectId + 1, SubjectCatalog.size()));
+        }
+        if (accumulators[subjectId] == null) {
+            accumulators[subjectId] = new MarkStatistics.Accumulator();
+        }
+        return accumulators;
+    }
+    
+    private static MarkStatistics.Accumulator[] mergeAll(MarkStatistics.Accumulator[] into,
+            MarkStatistics.Accumulator[] from) {
+        if (from.length > into.length) {
+            into = Arrays.copyOf(into, from.length);
+        }
+        for (int subjectId = 0; subjectId < from.length; subjectId++) {
+            if (from[subjectId] == null) {
+                continue;
+            }
+            if (into[subjectId] == null) {
+                into[subjectId] = from[subjectId];
+            } else {
+                into[subjectId].merge(from[subjectId]);
+            }
+        }
+        return into;
+    }
+}
@@ -0,0 +1,447 @@
+package util;
+
+import controller.StudentController;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.IntStream;
+import model.AttendanceRecord;
+import model.AttendanceRecord.AttendanceStatus;
+import model.Student;
+import model.SubjectCatalog;
+
+/**
+ * Utility class for bulk importing students, marks and attendance from CSV files
+ *
+ * Files are streamed line by line and validated in chunks on a parallel
+ * stream, so memory use depends on the chunk size and the number of students
+ * touched, not on the number of rows. Validated rows are collected as pending
+ * changes per student (details, marks and attendance, the last row winning).
+ * At the end each student is read again under its lock, the changes are
+ * applied to it, and all students are saved with a single batch, so edits
+ * made elsewhere during the import are not overwritten.
+ * Invalid rows are skipped and reported with their file and line number.
+ *
+ * Every file needs a header row; columns may appear in any order:
+ * <pre>
+ *   students:   id, name, age, grade
+ *   marks:      id, subject, mark
+ *   attendance: id, date, status     (date as yyyy-MM-dd)
+ * </pre>
+ */
+public class CsvImporter {
+    
+    private static final int CHUNK_SIZE = 8192;
+    private static final int MAX_REPORTED_ERRORS = 1000;
+    
+    private final StudentController controller;
+    
+    public CsvImporter(StudentController controller) {
+        this.controller = controller;
+    }
+    
+    /**
+     * Import several CSV files, telling students, marks and attendance apart
+     * by their header row. Students are imported first so that marks and
+     * attendance may refer to students added by the same import.
+     *
+     * @param files CSV files to import
+     * @return Counts and the rows that could not be imported
+     * @throws IOException If a file cannot be read or the import cannot be saved
+     */
+    public ImportResult importFiles(List<File> files) throws IOException {
+        Map<FileKind, List<File>> filesByKind = new EnumMap<>(FileKind.class);
+        for (File file : files) {
+            filesByKind.computeIfAbsent(detectKind(file), k -> new ArrayList<>()).add(file);
+        }
+        
+        ImportResult result = new ImportResult();
+        Map<String, PendingChanges> staged = new LinkedHashMap<>();
+        for (FileKind kind : FileKind.values()) {
+            for (File file : filesByKind.getOrDefault(kind, Collections.emptyList())) {
+                importFile(file, kind, staged, result);
+            }
+        }
+        
+        result.studentsSaved = controller.modifyStudents(staged.keySet(),
+                (id, student) -> staged.get(id).applyTo(id, student));
+        return result;
+    }
+    
+    // Work out what a CSV file contains from its header row
+    public static FileKind detectKind(File file) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String header = reader.readLine();
+            if (header != null) {
+                Map<String, Integer> columns = readHeader(header);
+                // Most specific first: every kind has an id column
+                for (FileKind kind : new FileKind[] {FileKind.ATTENDANCE, FileKind.MARKS, FileKind.STUDENTS}) {
+                    if (columns.keySet().containsAll(kind.columns)) {
+                        return kind;
+                    }
+                }
+            }
+        }
+        throw new IOException("Unrecognized CSV header in " + file.getName());
+    }
+    
+    private void importFile(File file, FileKind kind, Map<String, PendingChanges> staged,
+            ImportResult result) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String header = reader.readLine();
+            if (header == null) {
+                return;
+            }
+            int[] columns = new int[kind.columns.size()];
+            Map<String, Integer> headerColumns = readHeader(header);
+            for (int i = 0; i < columns.length; i++) {
+                Integer column = headerColumns.get(kind.columns.get(i));
+                if (column == null) {
+                    throw new IOException("Missing column '" + kind.columns.get(i) + "' in " + file.getName());
+                }
+                columns[i] = column;
+            }
+            
+            List<String> lines = new ArrayList<>(CHUNK_SIZE);
+            long firstLine = 2;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+                if (lines.size() == CHUNK_SIZE) {
+                    importChunk(file, kind, columns, lines, firstLine, staged, result);
+                    firstLine += lines.size();
+                    lines.clear();
+                }
+            }
+            importChunk(file, kind, columns, lines, firstLine, staged, result);
+        }
+    }
+    
+    // Validate a chunk in parallel, then stage its rows in file order
+    private void importChunk(File file, FileKind kind, int[] columns, List<String> lines,
+            long firstLine, Map<String, PendingChanges> staged, ImportResult result) {
+        Row[] rows = IntStream.range(0, lines.size())
+                .parallel()
+                .mapToObj(i -> parseRow(kind, columns, lines.get(i)))
+                .toArray(Row[]::new);
+        
+        for (int i = 0; i < rows.length; i++) {
+            Row row = rows[i];
+            if (row == null) {
+                continue; // blank line
+            }
+            result.rowsRead++;
+            String error = row.error != null ? row.error : applyRow(kind, row, staged);
+            if (error != null) {
+                result.addError(new RowError(file.getName(), firstLine + i, error));
+            } else {
+                result.rowsImported++;
+            }
+        }
+    }
+    
+    // Add a valid row to the pending changes of its student; returns an error message or null
+    private String applyRow(FileKind kind, Row row, Map<String, PendingChanges> staged) {
+        PendingChanges changes = staged.get(row.id);
+        if (changes == null) {
+            if (kind != FileKind.STUDENTS && controller.getStudentById(row.id) == null) {
+                return "Unknown student ID: " + row.id;
+            }
+            changes = new PendingChanges();
+            staged.put(row.id, changes);
+        }
+        
+        switch (kind) {
+            case STUDENTS:
+                changes.hasDetails = true;
+                changes.name = row.name;
+                changes.age = row.age;
+                changes.grade = row.grade;
+                break;
+            case MARKS:
+                changes.putMark(SubjectCatalog.idOf(row.subject), row.mark);
+                break;
+            default:
+                if (changes.attendance == null) {
+                    changes.attendance = new AttendanceRecord();
+                }
+                changes.attendance.recordAttendance(row.day, row.status);
+        }
+        return null;
+    }
+    
+    // Parse and validate one line; returns null for blank lines
+    private static Row parseRow(FileKind kind, int[] columns, String line) {
+        if (line.trim().isEmpty()) {
+            return null;
+        }
+        Row row = new Row();
+        List<String> fields = splitLine(line);
+        if (fields == null) {
+            row.error = "Unterminated quoted field";
+            return row;
+        }
+        String[] values = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            values[i] = columns[i] < fields.size() ? fields.get(columns[i]).trim() : "";
+            if (values[i].isEmpty()) {
+                row.error = "Missing value for '" + kind.columns.get(i) + "'";
+                return row;
+            }
+        }
+        row.id = values[0];
+        
+        switch (kind) {
+            case STUDENTS:
+                row.name = values[1];
+                row.grade = values[3];
+                try {
+                    row.age = Integer.parseInt(values[2]);
+                } catch (NumberFormatException e) {
+                    row.age = 0;
+                }
+                if (row.age <= 0) {
+                    row.error = "Age must be a positive number: " + values[2];
+                }
+                break;
+            case MARKS:
+                row.subject = values[1];
+                try {
+                    row.mark = Double.parseDouble(values[2]);
+                } catch (NumberFormatException e) {
+                    row.mark = Double.NaN;
+                }
+                if (!(row.mark >= 0 && row.mark <= 100)) {
+                    row.error = "Mark must be a number between 0 and 100: " + values[2];
+                }
+                break;
+            default:
+                try {
+                    row.day = LocalDate.parse(values[1]).toEpochDay();
+                } catch (DateTimeParseException e) {
+                    row.error = "Date must be in yyyy-MM-dd format: " + values[1];
+                    return row;
+                }
+                try {
+                    row.status = AttendanceStatus.valueOf(values[2].toUpperCase(Locale.ROOT));
+                } catch (IllegalArgumentException e) {
+                    row.error = "Unknown attendance status: " + values[2];
+                }
+        }
+        return row;
+    }
+    
+    // Map lower-case column names to their positions
+    private static Map<String, Integer> readHeader(String header) {
+        Map<String, Integer> columns = new HashMap<>();
+        List<String> names = splitLine(header.startsWith("\uFEFF") ? header.substring(1) : header);
+        if (names != null) {
+            for (int i = 0; i < names.size(); i++) {
+                String name = names.get(i).trim().toLowerCase(Locale.ROOT);
+                columns.putIfAbsent(name.equals("student_id") ? "id" : name, i);
+            }
+        }
+        return columns;
+    }
+    
+    // Split a CSV line, honouring double-quoted fields; returns null if a quote is left open
+    private static List<String> splitLine(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) {
+            return null;
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+    
+    /**
+     * Kinds of CSV file the importer understands, in import order
+     */
+    public enum FileKind {
+        STUDENTS("id", "name", "age", "grade"),
+        MARKS("id", "subject", "mark"),
+        ATTENDANCE("id", "date", "status");
+        
+        private final List<String> columns;
+        
+        FileKind(String... columns) {
+            this.columns = Collections.unmodifiableList(Arrays.asList(columns));
+        }
+        
+        // Required column names, in the order rows are parsed
+        public List<String> getColumns() {
+            return columns;
+        }
+    }
+    
+    /**
+     * A row that could not be imported
+     */
+    public static class RowError {
+        
+        private final String fileName;
+        private final long line;
+        private final String message;
+        
+        public RowError(String fileName, long line, String message) {
+            this.fileName = fileName;
+            this.line = line;
+            this.message = message;
+        }
+        
+        public String getFileName() {
+            return fileName;
+        }
+        
+        public long getLine() {
+            return line;
+        }
+        
+        public String getMessage() {
+            return message;
+        }
+        
+        @Override
+        public String toString() {
+            return fileName + ":" + line + ": " + message;
+        }
+    }
+    
+    /**
+     * Outcome of an import. Only the first errors are kept, but all are counted.
+     */
+    public static class ImportResult {
+        
+        private long rowsRead;
+        private long rowsImported;
+        private long errorCount;
+        private int studentsSaved;
+        private final List<RowError> errors = new ArrayList<>();
+        
+        private void addError(RowError error) {
+            errorCount++;
+            if (errors.size() < MAX_REPORTED_ERRORS) {
+                errors.add(error);
+            }
+        }
+        
+        // Non-blank data rows read
+        public long getRowsRead() {
+            return rowsRead;
+        }
+        
+        public long getRowsImported() {
+            return rowsImported;
+        }
+        
+        // Total number of rows rejected, including those not listed in getErrors()
+        public long getErrorCount() {
+            return errorCount;
+        }
+        
+        // Number of students added or changed by the import
+        public int getStudentsSaved() {
+            return studentsSaved;
+        }
+        
+        // The first rejected rows, in file order
+        public List<RowError> getErrors() {
+            return Collections.unmodifiableList(errors);
+        }
+    }
+    
+    // Changes the import makes to one student, kept until they are applied to the stored student
+    private static class PendingChanges {
+        
+        private boolean hasDetails;
+        private String name;
+        private int age;
+        private String grade;
+        // Mark per subject ID, NaN where the import sets none
+        private double[] marks = new double[0];
+        private AttendanceRecord attendance;
+        
+        void putMark(int subjectId, double mark) {
+            if (subjectId >= marks.length) {
+                int oldLength = marks.length;
+                marks = Arrays.copyOf(marks, Math.max(subjectId + 1, SubjectCatalog.size()));
+                Arrays.fill(marks, oldLength, marks.length, Double.NaN);
+            }
+            marks[subjectId] = mark;
+        }
+        
+        // Apply the changes to a copy of the stored student, or create it; null if it is gone
+        Student applyTo(String id, Student student) {
+            if (student == null) {
+                if (!hasDetails) {
+                    // Removed since its rows were read; its marks and attendance have nowhere to go
+                    return null;
+                }
+                student = new Student(id, name, age, grade);
+            } else if (hasDetails) {
+                student.setName(name);
+                student.setAge(age);
+                student.setGrade(grade);
+            }
+            for (int subjectId = 0; subjectId < marks.length; subjectId++) {
+                if (!Double.isNaN(marks[subjectId])) {
+                    student.putMark(subjectId, marks[subjectId]);
+                }
+            }
+            if (attendance != null) {
+                AttendanceRecord record = student.getAttendanceRecord();
+                attendance.forEachDay((status, day) -> record.recordAttendance(day, status));
+            }
+            return student;
+        }
+    }
+    
+    // A parsed line; only the fields of its file kind are set
+    private static class Row {
+        
+        private String id;
+        private String name;
+        private int age;
+        private String grade;
+        private String subject;
+        private double mark;
+        private long day;
+        private AttendanceStatus status;
+        private String error;
+    }
+}
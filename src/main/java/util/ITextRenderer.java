@@ -0,0 +1,228 @@
+package util;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+
+import model.Student;
+import model.Subject;
+
+// iText imports
+import com.itextpdf.text.Document;
+import com.itextpdf.text.DocumentException;
+import com.itextpdf.text.Element;
+import com.itextpdf.text.Font;
+import com.itextpdf.text.FontFactory;
+import com.itextpdf.text.Paragraph;
+import com.itextpdf.text.Phrase;
+import com.itextpdf.text.pdf.PdfPCell;
+import com.itextpdf.text.pdf.PdfPTable;
+import com.itextpdf.text.pdf.PdfWriter;
+import com.itextpdf.text.BaseColor;
+import com.itextpdf.text.pdf.draw.LineSeparator;
+
+/**
+ * Renders report cards with the iText library.
+ *
+ * All iText types are kept in this class, so {@link PdfExporter} can be
+ * loaded and used without iText on the classpath. It is only loaded once
+ * PdfExporter has found the library.
+ */
+final class ITextRenderer {
+    
+    // Immutable, so reports can be rendered on several threads at once
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+    
+    // Fonts
+    private static final Font TITLE_FONT = FontFactory.getFont(FontFactory.HELVETICA_BOLD, 16, BaseColor.DARK_GRAY);
+    private static final Font HEADER_FONT = FontFactory.getFont(FontFactory.HELVETICA_BOLD, 12, BaseColor.DARK_GRAY);
+    private static final Font NORMAL_FONT = FontFactory.getFont(FontFactory.HELVETICA, 10, BaseColor.BLACK);
+    private static final Font BOLD_FONT = FontFactory.getFont(FontFactory.HELVETICA_BOLD, 10, BaseColor.BLACK);
+    private static final Font FOOTER_FONT = FontFactory.getFont(FontFactory.HELVETICA_OBLIQUE, 8, BaseColor.GRAY);
+    
+    private ITextRenderer() {
+    }
+    
+    // Render a single report into a PDF file
+    static void writePdf(Student student, ClassStatistics statistics, String filePath) throws IOException {
+        // Create PDF document with iText
+        Document document = new Document();
+        try (FileOutputStream out = new FileOutputStream(filePath)) {
+            PdfWriter.getInstance(document, out);
+            document.open();
+            addReport(document, student, statistics);
+            document.close();
+        } catch (DocumentException e) {
+            throw new IOException("Error creating PDF with iText: " + e.getMessage(), e);
+        }
+    }
+    
+    // Add the sections of a student's report card to an open document
+    private static void addReport(Document document, Student student, ClassStatistics statistics) 
+            throws DocumentException {
+        // Add title
+        Paragraph title = new Paragraph("STUDENT REPORT CARD", TITLE_FONT);
+        title.setAlignment(Element.ALIGN_CENTER);
+        document.add(title);
+        document.add(new Paragraph(" ")); // Space
+        
+        // Add student information section
+        document.add(new Paragraph("Student Information:", HEADER_FONT));
+        document.add(new LineSeparator());
+        document.add(new Paragraph("ID: " + student.getId(), NORMAL_FONT));
+        document.add(new Paragraph("Name: " + student.getName(), NORMAL_FONT));
+        document.add(new Paragraph("Age: " + student.getAge(), NORMAL_FONT));
+        document.add(new Paragraph("Grade/Class: " + student.getGrade(), NORMAL_FONT));
+        document.add(new Paragraph(" ")); // Space
+        
+        // Add academic performance section
+        document.add(new Paragraph("Academic Performance:", HEADER_FONT));
+        document.add(new LineSeparator());
+        
+        // Create a table for subjects
+        PdfPTable table = new PdfPTable(3); // 3 columns
+        table.setWidthPercentage(100);
+        
+        // Set table headers
+        PdfPCell cell1 = new PdfPCell(new Phrase("Subject", BOLD_FONT));
+        PdfPCell cell2 = new PdfPCell(new Phrase("Mark", BOLD_FONT));
+        PdfPCell cell3 = new PdfPCell(new Phrase("Grade", BOLD_FONT));
+        
+        cell1.setBackgroundColor(BaseColor.LIGHT_GRAY);
+        cell2.setBackgroundColor(BaseColor.LIGHT_GRAY);
+        cell3.setBackgroundColor(BaseColor.LIGHT_GRAY);
+        
+        table.addCell(cell1);
+        table.addCell(cell2);
+        table.addCell(cell3);
+        
+        // Add subject data to the table
+        for (Subject subject : student.getSubjectList()) {
+            table.addCell(new Phrase(subject.getName(), NORMAL_FONT));
+            table.addCell(new Phrase(String.format("%.2f", subject.getMark()), NORMAL_FONT));
+            table.addCell(new Phrase(subject.getGrade(), NORMAL_FONT));
+        }
+        
+        document.add(table);
+        document.add(new Paragraph(" ")); // Space
+        
+        // Add overall performance
+        document.add(new Paragraph("Overall Average: " + 
+                String.format("%.2f", student.calculateOverallAverage()), BOLD_FONT));
+        document.add(new Paragraph("Overall Grade: " + 
+                student.calculateOverallGrade(), BOLD_FONT));
+        document.add(new Paragraph("GPA: " + 
+                String.format("%.2f", student.calculateGpa()), BOLD_FONT));
+        document.add(new Paragraph("Result: " + 
+                (student.isPassing() ? "Pass" : "Fail"), BOLD_FONT));
+        document.add(new Paragraph(" ")); // Space
+        
+        // Add class comparison
+        MarkStatistics classMarks = statistics == null ? null : statistics.getGradeStatistics(student.getGrade());
+        if (classMarks != null) {
+            document.add(new Paragraph("Class Comparison:", HEADER_FONT));
+            document.add(new LineSeparator());
+            document.add(new Paragraph("Class Rank: " + 
+                    statistics.getRankInGrade(student) + " of " + classMarks.getCount(), NORMAL_FONT));
+            document.add(new Paragraph("Class Average: " + 
+                    String.format("%.2f", classMarks.getMean()), NORMAL_FONT));
+            document.add(new Paragraph("Class Median: " + 
+                    String.format("%.2f", classMarks.getMedian()), NORMAL_FONT));
+            document.add(new Paragraph("Standard Deviation: " + 
+                    String.format("%.2f", classMarks.getStandardDeviation()), NORMAL_FONT));
+            
+            PdfPTable classTable = new PdfPTable(3);
+            classTable.setWidthPercentage(100);
+            for (String header : new String[] {"Subject", "Class Average", "Class Median"}) {
+                PdfPCell cell = new PdfPCell(new Phrase(header, BOLD_FONT));
+                cell.setBackgroundColor(BaseColor.LIGHT_GRAY);
+                classTable.addCell(cell);
+            }
+            for (Subject subject : student.getSubjectList()) {
+                MarkStatistics subjectMarks = statistics.getSubjectStatistics(student.getGrade(), subject.getName());
+                if (subjectMarks != null) {
+                    classTable.addCell(new Phrase(subject.getName(), NORMAL_FONT));
+                    classTable.addCell(new Phrase(String.format("%.2f", subjectMarks.getMean()), NORMAL_FONT));
+                    classTable.addCell(new Phrase(String.format("%.2f", subjectMarks.getMedian()), NORMAL_FONT));
+                }
+            }
+            document.add(classTable);
+            document.add(new Paragraph(" ")); // Space
+        }
+        
+        // Add attendance information
+        document.add(new Paragraph("Attendance Information:", HEADER_FONT));
+        document.add(new LineSeparator());
+        document.add(new Paragraph("Present: " + 
+                student.getAttendanceRecord().countPresent() + " days", NORMAL_FONT));
+        document.add(new Paragraph("Absent: " + 
+                student.getAttendanceRecord().countAbsent() + " days", NORMAL_FONT));
+        document.add(new Paragraph("Late: " + 
+                student.getAttendanceRecord().countLate() + " days", NORMAL_FONT));
+        document.add(new Paragraph("Excused: " + 
+                student.getAttendanceRecord().countExcused() + " days", NORMAL_FONT));
+        document.add(new Paragraph("Attendance Percentage: " + 
+                String.format("%.2f%%", student.getAttendanceRecord().calculateAttendancePercentage()), NORMAL_FONT));
+        document.add(new Paragraph("Last 30 Days: " + 
+                String.format("%.2f%%", student.getAttendanceRecord().calculateRecentAttendancePercentage(30)), NORMAL_FONT));
+        document.add(new Paragraph(" ")); // Space
+        
+        // Add footer
+        document.add(new LineSeparator());
+        document.add(new Paragraph("Report Generated: " + DATE_FORMAT.format(LocalDate.now()), FOOTER_FONT));
+    }
+    
+    // Report book rendered with iText; pages are written to the file as they are finished
+    static final class Book extends PdfExporter.ReportBook {
+        
+        private final FileOutputStream out;
+        private final Document document;
+        private final PdfWriter writer;
+        
+        Book(String filePath) throws IOException {
+            this.out = new FileOutputStream(filePath);
+            try {
+                this.document = new Document();
+                this.writer = PdfWriter.getInstance(document, new BufferedOutputStream(out));
+                document.open();
+            } catch (DocumentException e) {
+                out.close();
+                throw new IOException("Error creating PDF with iText: " + e.getMessage(), e);
+            } catch (RuntimeException | Error e) {
+                out.close();
+                throw e;
+            }
+        }
+        
+        @Override
+        void write(Student student, ClassStatistics statistics, boolean first) throws IOException {
+            try {
+                if (!first) {
+                    document.newPage();
+                }
+                addReport(document, student, statistics);
+                // Push the finished pages out to the file
+                writer.flush();
+            } catch (DocumentException e) {
+                throw new IOException("Error writing report for " + student.getId() + ": " + e.getMessage(), e);
+            }
+        }
+        
+        @Override
+        public void close() throws IOException {
+            try {
+                if (getReportCount() == 0) {
+                    // iText cannot close a document without pages
+                    document.add(new Paragraph("No students to report.", NORMAL_FONT));
+                }
+                document.close();
+            } catch (DocumentException e) {
+                throw new IOException("Error finishing report book: " + e.getMessage(), e);
+            } finally {
+                out.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package util;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import model.GradingScale;
+
+/**
+ * Summary of a group of marks: count, mean, spread, percentiles, grade
+ * distribution and rank.
+ *
+ * Mean, standard deviation, minimum and maximum are exact. Median,
+ * percentiles, distribution and rank use marks rounded to two decimals, as
+ * they are on report cards; marks outside 0 to 100 count as 0 or 100. Small
+ * groups keep their rounded marks in a sorted array; only groups with more
+ * than {@link #HISTOGRAM_THRESHOLD} marks switch to a count per hundredth.
+ */
+public final class MarkStatistics {
+    
+    static final int SLOTS = 100 * 100;
+    // Above this many marks a count per hundredth takes less memory than the marks
+    static final int HISTOGRAM_THRESHOLD = SLOTS / 4;
+    
+    private final long count;
+    private final double mean;
+    private final double standardDeviation;
+    private final double min;
+    private final double max;
+    // Number of marks at or below each hundredth, for large groups; otherwise null
+    private final long[] cumulative;
+    // Hundredth of every mark in ascending order, for small groups; otherwise null
+    private final int[] sortedSlots;
+    private final GradingScale scale;
+    
+    private MarkStatistics(Accumulator accumulator, GradingScale scale) {
+        this.count = accumulator.count;
+        this.mean = accumulator.mean;
+        this.standardDeviation = count == 0 ? 0.0 : Math.sqrt(accumulator.squaredDeviations / count);
+        this.min = count == 0 ? 0.0 : accumulator.min;
+        this.max = count == 0 ? 0.0 : accumulator.max;
+        if (accumulator.histogram != null) {
+            this.cumulative = new long[SLOTS + 1];
+            this.sortedSlots = null;
+            long running = 0;
+            for (int slot = 0; slot <= SLOTS; slot++) {
+                running += accumulator.histogram[slot];
+                cumulative[slot] = running;
+            }
+        } else {
+            this.cumulative = null;
+            this.sortedSlots = Arrays.copyOf(accumulator.slots, (int) count);
+            Arrays.sort(sortedSlots);
+        }
+        this.scale = scale;
+    }
+    
+    public long getCount() {
+        return count;
+    }
+    
+    public double getMean() {
+        return mean;
+    }
+    
+    // Population standard deviation
+    public double getStandardDeviation() {
+        return standardDeviation;
+    }
+    
+    public double getMin() {
+        return min;
+    }
+    
+    public double getMax() {
+        return max;
+    }
+    
+    public double getMedian() {
+        return getPercentile(50);
+    }
+    
+    /**
+     * Nearest-rank percentile: the lowest mark that at least the given share
+     * of marks is at or below
+     *
+     * @param percent Percentile from 0 to 100
+     * @return The mark, or 0 if there are no marks
+     */
+    public double getPercentile(double percent) {
+        if (count == 0) {
+            return 0.0;
+        }
+        long rank = Math.min(count, Math.max(1, (long) Math.ceil(percent / 100 * count)));
+        if (sortedSlots != null) {
+            return sortedSlots[(int) rank - 1] / 100.0;
+        }
+        // First hundredth with at least rank marks at or below it
+        int low = 0;
+        int high = SLOTS;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (cumulative[mid] < rank) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low / 100.0;
+    }
+    
+    // Rank of a mark within the group: 1 plus the number of marks above it
+    public long getRank(double mark) {
+        return 1 + count - countAtOrBelow(slotOf(mark));
+    }
+    
+    // Number of marks in each grade of the group's scale, highest grade first
+    public Map<String, Long> getGradeDistribution() {
+        Map<String, Long> distribution = new LinkedHashMap<>();
+        for (int band = scale.getBandCount() - 1; band >= 0; band--) {
+            int first = slotOf(scale.getMinMark(band));
+            int last = band + 1 < scale.getBandCount() ? slotOf(scale.getMinMark(band + 1)) - 1 : SLOTS;
+            long below = first == 0 ? 0 : countAtOrBelow(first - 1);
+            distribution.put(scale.getGrade(band), countAtOrBelow(last) - below);
+        }
+        return distribution;
+    }
+    
+    // Scale used for the grade distribution
+    public GradingScale getGradingScale() {
+        return scale;
+    }
+    
+    // Number of marks at or below a hundredth
+    private long countAtOrBelow(int slot) {
+        if (cumulative != null) {
+            return cumulative[slot];
+        }
+        // First position holding a higher hundredth
+        int low = 0;
+        int high = sortedSlots.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sortedSlots[mid] <= slot) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+    
+    static int slotOf(double mark) {
+        // NaN rounds to slot 0
+        return (int) Math.max(0, Math.min(SLOTS, Math.round(mark * 100)));
+    }
+    
+    /**
+     * Mergeable running totals for one group of marks. Partial accumulators
+     * built on different threads are combined with {@link #merge}. The
+     * hundredth of each mark is kept in a list until there are more than
+     * {@link #HISTOGRAM_THRESHOLD} of them, then counted in a histogram.
+     */
+    static final class Accumulator {
+        
+        private long count;
+        private double mean;
+        // Sum of squared differences from the mean (Welford / Chan et al.)
+        private double squaredDeviations;
+        private double min = Double.POSITIVE_INFINITY;
+        private double max = Double.NEGATIVE_INFINITY;
+        // Hundredth of each mark while the group is small; the first count entries are used
+        private int[] slots = new int[8];
+        // Marks per hundredth once the group is large; until then null
+        private int[] histogram;
+        
+        void add(double mark) {
+            addSlot(slotOf(mark));
+            count++;
+            double delta = mark - mean;
+            mean += delta / count;
+            squaredDeviations += delta * (mark - mean);
+            min = Math.min(min, mark);
+            max = Math.max(max, mark);
+        }
+        
+        void merge(Accumulator other) {
+            if (other.count == 0) {
+                return;
+            }
+            mergeSlots(other);
+            long total = count + other.count;
+            double delta = other.mean - mean;
+            mean += delta * other.count / total;
+            squaredDeviations += other.squaredDeviations + delta * delta * count * other.count / total;
+            count = total;
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+        }
+        
+        // Record the hundredth of a mark not counted yet
+        private void addSlot(int slot) {
+            if (histogram == null && count == HISTOGRAM_THRESHOLD) {
+                toHistogram();
+            }
+            if (histogram != null) {
+                histogram[slot]++;
+                return;
+            }
+            if (count == slots.length) {
+                slots = Arrays.copyOf(slots, Math.min(slots.length * 2, HISTOGRAM_THRESHOLD));
+            }
+            slots[(int) count] = slot;
+        }
+        
+        // Add the hundredths of another accumulator's marks, before its count is added
+        private void mergeSlots(Accumulator other) {
+            long size = count + other.count;
+            if (histogram == null && other.histogram == null && size <= HISTOGRAM_THRESHOLD) {
+                if (size > slots.length) {
+                    int capacity = Math.max((int) size, slots.length * 2);
+                    slots = Arrays.copyOf(slots, Math.min(capacity, HISTOGRAM_THRESHOLD));
+                }
+                System.arraycopy(other.slots, 0, slots, (int) count, (int) other.count);
+                return;
+            }
+            if (histogram == null) {
+                toHistogram();
+            }
+            if (other.histogram != null) {
+                for (int slot = 0; slot <= SLOTS; slot++) {
+                    histogram[slot] += other.histogram[slot];
+                }
+            } else {
+                for (int i = 0; i < other.count; i++) {
+                    histogram[other.slots[i]]++;
+                }
+            }
+        }
+        
+        // Move the listed hundredths into a histogram and drop the list
+        private void toHistogram() {
+            histogram = new int[SLOTS + 1];
+            for (int i = 0; i < count; i++) {
+                histogram[slots[i]]++;
+            }
+            slots = null;
+        }
+        
+        MarkStatistics toStatistics(GradingScale scale) {
+            return new MarkStatistics(this, scale);
+        }
+    }
+}
@@ -0,0 +1,680 @@
+package util;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.text.DecimalFormatSymbols;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import model.Student;
+import model.Subject;
+
+/**
+ * A text report layout, compiled once and rendered for any number of
+ * students.
+ *
+ * A layout is plain text with placeholders in double braces. {@code {{name}}}
+ * inserts a value and {@code {{name:15}}} pads it with spaces to at least 15
+ * characters. Sections repeat or hide their contents:
+ * {@code {{#subjects}}...{{/subjects}}} once per subject,
+ * {@code {{#classComparison}}...{{/classComparison}}} only when class
+ * statistics are given, and inside it
+ * {@code {{#classSubjects}}...{{/classSubjects}}} once per subject the class
+ * has statistics for. A section tag alone on its line leaves no blank line.
+ *
+ * Student fields: id, name, age, grade, overallAverage, overallGrade, gpa,
+ * result, present, absent, late, excused, attendancePercentage,
+ * recentAttendancePercentage (last 30 days) and date. Subject fields: subject,
+ * mark and subjectGrade. Class fields: classRank, classSize, classAverage,
+ * classMedian, classStandardDeviation, subjectClassAverage and
+ * subjectClassMedian.
+ *
+ * Compiling splits the layout into literal text and typed slots, so
+ * rendering only copies text and formats numbers. Counts and decimals come
+ * out as {@code %d} and {@code %.2f} would print them in the default
+ * locale. Each thread renders into its own buffers, which are reused from
+ * one report to the next, and writes the file through a {@link FileChannel}
+ * in the platform's default charset.
+ */
+public final class ReportTemplate {
+    
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+    private static final ThreadLocal<Renderer> RENDERERS = ThreadLocal.withInitial(Renderer::new);
+    
+    private final Node[] nodes;
+    
+    private ReportTemplate(Node[] nodes) {
+        this.nodes = nodes;
+    }
+    
+    /**
+     * Compile a layout
+     *
+     * @param layout Layout text; line breaks are written as the platform's line separator
+     * @return The compiled template
+     * @throws IllegalArgumentException If a placeholder is unknown, misplaced or not closed
+     */
+    public static ReportTemplate compile(String layout) {
+        Parser parser = new Parser(layout.replace("\r\n", "\n"));
+        Node[] nodes = parser.parse(null, Scope.STUDENT);
+        return new ReportTemplate(nodes);
+    }
+    
+    // Compile a layout read from a UTF-8 text file
+    public static ReportTemplate load(Path file) throws IOException {
+        return compile(new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+    }
+    
+    /**
+     * Render a student's report and write it to a file
+     *
+     * @param student Student object containing report data
+     * @param statistics Statistics of the student's class, or null to leave the class comparison out
+     * @param filePath Path where the report will be saved
+     * @throws IOException If there's an error writing to the file
+     */
+    public void write(Student student, ClassStatistics statistics, String filePath) throws IOException {
+        Renderer renderer = RENDERERS.get();
+        renderer.render(nodes, student, statistics);
+        renderer.writeTo(Paths.get(filePath));
+    }
+    
+    // Render a student's report as a string
+    public String render(Student student, ClassStatistics statistics) {
+        Renderer renderer = RENDERERS.get();
+        renderer.render(nodes, student, statistics);
+        return new String(renderer.chars, 0, renderer.length);
+    }
+    
+    // Which values are in reach at a point in the layout
+    private static final class Scope {
+        
+        static final int STUDENT = 1;
+        static final int SUBJECT = 2;
+        static final int CLASS = 4;
+        static final int CLASS_SUBJECT = 8;
+        
+        private Scope() {
+        }
+    }
+    
+    private enum Field {
+        ID("id", Scope.STUDENT),
+        NAME("name", Scope.STUDENT),
+        AGE("age", Scope.STUDENT),
+        GRADE("grade", Scope.STUDENT),
+        OVERALL_AVERAGE("overallAverage", Scope.STUDENT),
+        OVERALL_GRADE("overallGrade", Scope.STUDENT),
+        GPA("gpa", Scope.STUDENT),
+        RESULT("result", Scope.STUDENT),
+        PRESENT("present", Scope.STUDENT),
+        ABSENT("absent", Scope.STUDENT),
+        LATE("late", Scope.STUDENT),
+        EXCUSED("excused", Scope.STUDENT),
+        ATTENDANCE_PERCENTAGE("attendancePercentage", Scope.STUDENT),
+        RECENT_ATTENDANCE_PERCENTAGE("recentAttendancePercentage", Scope.STUDENT),
+        DATE("date", Scope.STUDENT),
+        SUBJECT("subject", Scope.SUBJECT | Scope.CLASS_SUBJECT),
+        MARK("mark", Scope.SUBJECT),
+        SUBJECT_GRADE("subjectGrade", Scope.SUBJECT),
+        CLASS_RANK("classRank", Scope.CLASS),
+        CLASS_SIZE("classSize", Scope.CLASS),
+        CLASS_AVERAGE("classAverage", Scope.CLASS),
+        CLASS_MEDIAN("classMedian", Scope.CLASS),
+        CLASS_STANDARD_DEVIATION("classStandardDeviation", Scope.CLASS),
+        SUBJECT_CLASS_AVERAGE("subjectClassAverage", Scope.CLASS_SUBJECT),
+        SUBJECT_CLASS_MEDIAN("subjectClassMedian", Scope.CLASS_SUBJECT);
+        
+        private static final Map<String, Field> BY_NAME = new HashMap<>();
+        
+        static {
+            for (Field field : values()) {
+                BY_NAME.put(field.placeholder, field);
+            }
+        }
+        
+        final String placeholder;
+        final int scope;
+        
+        Field(String placeholder, int scope) {
+            this.placeholder = placeholder;
+            this.scope = scope;
+        }
+    }
+    
+    private enum SectionKind {
+        SUBJECTS("subjects", Scope.STUDENT, Scope.SUBJECT),
+        CLASS_COMPARISON("classComparison", Scope.STUDENT, Scope.CLASS),
+        CLASS_SUBJECTS("classSubjects", Scope.CLASS, Scope.CLASS_SUBJECT);
+        
+        final String placeholder;
+        // Scope the section must be opened in, and the scope it adds for its contents
+        final int requires;
+        final int adds;
+        
+        SectionKind(String placeholder, int requires, int adds) {
+            this.placeholder = placeholder;
+            this.requires = requires;
+            this.adds = adds;
+        }
+        
+        static SectionKind named(String name) {
+            for (SectionKind kind : values()) {
+                if (kind.placeholder.equals(name)) {
+                    return kind;
+                }
+            }
+            return null;
+        }
+    }
+    
+    private interface Node {
+        void render(Renderer renderer);
+    }
+    
+    private static final class Text implements Node {
+        
+        private final char[] text;
+        
+        Text(String text) {
+            this.text = text.toCharArray();
+        }
+        
+        @Override
+        public void render(Renderer renderer) {
+            renderer.append(text);
+        }
+    }
+    
+    private static final class Slot implements Node {
+        
+        private final Field field;
+        private final int width;
+        
+        Slot(Field field, int width) {
+            this.field = field;
+            this.width = width;
+        }
+        
+        @Override
+        public void render(Renderer renderer) {
+            int start = renderer.length;
+            renderer.appendField(field);
+            renderer.pad(start, width);
+        }
+    }
+    
+    private static final class Section implements Node {
+        
+        private final SectionKind kind;
+        private final Node[] body;
+        
+        Section(SectionKind kind, Node[] body) {
+            this.kind = kind;
+            this.body = body;
+        }
+        
+        @Override
+        public void render(Renderer renderer) {
+            // Sections may be nested, so put back the subject of any enclosing one afterwards
+            Subject enclosingSubject = renderer.subject;
+            MarkStatistics enclosingMarks = renderer.subjectMarks;
+            switch (kind) {
+                case SUBJECTS:
+                    for (Subject subject : renderer.student.getSubjectList()) {
+                        renderer.subject = subject;
+                        renderAll(body, renderer);
+                    }
+                    break;
+                case CLASS_COMPARISON:
+                    if (renderer.classMarks != null) {
+                        renderAll(body, renderer);
+                    }
+                    break;
+                default:
+                    String grade = renderer.student.getGrade();
+                    for (Subject subject : renderer.student.getSubjectList()) {
+                        renderer.subjectMarks = renderer.statistics.getSubjectStatistics(grade, subject.getName());
+                        if (renderer.subjectMarks != null) {
+                            renderer.subject = subject;
+                            renderAll(body, renderer);
+                        }
+                    }
+                    break;
+            }
+            renderer.subject = enclosingSubject;
+            renderer.subjectMarks = enclosingMarks;
+        }
+    }
+    
+    private static void renderAll(Node[] nodes, Renderer renderer) {
+        for (Node node : nodes) {
+            node.render(renderer);
+        }
+    }
+    
+    // Splits a layout into nodes, checking each placeholder against the scope it is used in
+    private static final class Parser {
+        
+        private final String layout;
+        private int position;
+        
+        Parser(String layout) {
+            this.layout = layout;
+        }
+        
+        // Parse up to the end of the given section, or of the layout when section is null
+        Node[] parse(SectionKind section, int scope) {
+            List<Node> nodes = new ArrayList<>();
+            StringBuilder text = new StringBuilder();
+            while (position < layout.length()) {
+                int open = layout.indexOf("{{", position);
+                if (open < 0) {
+                    open = layout.length();
+                }
+                text.append(layout, position, open);
+                if (open == layout.length()) {
+                    position = open;
+                    break;
+                }
+                int close = layout.indexOf("}}", open + 2);
+                if (close < 0) {
+                    throw error("Unclosed placeholder", open);
+                }
+                String tag = layout.substring(open + 2, close).trim();
+                position = close + 2;
+                
+                if (tag.startsWith("#") || tag.startsWith("/")) {
+                    SectionKind kind = SectionKind.named(tag.substring(1).trim());
+                    if (kind == null) {
+                        throw error("Unknown section '" + tag.substring(1).trim() + "'", open);
+                    }
+                    skipStandaloneLineBreak(open);
+                    flushText(text, nodes);
+                    if (tag.startsWith("/")) {
+                        if (kind != section) {
+                            throw error("Unexpected {{/" + kind.placeholder + "}}", open);
+                        }
+                        return nodes.toArray(new Node[0]);
+                    }
+                    if ((scope & kind.adds) != 0) {
+                        throw error("{{#" + kind.placeholder + "}} cannot be nested in itself", open);
+                    }
+                    if ((scope & kind.requires) == 0) {
+                        throw error("{{#" + kind.placeholder + "}} must be inside {{#classComparison}}", open);
+                    }
+                    nodes.add(new Section(kind, parse(kind, scope | kind.adds)));
+                } else {
+                    flushText(text, nodes);
+                    nodes.add(slot(tag, scope, open));
+                }
+            }
+            if (section != null) {
+                throw error("Missing {{/" + section.placeholder + "}}", layout.length());
+            }
+            flushText(text, nodes);
+            return nodes.toArray(new Node[0]);
+        }
+        
+        private Slot slot(String tag, int scope, int offset) {
+            int colon = tag.indexOf(':');
+            String name = colon < 0 ? tag : tag.substring(0, colon).trim();
+            int width = 0;
+            if (colon >= 0) {
+                try {
+                    width = Integer.parseInt(tag.substring(colon + 1).trim());
+                } catch (NumberFormatException e) {
+                    throw error("Invalid width in {{" + tag + "}}", offset);
+                }
+                if (width < 0) {
+                    throw error("Invalid width in {{" + tag + "}}", offset);
+                }
+            }
+            Field field = Field.BY_NAME.get(name);
+            if (field == null) {
+                throw error("Unknown field '" + name + "'", offset);
+            }
+            if ((scope & field.scope) == 0) {
+                throw error("Field '" + name + "' must be inside " + sectionFor(field), offset);
+            }
+            return new Slot(field, width);
+        }
+        
+        private static String sectionFor(Field field) {
+            if ((field.scope & Scope.SUBJECT) != 0) {
+                return "{{#subjects}}";
+            }
+            return (field.scope & Scope.CLASS_SUBJECT) != 0 ? "{{#classSubjects}}" : "{{#classComparison}}";
+        }
+        
+        // Drop the line break after a section tag that has a line to itself
+        private void skipStandaloneLineBreak(int tagStart) {
+            boolean lineStart = tagStart == 0 || layout.charAt(tagStart - 1) == '\n';
+            if (lineStart && position < layout.length() && layout.charAt(position) == '\n') {
+                position++;
+            }
+        }
+        
+        private static void flushText(StringBuilder text, List<Node> nodes) {
+            if (text.length() > 0) {
+                nodes.add(new Text(text.toString().replace("\n", LINE_SEPARATOR)));
+                text.setLength(0);
+            }
+        }
+        
+        private IllegalArgumentException error(String message, int offset) {
+            int line = 1;
+            for (int i = 0; i < offset && i < layout.length(); i++) {
+                if (layout.charAt(i) == '\n') {
+                    line++;
+                }
+            }
+            return new IllegalArgumentException(message + " at line " + line + " of the report layout");
+        }
+    }
+    
+    // Per-thread rendering state: the report being rendered and the buffers it goes into
+    private static final class Renderer {
+        
+        // Above this, hundredths no longer fit comfortably in a double's precision
+        private static final double FAST_LIMIT = 1e7;
+        // Fractions this close to a half are rounded from the exact decimal instead
+        private static final double TIE_TOLERANCE = 1e-6;
+        
+        char[] chars = new char[4096];
+        int length;
+        private CharBuffer charView = CharBuffer.wrap(chars);
+        private final ByteBuffer bytes = ByteBuffer.allocateDirect(16 * 1024);
+        private final CharsetEncoder encoder = Charset.defaultCharset().newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        
+        // Locale the number symbols were looked up for
+        private Locale locale;
+        private char decimalSeparator;
+        private boolean asciiDigits;
+        private LocalDate today;
+        private char[] todayText;
+        
+        Student student;
+        ClassStatistics statistics;
+        MarkStatistics classMarks;
+        Subject subject;
+        MarkStatistics subjectMarks;
+        
+        void render(Node[] nodes, Student student, ClassStatistics statistics) {
+            refreshLocale();
+            LocalDate now = LocalDate.now();
+            if (!now.equals(today)) {
+                today = now;
+                todayText = DATE_FORMAT.format(now).toCharArray();
+            }
+            this.length = 0;
+            this.student = student;
+            this.statistics = statistics;
+            this.classMarks = statistics == null ? null : statistics.getGradeStatistics(student.getGrade());
+            try {
+                renderAll(nodes, this);
+            } finally {
+                // Do not keep the student reachable from the thread
+                this.student = null;
+                this.statistics = null;
+                this.classMarks = null;
+                this.subject = null;
+                this.subjectMarks = null;
+            }
+        }
+        
+        void writeTo(Path file) throws IOException {
+            charView.clear().limit(length);
+            encoder.reset();
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                bytes.clear();
+                while (true) {
+                    CoderResult result = encoder.encode(charView, bytes, true);
+                    if (result.isOverflow()) {
+                        drain(channel);
+                    } else {
+                        break;
+                    }
+                }
+                while (encoder.flush(bytes).isOverflow()) {
+                    drain(channel);
+                }
+                drain(channel);
+            }
+        }
+        
+        private void drain(FileChannel channel) throws IOException {
+            bytes.flip();
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            bytes.clear();
+        }
+        
+        void appendField(Field field) {
+            switch (field) {
+                case ID:
+                    append(student.getId());
+                    break;
+                case NAME:
+                    append(student.getName());
+                    break;
+                case AGE:
+                    // Printed with plain digits in every locale, as the report has always done
+                    appendAsciiLong(student.getAge());
+                    break;
+                case GRADE:
+                    append(student.getGrade());
+                    break;
+                case OVERALL_AVERAGE:
+                    appendDecimal(student.calculateOverallAverage());
+                    break;
+                case OVERALL_GRADE:
+                    append(student.calculateOverallGrade());
+                    break;
+                case GPA:
+                    appendDecimal(student.calculateGpa());
+                    break;
+                case RESULT:
+                    append(student.isPassing() ? "Pass" : "Fail");
+                    break;
+                case PRESENT:
+                    appendLong(student.getAttendanceRecord().countPresent());
+                    break;
+                case ABSENT:
+                    appendLong(student.getAttendanceRecord().countAbsent());
+                    break;
+                case LATE:
+                    appendLong(student.getAttendanceRecord().countLate());
+                    break;
+                case EXCUSED:
+                    appendLong(student.getAttendanceRecord().countExcused());
+                    break;
+                case ATTENDANCE_PERCENTAGE:
+                    appendDecimal(student.getAttendanceRecord().calculateAttendancePercentage());
+                    break;
+                case RECENT_ATTENDANCE_PERCENTAGE:
+                    appendDecimal(student.getAttendanceRecord().calculateRecentAttendancePercentage(30));
+                    break;
+                case DATE:
+                    append(todayText);
+                    break;
+                case SUBJECT:
+                    append(subject.getName());
+                    break;
+                case MARK:
+                    appendDecimal(subject.getMark());
+                    break;
+                case SUBJECT_GRADE:
+                    append(subject.getGrade());
+                    break;
+                case CLASS_RANK:
+                    appendLong(statistics.getRankInGrade(student));
+                    break;
+                case CLASS_SIZE:
+                    appendLong(classMarks.getCount());
+                    break;
+                case CLASS_AVERAGE:
+                    appendDecimal(classMarks.getMean());
+                    break;
+                case CLASS_MEDIAN:
+                    appendDecimal(classMarks.getMedian());
+                    break;
+                case CLASS_STANDARD_DEVIATION:
+                    appendDecimal(classMarks.getStandardDeviation());
+                    break;
+                case SUBJECT_CLASS_AVERAGE:
+                    appendDecimal(subjectMarks.getMean());
+                    break;
+                default:
+                    appendDecimal(subjectMarks.getMedian());
+                    break;
+            }
+        }
+        
+        void append(char[] text) {
+            ensureCapacity(text.length);
+            System.arraycopy(text, 0, chars, length, text.length);
+            length += text.length;
+        }
+        
+        void append(String text) {
+            if (text == null) {
+                text = "null";
+            }
+            ensureCapacity(text.length());
+            text.getChars(0, text.length(), chars, length);
+            length += text.length();
+        }
+        
+        private void append(char c) {
+            ensureCapacity(1);
+            chars[length++] = c;
+        }
+        
+        // Pad what was appended since start with spaces, as %-Ns does
+        void pad(int start, int width) {
+            int padding = width - (length - start);
+            if (padding > 0) {
+                ensureCapacity(padding);
+                for (int i = 0; i < padding; i++) {
+                    chars[length++] = ' ';
+                }
+            }
+        }
+        
+        // Append a whole number as %d would
+        private void appendLong(long value) {
+            if (!asciiDigits) {
+                append(String.format(locale, "%d", value));
+                return;
+            }
+            appendAsciiLong(value);
+        }
+        
+        private void appendAsciiLong(long value) {
+            if (value == Long.MIN_VALUE) {
+                append(Long.toString(value));
+                return;
+            }
+            if (value < 0) {
+                append('-');
+                value = -value;
+            }
+            appendDigits(value, 1);
+        }
+        
+        // Append a number with two decimals as %.2f would: the shortest decimal that reads back as
+        // the same double, rounded half up
+        private void appendDecimal(double value) {
+            double magnitude = Math.abs(value);
+            if (asciiDigits && magnitude < FAST_LIMIT) {
+                double scaled = magnitude * 100;
+                long hundredths = (long) scaled;
+                double fraction = scaled - hundredths;
+                if (Math.abs(fraction - 0.5) > TIE_TOLERANCE) {
+                    if (fraction > 0.5) {
+                        hundredths++;
+                    }
+                    if (Double.doubleToRawLongBits(value) < 0) {
+                        append('-');
+                    }
+                    appendDigits(hundredths / 100, 1);
+                    append(decimalSeparator);
+                    appendDigits(hundredths % 100, 2);
+                    return;
+                }
+            }
+            appendDecimalSlowly(value);
+        }
+        
+        private void appendDecimalSlowly(double value) {
+            if (!asciiDigits || Double.isNaN(value) || Double.isInfinite(value)) {
+                append(String.format(locale, "%.2f", value));
+                return;
+            }
+            if (Double.doubleToRawLongBits(value) < 0) {
+                append('-');
+            }
+            String text = new BigDecimal(Double.toString(Math.abs(value)))
+                    .setScale(2, RoundingMode.HALF_UP).toPlainString();
+            append(decimalSeparator == '.' ? text : text.replace('.', decimalSeparator));
+        }
+        
+        // Append a non-negative number with at least the given number of digits
+        private void appendDigits(long value, int minDigits) {
+            int digits = 1;
+            for (long rest = value / 10; rest > 0; rest /= 10) {
+                digits++;
+            }
+            digits = Math.max(digits, minDigits);
+            ensureCapacity(digits);
+            for (int i = length + digits - 1; i >= length; i--) {
+                chars[i] = (char) ('0' + value % 10);
+                value /= 10;
+            }
+            length += digits;
+        }
+        
+        private void ensureCapacity(int extra) {
+            if (length + extra > chars.length) {
+                char[] grown = new char[Math.max(chars.length * 2, length + extra)];
+                System.arraycopy(chars, 0, grown, 0, length);
+                chars = grown;
+                charView = CharBuffer.wrap(chars);
+            }
+        }
+        
+        // Formatter uses the default format locale, which may change while the application runs
+        private void refreshLocale() {
+            Locale current = Locale.getDefault(Locale.Category.FORMAT);
+            if (!current.equals(locale)) {
+                DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance(current);
+                locale = current;
+                decimalSeparator = symbols.getDecimalSeparator();
+                asciiDigits = symbols.getZeroDigit() == '0';
+            }
+        }
+    }
+}
@@ -1,71 +1,100 @@
 package util;
 
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import model.AttendanceRecord.AttendanceStatus;
+import java.nio.file.Paths;
 import model.Student;
-import model.Subject;
 
 /**
- * Utility class for exporting student reports to text files
+ * Utility class for exporting student reports to text files.
+ *
+ * Reports are rendered from a {@link ReportTemplate}: the default layout
+ * below, or a custom layout file named by the
+ * {@code studentreport.textTemplate} system property.
  */
 public class TextExporter {
     
-    private static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd");
+    private static final String TEMPLATE_PROPERTY = "studentreport.textTemplate";
+    
+    // Standard report card layout; see ReportTemplate for the placeholders
+    public static final String DEFAULT_LAYOUT =
+            "============================================================\n" +
+            "\t\tSTUDENT REPORT CARD\n" +
+            "============================================================\n" +
+            "\n" +
+            "Student Information:\n" +
+            "------------------------------------------------------------\n" +
+            "ID: {{id}}\n" +
+            "Name: {{name}}\n" +
+            "Age: {{age}}\n" +
+            "Grade/Class: {{grade}}\n" +
+            "\n" +
+            "Academic Performance:\n" +
+            "------------------------------------------------------------\n" +
+            "Subject\t\tMark\t\tGrade\n" +
+            "------------------------------------------------------------\n" +
+            "{{#subjects}}\n" +
+            "{{subject:15}}\t{{mark}}\t\t{{subjectGrade}}\n" +
+            "{{/subjects}}\n" +
+            "------------------------------------------------------------\n" +
+            "Overall Average: {{overallAverage}}\n" +
+            "Overall Grade: {{overallGrade}}\n" +
+            "GPA: {{gpa}}\n" +
+            "Result: {{result}}\n" +
+            "\n" +
+            "{{#classComparison}}\n" +
+            "Class Comparison:\n" +
+            "------------------------------------------------------------\n" +
+            "Class Rank: {{classRank}} of {{classSize}}\n" +
+            "Class Average: {{classAverage}}\n" +
+            "Class Median: {{classMedian}}\n" +
+            "Standard Deviation: {{classStandardDeviation}}\n" +
+            "Subject\t\tClass Average\tClass Median\n" +
+            "{{#classSubjects}}\n" +
+            "{{subject:15}}\t{{subjectClassAverage}}\t\t{{subjectClassMedian}}\n" +
+            "{{/classSubjects}}\n" +
+            "\n" +
+            "{{/classComparison}}\n" +
+            "Attendance Information:\n" +
+            "------------------------------------------------------------\n" +
+            "Present: {{present}} days\n" +
+            "Absent: {{absent}} days\n" +
+            "Late: {{late}} days\n" +
+            "Excused: {{excused}} days\n" +
+            "Attendance Percentage: {{attendancePercentage}}%\n" +
+            "Last 30 Days: {{recentAttendancePercentage}}%\n" +
+            "\n" +
+            "============================================================\n" +
+            "Report Generated: {{date}}\n" +
+            "============================================================\n";
+    
+    private static final ReportTemplate TEMPLATE = loadTemplate();
     
     // Export student report to a text file
     public static void exportToText(Student student, String filePath) throws IOException {
-        try (PrintWriter writer = new PrintWriter(new FileWriter(filePath))) {
-            // Header
-            String border = "=".repeat(60);
-            writer.println(border);
-            writer.println("\t\tSTUDENT REPORT CARD");
-            writer.println(border);
-            writer.println();
-            
-            // Student Information
-            writer.println("Student Information:");
-            String line = "-".repeat(60);
-            writer.println(line);
-            writer.println("ID: " + student.getId());
-            writer.println("Name: " + student.getName());
-            writer.println("Age: " + student.getAge());
-            writer.println("Grade/Class: " + student.getGrade());
-            writer.println();
-            
-            // Academic Performance
-            writer.println("Academic Performance:");
-            writer.println(line);
-            writer.println("Subject\t\tMark\t\tGrade");
-            writer.println(line);
-            
-            for (Subject subject : student.getSubjectList()) {
-                writer.printf("%-15s\t%.2f\t\t%s%n", 
-                        subject.getName(), subject.getMark(), subject.getGrade());
+        exportToText(student, null, filePath);
+    }
+    
+    // Export student report to a text file, comparing the student with their class if statistics are given
+    public static void exportToText(Student student, ClassStatistics statistics, String filePath) throws IOException {
+        TEMPLATE.write(student, statistics, filePath);
+    }
+    
+    // Export student report to a text file with a custom layout
+    public static void exportToText(Student student, ClassStatistics statistics, ReportTemplate template, 
+            String filePath) throws IOException {
+        template.write(student, statistics, filePath);
+    }
+    
+    // The layout file named by the system property, or the default layout if there is none or it is invalid
+    private static ReportTemplate loadTemplate() {
+        String file = System.getProperty(TEMPLATE_PROPERTY);
+        if (file != null) {
+            try {
+                return ReportTemplate.load(Paths.get(file));
+            } catch (IOException | IllegalArgumentException e) {
+                System.err.println("Error loading report template: " + e.getMessage());
             }
-            
-            writer.println(line);
-            writer.printf("Overall Average: %.2f%n", student.calculateOverallAverage());
-            writer.printf("Overall Grade: %s%n", student.calculateOverallGrade());
-            writer.println();
-            
-            // Attendance Information
-            writer.println("Attendance Information:");
-            writer.println(line);
-            writer.printf("Present: %d days%n", student.getAttendanceRecord().countPresent());
-            writer.printf("Absent: %d days%n", student.getAttendanceRecord().countAbsent());
-            writer.printf("Late: %d days%n", student.getAttendanceRecord().countLate());
-            writer.printf("Attendance Percentage: %.2f%%%n", 
-                    student.getAttendanceRecord().calculateAttendancePercentage());
-            writer.println();
-            
-            // Footer
-            writer.println(border);
-            writer.println("Report Generated: " + DATE_FORMAT.format(new Date()));
-            writer.println(border);
         }
+        return ReportTemplate.compile(DEFAULT_LAYOUT);
     }
 }
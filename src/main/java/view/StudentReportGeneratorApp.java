@@ -1,18 +1,30 @@
 package view;
 
+import controller.RosterSnapshot;
 import controller.StudentController;
 import java.awt.*;
 import java.awt.event.*;
 import java.io.File;
+import java.io.IOException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
 import javax.swing.filechooser.FileNameExtensionFilter;
+import javax.swing.table.DefaultTableModel;
+import model.AttendanceRecord;
 import model.AttendanceRecord.AttendanceStatus;
 import model.Student;
 import model.Subject;
+import util.BatchReportExporter;
+import util.ClassStatistics;
+import util.CsvImporter;
 import util.PdfExporter;
 import util.TextExporter;
 
@@ -28,11 +40,21 @@ public class StudentReportGeneratorApp extends JFrame {
     
     // UI Components
     private JList<Student> studentList;
-    private DefaultListModel<Student> listModel;
+    private RosterListModel listModel;
     private JButton addButton;
     private JButton editButton;
     private JButton deleteButton;
     private JButton generateReportButton;
+    private JButton importButton;
+    private JButton rollCallButton;
+    private JButton rankingsButton;
+    private JButton batchExportButton;
+    
+    // Batch export choice for exporting every student
+    private static final String ALL_STUDENTS = "All Students";
+    
+    // Number of students in each list of the rankings dialog
+    private static final int RANKING_LIST_SIZE = 10;
     
     // Date formatter
     private static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd");
@@ -41,9 +63,24 @@ public class StudentReportGeneratorApp extends JFrame {
         // Initialize controller
         controller = new StudentController();
         
+        // Saving happens in the background; report failures on the EDT
+        controller.setPersistenceErrorListener(ex -> SwingUtilities.invokeLater(() ->
+                JOptionPane.showMessageDialog(this, 
+                        "Error saving student data: " + ex.getMessage(), 
+                        "Save Error", 
+                        JOptionPane.ERROR_MESSAGE)));
+        
         // Set up the frame
         setTitle("Student Report Generator");
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        
+        // Write any pending changes before the application exits
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                controller.close();
+            }
+        });
         setSize(800, 600);
         setLocationRelativeTo(null);
         
@@ -64,9 +101,11 @@ public class StudentReportGeneratorApp extends JFrame {
         leftPanel.setBorder(BorderFactory.createTitledBorder("Students"));
         
         // Create list model and JList
-        listModel = new DefaultListModel<>();
+        listModel = new RosterListModel();
         studentList = new JList<>(listModel);
         studentList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        // Size rows from a sample, so the list only decodes the students it shows
+        studentList.setPrototypeCellValue(new Student("STUDENT-000000", "Prototype Student Name", 0, ""));
         studentList.addListSelectionListener(e -> updateButtonStates());
         
         // Add all students to the list model
@@ -77,25 +116,37 @@ public class StudentReportGeneratorApp extends JFrame {
         leftPanel.add(scrollPane, BorderLayout.CENTER);
         
         // Create button panel
-        JPanel buttonPanel = new JPanel(new GridLayout(1, 4, 5, 0));
+        JPanel buttonPanel = new JPanel(new GridLayout(1, 8, 5, 0));
         
         // Create buttons
         addButton = new JButton("Add");
         editButton = new JButton("Edit");
         deleteButton = new JButton("Delete");
         generateReportButton = new JButton("Generate Report");
+        importButton = new JButton("Import CSV");
+        rollCallButton = new JButton("Roll Call");
+        rankingsButton = new JButton("Rankings");
+        batchExportButton = new JButton("Batch Export");
         
         // Add action listeners
         addButton.addActionListener(e -> showAddStudentDialog());
         editButton.addActionListener(e -> showEditStudentDialog());
         deleteButton.addActionListener(e -> deleteSelectedStudent());
         generateReportButton.addActionListener(e -> showGenerateReportDialog());
+        importButton.addActionListener(e -> importCsvFiles());
+        rollCallButton.addActionListener(e -> showRollCallDialog());
+        rankingsButton.addActionListener(e -> showRankingsDialog());
+        batchExportButton.addActionListener(e -> showBatchExportDialog());
         
         // Add buttons to panel
         buttonPanel.add(addButton);
         buttonPanel.add(editButton);
         buttonPanel.add(deleteButton);
         buttonPanel.add(generateReportButton);
+        buttonPanel.add(importButton);
+        buttonPanel.add(rollCallButton);
+        buttonPanel.add(rankingsButton);
+        buttonPanel.add(batchExportButton);
         
         // Update button states
         updateButtonStates();
@@ -118,10 +169,235 @@ public class StudentReportGeneratorApp extends JFrame {
     
     // Refresh the student list
     private void refreshStudentList() {
-        listModel.clear();
-        for (Student student : controller.getAllStudents()) {
-            listModel.addElement(student);
+        listModel.setSnapshot(controller.getSnapshot());
+    }
+    
+    // Import students, marks and attendance from CSV files in the background
+    private void importCsvFiles() {
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setDialogTitle("Import CSV Files");
+        fileChooser.setMultiSelectionEnabled(true);
+        fileChooser.setFileFilter(new FileNameExtensionFilter("CSV Files", "csv"));
+        if (fileChooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        File[] files = fileChooser.getSelectedFiles();
+        
+        importButton.setEnabled(false);
+        setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+        new SwingWorker<CsvImporter.ImportResult, Void>() {
+            @Override
+            protected CsvImporter.ImportResult doInBackground() throws Exception {
+                return new CsvImporter(controller).importFiles(Arrays.asList(files));
+            }
+            
+            @Override
+            protected void done() {
+                importButton.setEnabled(true);
+                setCursor(Cursor.getDefaultCursor());
+                refreshStudentList();
+                try {
+                    showImportResult(get());
+                } catch (Exception ex) {
+                    Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                    JOptionPane.showMessageDialog(StudentReportGeneratorApp.this, 
+                            "Error importing CSV files: " + cause.getMessage(), 
+                            "Import Error", 
+                            JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        }.execute();
+    }
+    
+    // Show the import counts and the rows that were rejected
+    private void showImportResult(CsvImporter.ImportResult result) {
+        String summary = "Imported " + result.getRowsImported() + " of " + result.getRowsRead() 
+                + " rows (" + result.getStudentsSaved() + " students saved).";
+        if (result.getErrorCount() == 0) {
+            JOptionPane.showMessageDialog(this, summary, "Import Complete", 
+                    JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+        
+        JTextArea errorArea = new JTextArea(15, 60);
+        errorArea.setEditable(false);
+        errorArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        for (CsvImporter.RowError error : result.getErrors()) {
+            errorArea.append(error + "\n");
+        }
+        if (result.getErrorCount() > result.getErrors().size()) {
+            errorArea.append("... and " + (result.getErrorCount() - result.getErrors().size()) 
+                    + " more\n");
+        }
+        errorArea.setCaretPosition(0);
+        
+        JPanel panel = new JPanel(new BorderLayout(5, 5));
+        panel.add(new JLabel(summary + " " + result.getErrorCount() + " rows were rejected:"), 
+                BorderLayout.NORTH);
+        panel.add(new JScrollPane(errorArea), BorderLayout.CENTER);
+        JOptionPane.showMessageDialog(this, panel, "Import Complete", JOptionPane.WARNING_MESSAGE);
+    }
+    
+    // Show dialog to export report cards for a whole grade/class or the whole roster
+    private void showBatchExportDialog() {
+        Set<String> grades = controller.getGrades();
+        if (grades.isEmpty()) {
+            JOptionPane.showMessageDialog(this, 
+                    "There are no students to export.", 
+                    "Batch Export", 
+                    JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+        
+        // Create form panel
+        JPanel formPanel = new JPanel(new GridLayout(4, 2, 5, 5));
+        JComboBox<String> scopeComboBox = new JComboBox<>();
+        scopeComboBox.addItem(ALL_STUDENTS);
+        for (String grade : grades) {
+            scopeComboBox.addItem(grade);
+        }
+        JComboBox<BatchReportExporter.Format> formatComboBox = 
+                new JComboBox<>(BatchReportExporter.Format.values());
+        JTextField directoryField = new JTextField(new File("reports").getAbsolutePath());
+        JButton browseButton = new JButton("Browse...");
+        browseButton.addActionListener(e -> {
+            JFileChooser fileChooser = new JFileChooser();
+            fileChooser.setDialogTitle("Export Reports To");
+            fileChooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+            if (fileChooser.showSaveDialog(this) == JFileChooser.APPROVE_OPTION) {
+                directoryField.setText(fileChooser.getSelectedFile().getAbsolutePath());
+            }
+        });
+        JCheckBox bookCheckBox = new JCheckBox("One PDF report book (one page per student)");
+        // A report book is always a PDF
+        bookCheckBox.addActionListener(e -> {
+            if (bookCheckBox.isSelected()) {
+                formatComboBox.setSelectedItem(BatchReportExporter.Format.PDF);
+            }
+            formatComboBox.setEnabled(!bookCheckBox.isSelected());
+        });
+        JPanel directoryPanel = new JPanel(new BorderLayout(5, 0));
+        directoryPanel.add(directoryField, BorderLayout.CENTER);
+        directoryPanel.add(browseButton, BorderLayout.EAST);
+        
+        formPanel.add(new JLabel("Students:"));
+        formPanel.add(scopeComboBox);
+        formPanel.add(new JLabel("Format:"));
+        formPanel.add(formatComboBox);
+        formPanel.add(new JLabel("Folder:"));
+        formPanel.add(directoryPanel);
+        formPanel.add(new JLabel(""));
+        formPanel.add(bookCheckBox);
+        
+        int choice = JOptionPane.showConfirmDialog(this, formPanel, "Batch Export", 
+                JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
+        if (choice != JOptionPane.OK_OPTION || directoryField.getText().trim().isEmpty()) {
+            return;
+        }
+        
+        String scope = (String) scopeComboBox.getSelectedItem();
+        List<Student> students = ALL_STUDENTS.equals(scope) 
+                ? controller.getAllStudents() : controller.getStudentsByGrade(scope);
+        File directory = new File(directoryField.getText().trim());
+        if (bookCheckBox.isSelected()) {
+            String bookName = BatchReportExporter.bookFileNameFor(scope);
+            runBatchExport(students, new File(directory, bookName), null);
+        } else {
+            runBatchExport(students, directory, (BatchReportExporter.Format) formatComboBox.getSelectedItem());
+        }
+    }
+    
+    // Export the reports in the background while a progress dialog offers to cancel;
+    // with no format the reports go into a single report book at the given path
+    private void runBatchExport(List<Student> students, File target, BatchReportExporter.Format format) {
+        BatchReportExporter exporter = new BatchReportExporter();
+        
+        JDialog progressDialog = new JDialog(this, "Exporting Reports", true);
+        progressDialog.setDefaultCloseOperation(JDialog.DO_NOTHING_ON_CLOSE);
+        JProgressBar progressBar = new JProgressBar(0, students.size());
+        progressBar.setStringPainted(true);
+        progressBar.setString("0 of " + students.size());
+        JButton cancelButton = new JButton("Cancel");
+        cancelButton.addActionListener(e -> {
+            exporter.cancel();
+            cancelButton.setEnabled(false);
+            progressBar.setString("Cancelling...");
+        });
+        
+        JPanel panel = new JPanel(new BorderLayout(10, 10));
+        panel.setBorder(new EmptyBorder(10, 10, 10, 10));
+        panel.add(new JLabel("Exporting " + students.size() + " reports to " + target), BorderLayout.NORTH);
+        panel.add(progressBar, BorderLayout.CENTER);
+        JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        buttonPanel.add(cancelButton);
+        panel.add(buttonPanel, BorderLayout.SOUTH);
+        progressDialog.add(panel);
+        progressDialog.pack();
+        progressDialog.setLocationRelativeTo(this);
+        
+        new SwingWorker<BatchReportExporter.Result, Integer>() {
+            @Override
+            protected BatchReportExporter.Result doInBackground() throws Exception {
+                BatchReportExporter.ProgressListener listener = (completed, total) -> publish(completed);
+                return format == null 
+                        ? exporter.exportBook(students, target, listener) 
+                        : exporter.export(students, target, format, listener);
+            }
+            
+            @Override
+            protected void process(List<Integer> chunks) {
+                int completed = chunks.get(chunks.size() - 1);
+                if (!exporter.isCancelled()) {
+                    progressBar.setValue(completed);
+                    progressBar.setString(completed + " of " + students.size());
+                }
+            }
+            
+            @Override
+            protected void done() {
+                progressDialog.dispose();
+                try {
+                    showBatchExportResult(get(), target);
+                } catch (Exception ex) {
+                    Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                    JOptionPane.showMessageDialog(StudentReportGeneratorApp.this, 
+                            "Error exporting reports: " + cause.getMessage(), 
+                            "Export Error", 
+                            JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        }.execute();
+        
+        // Blocks until the worker disposes the dialog
+        progressDialog.setVisible(true);
+    }
+    
+    // Show how many reports were written and which ones failed
+    private void showBatchExportResult(BatchReportExporter.Result result, File target) {
+        String summary = "Exported " + result.getWritten() + " of " + result.getTotal() 
+                + " reports to " + target + " in " + result.getElapsedMillis() / 1000.0 + " s.";
+        if (result.isCancelled()) {
+            summary += " The export was cancelled; " + result.getSkipped() + " reports were skipped.";
+        }
+        if (result.getFailures().isEmpty()) {
+            JOptionPane.showMessageDialog(this, summary, "Batch Export", 
+                    JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+        
+        JTextArea errorArea = new JTextArea(15, 60);
+        errorArea.setEditable(false);
+        errorArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        for (BatchReportExporter.Failure failure : result.getFailures()) {
+            errorArea.append(failure + "\n");
         }
+        errorArea.setCaretPosition(0);
+        
+        JPanel panel = new JPanel(new BorderLayout(5, 5));
+        panel.add(new JLabel("<html>" + summary + "<br>" + result.getFailures().size() 
+                + " reports failed:</html>"), BorderLayout.NORTH);
+        panel.add(new JScrollPane(errorArea), BorderLayout.CENTER);
+        JOptionPane.showMessageDialog(this, panel, "Batch Export", JOptionPane.WARNING_MESSAGE);
     }
     
     // Show dialog to add a new student
@@ -274,13 +550,14 @@ public class StudentReportGeneratorApp extends JFrame {
                     throw new NumberFormatException("Age must be positive");
                 }
                 
-                // Update student
-                student.setName(nameField.getText().trim());
-                student.setAge(age);
-                student.setGrade(gradeField.getText().trim());
-                
-                // Update in controller
-                controller.updateStudent(student);
+                // Update the student in the controller, which saves a changed copy
+                String name = nameField.getText().trim();
+                String grade = gradeField.getText().trim();
+                controller.modifyStudent(student.getId(), s -> {
+                    s.setName(name);
+                    s.setAge(age);
+                    s.setGrade(grade);
+                });
                 
                 // Refresh list and close dialog
                 refreshStudentList();
@@ -385,12 +662,9 @@ public class StudentReportGeneratorApp extends JFrame {
                         subjectNameField.getText().trim(),
                         mark);
                 
-                student.addSubject(subject);
+                controller.modifyStudent(student.getId(), s -> s.addSubject(subject));
                 subjectListModel.addElement(subject);
                 
-                // Update in controller
-                controller.updateStudent(student);
-                
                 // Clear fields
                 subjectNameField.setText("");
                 subjectMarkField.setText("");
@@ -415,11 +689,8 @@ public class StudentReportGeneratorApp extends JFrame {
             }
             
             // Remove subject
-            student.getSubjects().remove(selectedSubject.getName());
+            controller.modifyStudent(student.getId(), s -> s.removeSubject(selectedSubject.getName()));
             subjectListModel.removeElement(selectedSubject);
-            
-            // Update in controller
-            controller.updateStudent(student);
         });
         
         doneButton.addActionListener(e -> dialog.dispose());
@@ -450,7 +721,7 @@ public class StudentReportGeneratorApp extends JFrame {
         dialog.setLayout(new BorderLayout(10, 10));
         
         // Create form panel
-        JPanel formPanel = new JPanel(new GridLayout(3, 2, 5, 5));
+        JPanel formPanel = new JPanel(new GridLayout(4, 2, 5, 5));
         formPanel.setBorder(new EmptyBorder(10, 10, 10, 10));
         
         // Add form fields
@@ -474,12 +745,14 @@ public class StudentReportGeneratorApp extends JFrame {
         JLabel presentLabel = new JLabel("Present: " + student.getAttendanceRecord().countPresent() + " days");
         JLabel absentLabel = new JLabel("Absent: " + student.getAttendanceRecord().countAbsent() + " days");
         JLabel lateLabel = new JLabel("Late: " + student.getAttendanceRecord().countLate() + " days");
+        JLabel excusedLabel = new JLabel("Excused: " + student.getAttendanceRecord().countExcused() + " days");
         JLabel percentageLabel = new JLabel(String.format("Attendance Percentage: %.2f%%", 
                 student.getAttendanceRecord().calculateAttendancePercentage()));
         
         summaryPanel.add(presentLabel);
         summaryPanel.add(absentLabel);
         summaryPanel.add(lateLabel);
+        summaryPanel.add(excusedLabel);
         summaryPanel.add(percentageLabel);
         
         // Add action listener for add button
@@ -508,17 +781,21 @@ public class StudentReportGeneratorApp extends JFrame {
                 }
                 
                 // Add attendance record
-                student.getAttendanceRecord().recordAttendance(date, status);
-                
-                // Update in controller
-                controller.updateStudent(student);
+                Student updated = controller.modifyStudent(student.getId(),
+                        s -> s.getAttendanceRecord().recordAttendance(date, status));
+                if (updated == null) {
+                    dialog.dispose();
+                    return;
+                }
                 
                 // Update summary labels
-                presentLabel.setText("Present: " + student.getAttendanceRecord().countPresent() + " days");
-                absentLabel.setText("Absent: " + student.getAttendanceRecord().countAbsent() + " days");
-                lateLabel.setText("Late: " + student.getAttendanceRecord().countLate() + " days");
+                AttendanceRecord record = updated.getAttendanceRecord();
+                presentLabel.setText("Present: " + record.countPresent() + " days");
+                absentLabel.setText("Absent: " + record.countAbsent() + " days");
+                lateLabel.setText("Late: " + record.countLate() + " days");
+                excusedLabel.setText("Excused: " + record.countExcused() + " days");
                 percentageLabel.setText(String.format("Attendance Percentage: %.2f%%", 
-                        student.getAttendanceRecord().calculateAttendancePercentage()));
+                        record.calculateAttendancePercentage()));
                 
                 // Clear date field
                 dateField.setText("");
@@ -549,6 +826,236 @@ public class StudentReportGeneratorApp extends JFrame {
         dialog.setVisible(true);
     }
     
+    // Show dialog to record one day's attendance for a whole class
+    private void showRollCallDialog() {
+        Set<String> grades = controller.getGrades();
+        if (grades.isEmpty()) {
+            JOptionPane.showMessageDialog(this, 
+                    "There are no students to take attendance for.", 
+                    "Roll Call", 
+                    JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+        
+        // Create dialog
+        JDialog dialog = new JDialog(this, "Class Roll Call", true);
+        dialog.setSize(600, 500);
+        dialog.setLocationRelativeTo(this);
+        dialog.setLayout(new BorderLayout(10, 10));
+        
+        // Create form panel
+        JPanel formPanel = new JPanel(new GridLayout(2, 2, 5, 5));
+        formPanel.setBorder(new EmptyBorder(10, 10, 10, 10));
+        
+        JComboBox<String> gradeComboBox = new JComboBox<>(grades.toArray(new String[0]));
+        JTextField dateField = new JTextField(DATE_FORMAT.format(new Date()));
+        
+        formPanel.add(new JLabel("Grade/Class:"));
+        formPanel.add(gradeComboBox);
+        formPanel.add(new JLabel("Date (yyyy-MM-dd):"));
+        formPanel.add(dateField);
+        
+        // Create the class table; only the status column can be edited
+        DefaultTableModel tableModel = new DefaultTableModel(new Object[]{"ID", "Name", "Status"}, 0) {
+            private static final long serialVersionUID = 1L;
+            
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return column == 2;
+            }
+        };
+        JTable classTable = new JTable(tableModel);
+        classTable.getColumnModel().getColumn(2).setCellEditor(new DefaultCellEditor(
+                new JComboBox<>(new AttendanceStatus[]{AttendanceStatus.PRESENT, 
+                        AttendanceStatus.ABSENT, AttendanceStatus.LATE, AttendanceStatus.EXCUSED})));
+        
+        // Everyone starts as present
+        Runnable loadClass = () -> {
+            tableModel.setRowCount(0);
+            for (Student student : controller.getStudentsByGrade((String) gradeComboBox.getSelectedItem())) {
+                tableModel.addRow(new Object[]{student.getId(), student.getName(), AttendanceStatus.PRESENT});
+            }
+        };
+        gradeComboBox.addActionListener(e -> loadClass.run());
+        loadClass.run();
+        
+        // Create buttons
+        JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        JButton allPresentButton = new JButton("Mark All Present");
+        JButton saveButton = new JButton("Save");
+        JButton cancelButton = new JButton("Cancel");
+        
+        allPresentButton.addActionListener(e -> {
+            if (classTable.isEditing()) {
+                classTable.getCellEditor().stopCellEditing();
+            }
+            for (int row = 0; row < tableModel.getRowCount(); row++) {
+                tableModel.setValueAt(AttendanceStatus.PRESENT, row, 2);
+            }
+        });
+        
+        saveButton.addActionListener(e -> {
+            if (classTable.isEditing()) {
+                classTable.getCellEditor().stopCellEditing();
+            }
+            
+            Date date;
+            try {
+                date = DATE_FORMAT.parse(dateField.getText().trim());
+            } catch (ParseException ex) {
+                JOptionPane.showMessageDialog(dialog, 
+                        "Please enter date in yyyy-MM-dd format!", 
+                        "Date Format Error", 
+                        JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            
+            Map<String, AttendanceStatus> statuses = new HashMap<>();
+            for (int row = 0; row < tableModel.getRowCount(); row++) {
+                statuses.put((String) tableModel.getValueAt(row, 0), 
+                        (AttendanceStatus) tableModel.getValueAt(row, 2));
+            }
+            
+            // Record the whole class in one batch, in the background since it waits for the disk
+            String grade = (String) gradeComboBox.getSelectedItem();
+            saveButton.setEnabled(false);
+            allPresentButton.setEnabled(false);
+            cancelButton.setEnabled(false);
+            dialog.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+            new SwingWorker<Integer, Void>() {
+                @Override
+                protected Integer doInBackground() throws Exception {
+                    return controller.recordRollCall(grade, date, statuses);
+                }
+                
+                @Override
+                protected void done() {
+                    saveButton.setEnabled(true);
+                    allPresentButton.setEnabled(true);
+                    cancelButton.setEnabled(true);
+                    dialog.setCursor(Cursor.getDefaultCursor());
+                    refreshStudentList();
+                    try {
+                        int recorded = get();
+                        JOptionPane.showMessageDialog(dialog, 
+                                "Attendance recorded for " + recorded + " students.", 
+                                "Roll Call", 
+                                JOptionPane.INFORMATION_MESSAGE);
+                        dialog.dispose();
+                    } catch (Exception ex) {
+                        Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                        JOptionPane.showMessageDialog(dialog, 
+                                "Error saving roll call: " + cause.getMessage(), 
+                                "Save Error", 
+                                JOptionPane.ERROR_MESSAGE);
+                    }
+                }
+            }.execute();
+        });
+        
+        cancelButton.addActionListener(e -> dialog.dispose());
+        
+        buttonPanel.add(allPresentButton);
+        buttonPanel.add(saveButton);
+        buttonPanel.add(cancelButton);
+        
+        // Add panels to dialog
+        JPanel mainPanel = new JPanel(new BorderLayout(10, 10));
+        mainPanel.setBorder(new EmptyBorder(10, 10, 10, 10));
+        mainPanel.add(formPanel, BorderLayout.NORTH);
+        mainPanel.add(new JScrollPane(classTable), BorderLayout.CENTER);
+        mainPanel.add(buttonPanel, BorderLayout.SOUTH);
+        
+        dialog.add(mainPanel);
+        
+        // Show dialog
+        dialog.setVisible(true);
+    }
+    
+    // Show the best and weakest students of a grade/class
+    private void showRankingsDialog() {
+        Set<String> grades = controller.getGrades();
+        if (grades.isEmpty()) {
+            JOptionPane.showMessageDialog(this, 
+                    "There are no students to rank.", 
+                    "Rankings", 
+                    JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+        
+        // Create dialog
+        JDialog dialog = new JDialog(this, "Class Rankings", true);
+        dialog.setSize(500, 500);
+        dialog.setLocationRelativeTo(this);
+        dialog.setLayout(new BorderLayout(10, 10));
+        
+        // Create form panel
+        JPanel formPanel = new JPanel(new GridLayout(1, 2, 5, 5));
+        JComboBox<String> gradeComboBox = new JComboBox<>(grades.toArray(new String[0]));
+        formPanel.add(new JLabel("Grade/Class:"));
+        formPanel.add(gradeComboBox);
+        
+        // Create the ranking tables
+        DefaultTableModel topModel = new DefaultTableModel(new Object[]{"Rank", "Name", "Average"}, 0) {
+            private static final long serialVersionUID = 1L;
+            
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        };
+        DefaultTableModel bottomModel = new DefaultTableModel(new Object[]{"Rank", "Name", "Average"}, 0) {
+            private static final long serialVersionUID = 1L;
+            
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        };
+        
+        Runnable loadRankings = () -> {
+            String grade = (String) gradeComboBox.getSelectedItem();
+            topModel.setRowCount(0);
+            bottomModel.setRowCount(0);
+            for (Student student : controller.getTopStudents(grade, RANKING_LIST_SIZE)) {
+                topModel.addRow(new Object[]{controller.getClassRank(student), student.getName(), 
+                        String.format("%.2f", student.calculateOverallAverage())});
+            }
+            for (Student student : controller.getBottomStudents(grade, RANKING_LIST_SIZE)) {
+                bottomModel.addRow(new Object[]{controller.getClassRank(student), student.getName(), 
+                        String.format("%.2f", student.calculateOverallAverage())});
+            }
+        };
+        gradeComboBox.addActionListener(e -> loadRankings.run());
+        loadRankings.run();
+        
+        JPanel tablesPanel = new JPanel(new GridLayout(2, 1, 5, 5));
+        JScrollPane topPane = new JScrollPane(new JTable(topModel));
+        topPane.setBorder(BorderFactory.createTitledBorder("Top " + RANKING_LIST_SIZE));
+        JScrollPane bottomPane = new JScrollPane(new JTable(bottomModel));
+        bottomPane.setBorder(BorderFactory.createTitledBorder("Bottom " + RANKING_LIST_SIZE));
+        tablesPanel.add(topPane);
+        tablesPanel.add(bottomPane);
+        
+        // Create buttons
+        JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        JButton closeButton = new JButton("Close");
+        closeButton.addActionListener(e -> dialog.dispose());
+        buttonPanel.add(closeButton);
+        
+        // Add panels to dialog
+        JPanel mainPanel = new JPanel(new BorderLayout(10, 10));
+        mainPanel.setBorder(new EmptyBorder(10, 10, 10, 10));
+        mainPanel.add(formPanel, BorderLayout.NORTH);
+        mainPanel.add(tablesPanel, BorderLayout.CENTER);
+        mainPanel.add(buttonPanel, BorderLayout.SOUTH);
+        
+        dialog.add(mainPanel);
+        
+        // Show dialog
+        dialog.setVisible(true);
+    }
+    
     // Delete the selected student
     private void deleteSelectedStudent() {
         Student student = studentList.getSelectedValue();
@@ -599,10 +1106,19 @@ public class StudentReportGeneratorApp extends JFrame {
         
         previewArea.append("\nOverall Average: " + 
                 String.format("%.2f", student.calculateOverallAverage()) + 
-                " (" + student.calculateOverallGrade() + ")\n\n");
+                " (" + student.calculateOverallGrade() + ")\n");
+        
+        int classRank = controller.getClassRank(student);
+        if (classRank > 0) {
+            previewArea.append("Class Rank: " + classRank + " of " + 
+                    controller.getRankedCount(student.getGrade()) + "\n");
+        }
+        previewArea.append("\n");
         
         previewArea.append("Attendance: " + 
-                String.format("%.2f%%", student.getAttendanceRecord().calculateAttendancePercentage()));
+                String.format("%.2f%%", student.getAttendanceRecord().calculateAttendancePercentage()) + 
+                " (last 30 days: " + 
+                String.format("%.2f%%", student.getAttendanceRecord().calculateRecentAttendancePercentage(30)) + ")");
         
         // Add preview to scroll pane
         JScrollPane scrollPane = new JScrollPane(previewArea);
@@ -649,19 +1165,19 @@ public class StudentReportGeneratorApp extends JFrame {
                 File selectedFile = fileChooser.getSelectedFile();
                 
                 try {
-                    // Export based on selected option
-                    if (textOption.isSelected()) {
-                        TextExporter.exportToText(student, selectedFile.getAbsolutePath());
-                    } else {
-                        PdfExporter.exportToPdf(student, selectedFile.getAbsolutePath());
-                    }
+                    // Compare the student with the rest of their class
+                    ClassStatistics statistics = ClassStatistics.compute(
+                            controller.getStudentsByGrade(student.getGrade()));
                     
-                    // Close the dialog (the PDF exporter will show its own success message)
+                    // Export based on selected option
                     if (textOption.isSelected()) {
+                        TextExporter.exportToText(student, statistics, selectedFile.getAbsolutePath());
                         JOptionPane.showMessageDialog(dialog, 
                                 "Report successfully exported to:\n" + selectedFile.getAbsolutePath(), 
                                 "Export Successful", 
                                 JOptionPane.INFORMATION_MESSAGE);
+                    } else if (exportPdf(dialog, student, statistics, selectedFile)) {
+                        offerToOpen(dialog, selectedFile);
                     }
                     
                     dialog.dispose();
@@ -692,6 +1208,108 @@ public class StudentReportGeneratorApp extends JFrame {
         dialog.setVisible(true);
     }
     
+    // Export a PDF report, asking what to do when iText is missing or fails; false if nothing was exported
+    private boolean exportPdf(Component parent, Student student, ClassStatistics statistics, File file) 
+            throws IOException {
+        if (!PdfExporter.isITextAvailable()) {
+            // If iText library is not found, offer to download it before falling back to text export
+            int response = JOptionPane.showConfirmDialog(parent,
+                    "The iText library was not found in the lib directory.\n" +
+                    "Would you like to download it now?\n\n" +
+                    "If you select 'No', a simple text-based PDF will be created instead.",
+                    "iText Library Not Found",
+                    JOptionPane.YES_NO_OPTION);
+            
+            if (response == JOptionPane.YES_OPTION) {
+                // Open the download page
+                try {
+                    if (Desktop.isDesktopSupported()) {
+                        Desktop.getDesktop().browse(new java.net.URI("https://github.com/itext/itextpdf/releases"));
+                    }
+                } catch (Exception e) {
+                    System.err.println("Error opening download page: " + e.getMessage());
+                }
+                JOptionPane.showMessageDialog(parent,
+                        "After downloading, place the JAR file in the 'lib' directory\n" +
+                        "and rename it to 'itextpdf-5.5.13.3.jar' or update the code to match your version.",
+                        "Download Instructions",
+                        JOptionPane.INFORMATION_MESSAGE);
+                return false;
+            }
+            
+            JOptionPane.showMessageDialog(parent,
+                    "Using fallback mode: Creating a text-based PDF.\n\n" +
+                    "For proper PDF functionality, please install the iText library.",
+                    "Fallback Mode",
+                    JOptionPane.INFORMATION_MESSAGE);
+        }
+        
+        try {
+            PdfExporter.writePdf(student, statistics, file.getAbsolutePath());
+        } catch (IOException e) {
+            if (!PdfExporter.isITextAvailable()) {
+                throw e;
+            }
+            // If there's an error with iText, fall back to text-based export
+            JOptionPane.showMessageDialog(parent, 
+                    e.getMessage() + "\nFalling back to text-based export.",
+                    "PDF Generation Error",
+                    JOptionPane.WARNING_MESSAGE);
+            PdfExporter.writeTextBasedPdf(student, statistics, file.getAbsolutePath());
+        }
+        return true;
+    }
+    
+    // Offer to open an exported report
+    private void offerToOpen(Component parent, File file) {
+        int response = JOptionPane.showConfirmDialog(parent,
+                "Report exported successfully to:\n" + file.getAbsolutePath() + "\n\nWould you like to open it now?",
+                "Export Complete", 
+                JOptionPane.YES_NO_OPTION);
+        
+        if (response == JOptionPane.YES_OPTION) {
+            try {
+                Desktop.getDesktop().open(file);
+            } catch (Exception e) {
+                JOptionPane.showMessageDialog(parent,
+                        "Could not open the file. Please open it manually.",
+                        "Error Opening File",
+                        JOptionPane.ERROR_MESSAGE);
+            }
+        }
+    }
+    
+    // Student list backed by a roster snapshot, without copying the students
+    private static final class RosterListModel extends AbstractListModel<Student> {
+        
+        private static final long serialVersionUID = 1L;
+        
+        private transient RosterSnapshot snapshot;
+        
+        void setSnapshot(RosterSnapshot newSnapshot) {
+            int oldSize = getSize();
+            snapshot = null;
+            if (oldSize > 0) {
+                fireIntervalRemoved(this, 0, oldSize - 1);
+            }
+            snapshot = newSnapshot;
+            if (getSize() > 0) {
+                fireIntervalAdded(this, 0, getSize() - 1);
+            }
+        }
+        
+        @Override
+        public int getSize() {
+            return snapshot == null ? 0 : snapshot.size();
+        }
+        
+        // Null for a student removed since the snapshot was taken
+        @Override
+        public Student getElementAt(int index) {
+            return snapshot.get(index);
+        }
+    }
+    
     // Main method
     public static void main(String[] args) {
         // Set look and feel to system
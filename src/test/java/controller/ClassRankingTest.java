@@ -0,0 +1,108 @@
+package controller;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Tests for {@link ClassRanking}: after random adds, removals and average
+ * changes, with many tied averages, ranks and top/bottom lists must match a
+ * plainly sorted list.
+ */
+public class ClassRankingTest {
+    
+    // Few distinct averages, so most students tie with others
+    private static final double[] AVERAGES = {0.0, 49.5, 50.0, 72.25, 72.25, 90.0, 100.0};
+    
+    private final ClassRanking ranking = new ClassRanking();
+    private final Map<String, Double> averages = new HashMap<>();
+    private final Random random = new Random(11);
+    
+    @Test
+    public void randomChangesMatchSortedList() {
+        for (int step = 0; step < 3000; step++) {
+            String id = "S" + random.nextInt(60);
+            Double current = averages.get(id);
+            int operation = random.nextInt(3);
+            if (current == null) {
+                add(id);
+            } else if (operation == 0) {
+                ranking.remove(id, current);
+                averages.remove(id);
+            } else {
+                // A changed average is saved as a removal and an add, as the controller does
+                ranking.remove(id, current);
+                averages.remove(id);
+                add(id);
+            }
+            assertMatchesSortedList();
+        }
+    }
+    
+    @Test
+    public void emptyRankingHasNoStudents() {
+        assertEquals(0, ranking.size());
+        assertEquals(Collections.emptyList(), ranking.top(3));
+        assertEquals(Collections.emptyList(), ranking.bottom(3));
+        assertEquals(1, ranking.rankOf(50.0));
+    }
+    
+    @Test
+    public void tiedAveragesShareARankAndAreListedById() {
+        averages.put("B", 80.0);
+        averages.put("A", 80.0);
+        averages.put("C", 95.0);
+        averages.put("D", 60.0);
+        for (Map.Entry<String, Double> entry : averages.entrySet()) {
+            ranking.add(entry.getKey(), entry.getValue());
+        }
+        
+        assertEquals(Collections.singletonList("C"), ranking.top(1));
+        assertEquals(Arrays.asList("C", "A", "B", "D"), ranking.top(10));
+        assertEquals(Arrays.asList("D", "B"), ranking.bottom(2));
+        assertEquals(2, ranking.rankOf(80.0));
+        assertEquals(4, ranking.rankOf(60.0));
+        assertEquals(1, ranking.rankOf(99.0));
+    }
+    
+    private void add(String id) {
+        double average = AVERAGES[random.nextInt(AVERAGES.length)];
+        ranking.add(id, average);
+        averages.put(id, average);
+    }
+    
+    private void assertMatchesSortedList() {
+        List<String> sorted = new ArrayList<>(averages.keySet());
+        sorted.sort(Comparator.comparing((String id) -> -averages.get(id))
+                .thenComparing(Comparator.naturalOrder()));
+        int size = sorted.size();
+        assertEquals(size, ranking.size());
+        
+        for (int n = 0; n <= size + 1; n++) {
+            int count = Math.min(n, size);
+            assertEquals(sorted.subList(0, count), ranking.top(n));
+            List<String> bottom = new ArrayList<>(sorted.subList(size - count, size));
+            Collections.reverse(bottom);
+            assertEquals(bottom, ranking.bottom(n));
+        }
+        
+        double[] probes = {-1.0, 0.0, 25.0, 49.5, 50.0, 72.25, 80.0, 90.0, 100.0, 101.0};
+        for (double average : probes) {
+            int above = 0;
+            for (double other : averages.values()) {
+                if (other > average) {
+                    above++;
+                }
+            }
+            assertEquals(above + 1, ranking.rankOf(average));
+        }
+    }
+}
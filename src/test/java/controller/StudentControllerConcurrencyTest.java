@@ -0,0 +1,275 @@
+package controller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import model.AttendanceRecord;
+import model.AttendanceRecord.AttendanceStatus;
+import model.Student;
+import model.SubjectCatalog;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import util.CsvImporter;
+
+/**
+ * Stress tests for {@link StudentController}: many threads change the same
+ * students at once, and every change must survive, in memory and after the
+ * roster is loaded again from disk.
+ */
+public class StudentControllerConcurrencyTest {
+    
+    private static final int THREADS = 16;
+    private static final int ROUNDS = 400;
+    private static final int COUNTERS = 8;
+    private static final int CHURN_IDS = 8;
+    private static final String GRADE = "Grade 10";
+    private static final String CHURN_GRADE = "Grade 11";
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    private StudentController controller;
+    private ExecutorService threads;
+    
+    @Before
+    public void setUp() {
+        controller = new StudentController(folder.getRoot());
+        threads = Executors.newFixedThreadPool(THREADS);
+        for (int i = 0; i < COUNTERS; i++) {
+            controller.addStudent(new Student(counterId(i), "Counter " + i, 0, GRADE));
+        }
+    }
+    
+    @After
+    public void tearDown() throws Exception {
+        threads.shutdownNow();
+        threads.awaitTermination(10, TimeUnit.SECONDS);
+        if (controller != null) {
+            controller.close();
+        }
+    }
+    
+    @Test
+    public void concurrentModificationsOfTheSameStudentsLoseNoUpdates() throws Exception {
+        runOnAllThreads(thread -> {
+            for (int round = 0; round < ROUNDS; round++) {
+                // Every thread walks the counters in a different order
+                String id = counterId((thread + round) % COUNTERS);
+                assertNotNull(controller.modifyStudent(id, StudentControllerConcurrencyTest::increment));
+            }
+        });
+        
+        int expected = THREADS * ROUNDS / COUNTERS;
+        for (int i = 0; i < COUNTERS; i++) {
+            assertEquals(expected, controller.getStudentById(counterId(i)).getAge());
+        }
+        
+        reopen();
+        for (int i = 0; i < COUNTERS; i++) {
+            assertEquals(expected, controller.getStudentById(counterId(i)).getAge());
+        }
+    }
+    
+    @Test
+    public void modificationsDoNotChangeStudentsAlreadyRead() {
+        Student before = controller.getStudentById(counterId(0));
+        Student after = controller.modifyStudent(counterId(0), StudentControllerConcurrencyTest::increment);
+        
+        assertEquals(0, before.getAge());
+        assertEquals(1, after.getAge());
+        assertEquals(1, controller.getStudentById(counterId(0)).getAge());
+    }
+    
+    @Test
+    public void snapshotsDoNotShowLaterModifications() {
+        RosterSnapshot before = controller.getSnapshot();
+        controller.modifyStudent(counterId(0), StudentControllerConcurrencyTest::increment);
+        RosterSnapshot after = controller.getSnapshot();
+        
+        assertTrue(after.getVersion() > before.getVersion());
+        for (Student student : before) {
+            assertEquals(0, student.getAge());
+        }
+        int total = 0;
+        for (Student student : after) {
+            total += student.getAge();
+        }
+        assertEquals(1, total);
+    }
+    
+    @Test
+    public void modificationsSurviveConcurrentAddsAndRemovals() throws Exception {
+        runOnAllThreads(thread -> {
+            for (int round = 0; round < ROUNDS; round++) {
+                String churnId = "C" + (round % CHURN_IDS);
+                if ((thread + round) % 2 == 0) {
+                    controller.addStudent(new Student(churnId, "Churn", 0, CHURN_GRADE));
+                } else {
+                    Student student = controller.getStudentById(churnId);
+                    if (student != null) {
+                        controller.removeStudent(student);
+                    }
+                }
+                controller.modifyStudent(churnId, StudentControllerConcurrencyTest::increment);
+                controller.modifyStudent(counterId(round % COUNTERS),
+                        StudentControllerConcurrencyTest::increment);
+            }
+        });
+        
+        int expected = THREADS * ROUNDS / COUNTERS;
+        for (int i = 0; i < COUNTERS; i++) {
+            assertEquals(expected, controller.getStudentById(counterId(i)).getAge());
+        }
+        assertIndexesAgree();
+        
+        Set<String> churnIds = idsInGrade(CHURN_GRADE);
+        reopen();
+        assertEquals(churnIds, idsInGrade(CHURN_GRADE));
+        for (int i = 0; i < COUNTERS; i++) {
+            assertEquals(expected, controller.getStudentById(counterId(i)).getAge());
+        }
+    }
+    
+    @Test
+    public void rollCallsDoNotOverwriteConcurrentEdits() throws Exception {
+        long firstDay = AttendanceRecord.toEpochDay(new Date());
+        Future<?> rollCalls = threads.submit(() -> {
+            for (int day = 0; day < ROUNDS / 10; day++) {
+                controller.recordRollCall(GRADE, AttendanceRecord.toDate(firstDay + day),
+                        Collections.emptyMap());
+            }
+            return null;
+        });
+        runOnAllThreads(thread -> {
+            for (int round = 0; round < ROUNDS; round++) {
+                controller.modifyStudent(counterId((thread + round) % COUNTERS),
+                        StudentControllerConcurrencyTest::increment);
+            }
+        });
+        rollCalls.get(60, TimeUnit.SECONDS);
+        
+        int expected = THREADS * ROUNDS / COUNTERS;
+        for (int i = 0; i < COUNTERS; i++) {
+            Student student = controller.getStudentById(counterId(i));
+            assertEquals(expected, student.getAge());
+            assertEquals(ROUNDS / 10, student.getAttendanceRecord().count(AttendanceStatus.PRESENT));
+        }
+    }
+    
+    @Test
+    public void csvImportsDoNotOverwriteConcurrentEdits() throws Exception {
+        File marks = folder.newFile("marks.csv");
+        try (PrintWriter out = new PrintWriter(marks, "UTF-8")) {
+            out.println("id,subject,mark");
+            for (int i = 0; i < COUNTERS; i++) {
+                out.println(counterId(i) + ",Physics," + (50 + i));
+            }
+        }
+        CsvImporter importer = new CsvImporter(controller);
+        Future<?> imports = threads.submit(() -> {
+            for (int round = 0; round < ROUNDS / 10; round++) {
+                assertEquals(COUNTERS, importer.importFiles(Collections.singletonList(marks))
+                        .getStudentsSaved());
+            }
+            return null;
+        });
+        runOnAllThreads(thread -> {
+            for (int round = 0; round < ROUNDS; round++) {
+                controller.modifyStudent(counterId((thread + round) % COUNTERS),
+                        StudentControllerConcurrencyTest::increment);
+            }
+        });
+        imports.get(60, TimeUnit.SECONDS);
+        
+        int expected = THREADS * ROUNDS / COUNTERS;
+        int physics = SubjectCatalog.idOf("Physics");
+        for (int i = 0; i < COUNTERS; i++) {
+            Student student = controller.getStudentById(counterId(i));
+            assertEquals(expected, student.getAge());
+            assertEquals(50 + i, student.getMark(physics), 0.0);
+        }
+    }
+    
+    // Every student is in the grade index under its current grade, and nothing else is
+    private void assertIndexesAgree() {
+        Set<String> indexed = new HashSet<>();
+        for (String grade : controller.getGrades()) {
+            for (Student student : controller.getStudentsByGrade(grade)) {
+                assertEquals(grade, student.getGrade());
+                assertTrue("Listed twice: " + student.getId(), indexed.add(student.getId()));
+            }
+        }
+        Set<String> stored = new HashSet<>();
+        for (Student student : controller.getAllStudents()) {
+            stored.add(student.getId());
+        }
+        assertEquals(stored, indexed);
+    }
+    
+    private Set<String> idsInGrade(String grade) {
+        Set<String> ids = new HashSet<>();
+        for (Student student : controller.getStudentsByGrade(grade)) {
+            ids.add(student.getId());
+        }
+        return ids;
+    }
+    
+    // Close the controller, which flushes the journal, and load the roster again
+    private void reopen() {
+        controller.close();
+        controller = null;
+        controller = new StudentController(folder.getRoot());
+    }
+    
+    // Run the task on every thread at once and rethrow the first failure
+    private void runOnAllThreads(ThreadTask task) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Void>> results = new ArrayList<>();
+        for (int thread = 0; thread < THREADS; thread++) {
+            int index = thread;
+            Callable<Void> call = () -> {
+                start.await();
+                task.run(index);
+                return null;
+            };
+            results.add(threads.submit(call));
+        }
+        start.countDown();
+        for (Future<Void> result : results) {
+            result.get(60, TimeUnit.SECONDS);
+        }
+    }
+    
+    // Read-modify-write with a pause in between, so an unguarded update would be lost
+    private static void increment(Student student) {
+        int age = student.getAge();
+        Thread.yield();
+        student.setAge(age + 1);
+    }
+    
+    private static String counterId(int index) {
+        return "S" + index;
+    }
+    
+    private interface ThreadTask {
+        void run(int thread) throws Exception;
+    }
+}
@@ -0,0 +1,154 @@
+package model;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import model.AttendanceRecord.AttendanceStatus;
+import org.junit.Test;
+
+/**
+ * Tests for {@link AttendanceRecord}: range counts and first/last searches
+ * over the 64-day block index, and the absence streak and rolling window,
+ * are compared with a plain scan of the recorded days.
+ */
+public class AttendanceRecordTest {
+    
+    private static final AttendanceStatus[] STATUSES = AttendanceStatus.values();
+    private static final long BASE_DAY = 19000;
+    
+    private final AttendanceRecord record = new AttendanceRecord();
+    private final TreeMap<Long, AttendanceStatus> days = new TreeMap<>();
+    private final Random random = new Random(5);
+    
+    @Test
+    public void rangeQueriesMatchScanAcrossBlocksAndGaps() {
+        for (int step = 0; step < 400; step++) {
+            // Days before and after the first one, so the packed array grows in both directions,
+            // with runs of adjacent days and long gaps, and some days overwritten
+            long day = BASE_DAY + (random.nextBoolean() ? random.nextInt(40)
+                    : random.nextInt(600) - 300);
+            record(day, STATUSES[random.nextInt(STATUSES.length)]);
+            // Queries between changes make the block index be rebuilt after each change
+            for (int query = 0; query < 10; query++) {
+                long from = BASE_DAY - 400 + random.nextInt(800);
+                assertRangeMatches(from, from + random.nextInt(200));
+            }
+        }
+        
+        // Every range starting or ending next to a multiple of 64 days from the first day
+        long first = days.firstKey();
+        long last = days.lastKey();
+        for (long edge = first - 1; edge <= last + 65; edge += 64) {
+            for (long from = edge - 2; from <= edge + 2; from++) {
+                long[] ends = {from - 1, from, from + 1, from + 63, from + 64, from + 65, last + 1};
+                for (long to : ends) {
+                    assertRangeMatches(from, to);
+                }
+            }
+        }
+        assertRangeMatches(Long.MIN_VALUE / 2, Long.MAX_VALUE / 2);
+    }
+    
+    @Test
+    public void emptyRecordHasNoDays() {
+        for (AttendanceStatus status : STATUSES) {
+            assertEquals(0, record.count(status, 0, Long.MAX_VALUE / 2));
+            assertEquals(AttendanceRecord.NO_DAY, record.findFirstDay(status, 0, Long.MAX_VALUE / 2));
+            assertEquals(AttendanceRecord.NO_DAY, record.findLastDay(status, 0, Long.MAX_VALUE / 2));
+        }
+        assertEquals(0, record.getAbsenceStreak());
+        assertEquals(0, record.getRollingRecordedDays());
+    }
+    
+    @Test
+    public void streakAndRollingWindowMatchScan() {
+        for (int step = 0; step < 2000; step++) {
+            // Mostly moving forward, sometimes jumping past the window or back into it
+            long latest = days.isEmpty() ? BASE_DAY : days.lastKey();
+            long day;
+            int move = random.nextInt(10);
+            if (move < 6) {
+                day = latest + random.nextInt(3);
+            } else if (move < 8) {
+                day = latest - random.nextInt(AttendanceRecord.ROLLING_WINDOW_DAYS + 5);
+            } else if (move < 9) {
+                day = latest + AttendanceRecord.ROLLING_WINDOW_DAYS - 1 + random.nextInt(3);
+            } else {
+                day = latest + random.nextInt(100);
+            }
+            // Absences often, so long streaks build up
+            AttendanceStatus status = random.nextInt(3) == 0 ? AttendanceStatus.ABSENT
+                    : STATUSES[random.nextInt(STATUSES.length)];
+            record(day, status);
+            assertTrendsMatch();
+        }
+    }
+    
+    @Test
+    public void copyKeepsDaysAndTrends() {
+        for (int step = 0; step < 200; step++) {
+            record(BASE_DAY + random.nextInt(120), STATUSES[random.nextInt(STATUSES.length)]);
+        }
+        AttendanceRecord copy = new AttendanceRecord(record);
+        assertEquals(record.getAttendanceMap(), copy.getAttendanceMap());
+        assertEquals(record.getAbsenceStreak(), copy.getAbsenceStreak());
+        assertEquals(record.getRollingRecordedDays(), copy.getRollingRecordedDays());
+        assertEquals(record.getRollingPresentDays(), copy.getRollingPresentDays());
+    }
+    
+    private void record(long day, AttendanceStatus status) {
+        record.recordAttendance(day, status);
+        days.put(day, status);
+    }
+    
+    private void assertRangeMatches(long from, long to) {
+        Map<Long, AttendanceStatus> range = from > to ? new TreeMap<>()
+                : days.subMap(from, true, to, true);
+        for (AttendanceStatus status : STATUSES) {
+            int count = 0;
+            long firstDay = AttendanceRecord.NO_DAY;
+            long lastDay = AttendanceRecord.NO_DAY;
+            for (Map.Entry<Long, AttendanceStatus> entry : range.entrySet()) {
+                if (entry.getValue() == status) {
+                    count++;
+                    if (firstDay == AttendanceRecord.NO_DAY) {
+                        firstDay = entry.getKey();
+                    }
+                    lastDay = entry.getKey();
+                }
+            }
+            String where = status + " from " + from + " to " + to;
+            assertEquals(where, count, record.count(status, from, to));
+            assertEquals(where, firstDay, record.findFirstDay(status, from, to));
+            assertEquals(where, lastDay, record.findLastDay(status, from, to));
+        }
+    }
+    
+    private void assertTrendsMatch() {
+        long latest = days.lastKey();
+        int streak = 0;
+        for (AttendanceStatus status : days.descendingMap().values()) {
+            if (status != AttendanceStatus.ABSENT) {
+                break;
+            }
+            streak++;
+        }
+        int windowDays = 0;
+        int windowPresent = 0;
+        for (AttendanceStatus status : days.subMap(latest - AttendanceRecord.ROLLING_WINDOW_DAYS, false,
+                latest, true).values()) {
+            windowDays++;
+            if (status == AttendanceStatus.PRESENT) {
+                windowPresent++;
+            }
+        }
+        
+        assertEquals(latest, record.getLastRecordedDay());
+        assertEquals(streak, record.getAbsenceStreak());
+        assertEquals(windowDays, record.getRollingRecordedDays());
+        assertEquals(windowPresent, record.getRollingPresentDays());
+        assertEquals(days.size(), record.getRecordedDays());
+    }
+}
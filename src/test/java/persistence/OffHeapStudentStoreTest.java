@@ -0,0 +1,210 @@
+package persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import model.AttendanceRecord.AttendanceStatus;
+import model.Student;
+import model.SubjectCatalog;
+import org.junit.Test;
+
+/**
+ * Tests for {@link OffHeapStudentStore}: random puts and removals, many of
+ * them on IDs with the same hash code, are checked against a HashMap after
+ * every step, through lookups by ID and through cursors.
+ */
+public class OffHeapStudentStoreTest {
+    
+    private static final String[] GRADES = {"Grade 9", "Grade 10", null};
+    private static final int[] SUBJECTS = {
+        SubjectCatalog.idOf("Mathematics"), SubjectCatalog.idOf("Physics"),
+        SubjectCatalog.idOf("History")
+    };
+    
+    private final OffHeapStudentStore store = new OffHeapStudentStore();
+    private final Map<String, Student> expected = new HashMap<>();
+    private final Random random = new Random(42);
+    
+    @Test
+    public void churnOnCollidingIdsMatchesHashMap() {
+        // "Aa" and "BB" have the same hash code, so every ID built from them collides
+        List<String> ids = collidingIds(6);
+        for (int i = 0; i < 64; i++) {
+            ids.add("S" + i);
+        }
+        for (int step = 0; step < 5000; step++) {
+            String id = ids.get(random.nextInt(ids.size()));
+            if (random.nextInt(3) == 0) {
+                remove(id);
+            } else {
+                put(id);
+            }
+            assertFound(ids);
+            if (step % 100 == 0) {
+                assertMatches(ids);
+            }
+        }
+        assertMatches(ids);
+        assertCursorsMatch();
+    }
+    
+    @Test
+    public void growingAndShrinkingKeepsEveryStudent() {
+        // Several times the initial capacity, so rows, index and area all grow
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            ids.add("ID-" + i);
+            put(ids.get(i));
+        }
+        assertMatches(ids);
+        
+        for (int i = 0; i < ids.size(); i += 2) {
+            remove(ids.get(i));
+        }
+        assertMatches(ids);
+        assertCursorsMatch();
+        
+        // Removed rows are reused, and replaced values leave garbage for compaction
+        for (int round = 0; round < 3; round++) {
+            for (String id : ids) {
+                put(id);
+            }
+        }
+        assertMatches(ids);
+        assertCursorsMatch();
+    }
+    
+    @Test
+    public void emptyStoreHasNoRows() {
+        assertEquals(-1, store.firstRow());
+        assertEquals(-1, store.find("missing"));
+        assertTrue(!store.cursor().next());
+    }
+    
+    // All IDs of the given number of two-character blocks that are either "Aa" or "BB"
+    private static List<String> collidingIds(int blocks) {
+        List<String> ids = new ArrayList<>();
+        ids.add("");
+        for (int block = 0; block < blocks; block++) {
+            List<String> longer = new ArrayList<>();
+            for (String id : ids) {
+                longer.add(id + "Aa");
+                longer.add(id + "BB");
+            }
+            ids = longer;
+        }
+        return ids;
+    }
+    
+    private void put(String id) {
+        String name = random.nextInt(5) == 0 ? null : "Name " + random.nextInt(1000000);
+        String grade = GRADES[random.nextInt(GRADES.length)];
+        Student student = new Student(id, name, random.nextInt(20), grade);
+        for (int subjectId : SUBJECTS) {
+            if (random.nextBoolean()) {
+                student.putMark(subjectId, random.nextInt(10001) / 100.0);
+            }
+        }
+        AttendanceStatus[] statuses = AttendanceStatus.values();
+        for (int day = random.nextInt(5); day > 0; day--) {
+            student.getAttendanceRecord().recordAttendance(19000 + random.nextInt(100),
+                    statuses[random.nextInt(statuses.length)]);
+        }
+        store.put(student);
+        expected.put(id, student);
+    }
+    
+    private void remove(String id) {
+        int row = store.find(id);
+        if (row >= 0) {
+            store.remove(row);
+        }
+        expected.remove(id);
+    }
+    
+    // Every ID is found if and only if the map holds it, in a row holding that ID
+    private void assertFound(List<String> ids) {
+        assertEquals(expected.size(), store.size());
+        for (String id : ids) {
+            int row = store.find(id);
+            if (expected.containsKey(id)) {
+                assertTrue("Lost ID " + id, row >= 0);
+                assertEquals(id, store.readId(row));
+            } else {
+                assertEquals("Found removed ID " + id, -1, row);
+            }
+        }
+    }
+    
+    // Every ID is found if and only if the map holds it, with the same student
+    private void assertMatches(List<String> ids) {
+        assertEquals(expected.size(), store.size());
+        for (String id : ids) {
+            int row = store.find(id);
+            Student student = expected.get(id);
+            if (student == null) {
+                assertEquals("Found removed ID " + id, -1, row);
+            } else {
+                assertTrue("Lost ID " + id, row >= 0);
+                assertSameStudent(student, store.read(row));
+            }
+        }
+    }
+    
+    // A full cursor and cursors over split row ranges each visit every live row once
+    private void assertCursorsMatch() {
+        assertEquals(expected.keySet(), visit(store.cursor()));
+        
+        Set<String> visited = new HashSet<>();
+        int step = Math.max(1, store.rowLimit() / 7);
+        for (int from = 0; from < store.rowLimit(); from += step) {
+            for (String id : visit(store.cursor(from, Math.min(from + step, store.rowLimit())))) {
+                assertTrue("Visited twice: " + id, visited.add(id));
+            }
+        }
+        assertEquals(expected.keySet(), visited);
+    }
+    
+    private Set<String> visit(OffHeapStudentStore.Cursor cursor) {
+        Set<String> ids = new HashSet<>();
+        while (cursor.next()) {
+            String id = cursor.getId();
+            Student student = expected.get(id);
+            assertTrue("Visited twice or unknown: " + id, student != null && ids.add(id));
+            assertEquals(student.getName(), cursor.getName());
+            assertEquals(student.getAge(), cursor.getAge());
+            assertEquals(student.getGrade(), cursor.getGrade());
+            assertEquals(student.getSubjectCount(), cursor.getSubjectCount());
+            for (int subjectId : SUBJECTS) {
+                assertEquals(student.hasSubject(subjectId), cursor.hasSubject(subjectId));
+            }
+            assertEquals(student.calculateOverallAverage(), cursor.getOverallAverage(), 0.0);
+            for (AttendanceStatus status : AttendanceStatus.values()) {
+                assertEquals(student.getAttendanceRecord().count(status), cursor.count(status));
+            }
+        }
+        return ids;
+    }
+    
+    private static void assertSameStudent(Student expected, Student actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getName(), actual.getName());
+        assertEquals(expected.getAge(), actual.getAge());
+        assertEquals(expected.getGrade(), actual.getGrade());
+        for (int subjectId : SUBJECTS) {
+            assertEquals(expected.hasSubject(subjectId), actual.hasSubject(subjectId));
+            if (expected.hasSubject(subjectId)) {
+                assertEquals(expected.getMark(subjectId), actual.getMark(subjectId), 0.0);
+            }
+        }
+        assertEquals(expected.getAttendanceRecord().getAttendanceMap(),
+                actual.getAttendanceRecord().getAttendanceMap());
+    }
+}
@@ -0,0 +1,197 @@
+package persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import model.AttendanceRecord.AttendanceStatus;
+import model.Student;
+import model.SubjectCatalog;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for {@link StudentCodec}: students survive an encode/decode round
+ * trip with and without a string dictionary, and corrupt records are
+ * rejected with an IllegalArgumentException (an IOException from
+ * {@link BinarySnapshot}).
+ */
+public class StudentCodecTest {
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    @Test
+    public void studentWithNullFieldsRoundTrips() throws IOException {
+        assertRoundTrip(new Student("S1", null, 0, null));
+    }
+    
+    @Test
+    public void marksRoundTripIncludingEscapedOnes() throws IOException {
+        Student student = new Student("S2", "Marks", 15, "Grade 9");
+        // Hundredths are stored compactly; the rest need the escape and a full double
+        student.putMark(SubjectCatalog.idOf("Mathematics"), 87.25);
+        student.putMark(SubjectCatalog.idOf("Physics"), 100.0);
+        student.putMark(SubjectCatalog.idOf("Chemistry"), 0.0);
+        student.putMark(SubjectCatalog.idOf("History"), 33.333);
+        student.putMark(SubjectCatalog.idOf("Art"), -2.5);
+        student.putMark(SubjectCatalog.idOf("Music"), 1e10);
+        assertRoundTrip(student);
+    }
+    
+    @Test
+    public void oddAndEvenAttendanceCountsRoundTrip() throws IOException {
+        AttendanceStatus[] statuses = AttendanceStatus.values();
+        for (int days = 0; days <= 5; days++) {
+            Student student = new Student("S" + days, "Days " + days, 10, "Grade 5");
+            for (int i = 0; i < days; i++) {
+                // Uneven gaps, including ones too large for a single varint byte
+                student.getAttendanceRecord().recordAttendance(18000 + i * i * 40,
+                        statuses[i % statuses.length]);
+            }
+            assertRoundTrip(student);
+        }
+    }
+    
+    @Test
+    public void snapshotRoundTripsAllStudents() throws IOException {
+        Student first = new Student("A", null, 7, "Grade 1");
+        first.putMark(SubjectCatalog.idOf("Mathematics"), 12.345);
+        first.getAttendanceRecord().recordAttendance(19000, AttendanceStatus.ABSENT);
+        Student second = new Student("B", "Bee", 8, null);
+        File file = folder.newFile("students.dat");
+        BinarySnapshot.write(file, Arrays.asList(first, second));
+        
+        List<Student> students = BinarySnapshot.read(file);
+        assertEquals(2, students.size());
+        assertSameStudent(first, students.get(0));
+        assertSameStudent(second, students.get(1));
+    }
+    
+    @Test
+    public void negativeAttendanceCountIsRejected() throws IOException {
+        assertCorrupt(withAttendanceCount(-5));
+    }
+    
+    @Test
+    public void attendanceCountBeyondTheRecordIsRejected() throws IOException {
+        assertCorrupt(withAttendanceCount(Integer.MAX_VALUE));
+    }
+    
+    @Test
+    public void unknownAttendanceStatusIsRejected() throws IOException {
+        byte[] record = encode(studentWithOneDay());
+        // The last byte holds the status of the only day in its low four bits
+        record[record.length - 1] = 0x0F;
+        assertCorrupt(record);
+    }
+    
+    @Test
+    public void corruptSnapshotIsReportedAsIOException() throws IOException {
+        Student student = studentWithOneDay();
+        File file = folder.newFile("students.dat");
+        BinarySnapshot.write(file, Collections.singletonList(student));
+        
+        // With no grade or subjects the record is the same with or without a dictionary
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        byte[] record = encode(student);
+        int start = indexOf(bytes, record);
+        assertTrue("Record not found in snapshot", start >= 0);
+        bytes[start + record.length - 1] = 0x0F;
+        Files.write(file.toPath(), bytes);
+        
+        try {
+            BinarySnapshot.read(file);
+            fail("Corrupt snapshot was read");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().startsWith("Corrupt snapshot file"));
+        }
+    }
+    
+    // Encode inline and with a dictionary, and decode to an equal student
+    private static void assertRoundTrip(Student student) throws IOException {
+        byte[] inline = encode(student);
+        ByteBuffer in = ByteBuffer.wrap(inline);
+        assertSameStudent(student, StudentCodec.read(in, null));
+        assertEquals(0, in.remaining());
+        
+        StringDictionary dictionary = new StringDictionary();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        StudentCodec.write(student, new DataOutputStream(bytes), dictionary);
+        in = ByteBuffer.wrap(bytes.toByteArray());
+        assertSameStudent(student, StudentCodec.read(in, dictionary));
+        assertEquals(0, in.remaining());
+    }
+    
+    private static void assertSameStudent(Student expected, Student actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getName(), actual.getName());
+        assertEquals(expected.getAge(), actual.getAge());
+        assertEquals(expected.getGrade(), actual.getGrade());
+        assertEquals(expected.getSubjectCount(), actual.getSubjectCount());
+        for (int subjectId = expected.nextSubjectId(0); subjectId >= 0;
+                subjectId = expected.nextSubjectId(subjectId + 1)) {
+            assertTrue(actual.hasSubject(subjectId));
+            assertEquals(expected.getMark(subjectId), actual.getMark(subjectId), 0.0);
+        }
+        assertEquals(daysOf(expected), daysOf(actual));
+    }
+    
+    private static List<String> daysOf(Student student) {
+        List<String> days = new ArrayList<>();
+        student.getAttendanceRecord().forEachDay((status, day) -> days.add(day + "=" + status));
+        return days;
+    }
+    
+    private static Student studentWithOneDay() {
+        Student student = new Student("S1", "One", 12, null);
+        student.getAttendanceRecord().recordAttendance(19000, AttendanceStatus.LATE);
+        return student;
+    }
+    
+    // A record with no attendance whose day count is replaced
+    private static byte[] withAttendanceCount(int count) throws IOException {
+        byte[] record = encode(new Student("S1", "One", 12, null));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        // The day count 0 is the last byte of a record without attendance
+        out.write(record, 0, record.length - 1);
+        StudentCodec.writeVarInt(out, count);
+        return bytes.toByteArray();
+    }
+    
+    private static byte[] encode(Student student) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        StudentCodec.write(student, new DataOutputStream(bytes), null);
+        return bytes.toByteArray();
+    }
+    
+    private static void assertCorrupt(byte[] record) {
+        try {
+            StudentCodec.read(ByteBuffer.wrap(record), null);
+            fail("Corrupt record was decoded");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().startsWith("Corrupt attendance"));
+        }
+    }
+    
+    private static int indexOf(byte[] bytes, byte[] part) {
+        for (int i = 0; i + part.length <= bytes.length; i++) {
+            if (Arrays.equals(Arrays.copyOfRange(bytes, i, i + part.length), part)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,54 @@
+package util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import model.Student;
+import model.SubjectCatalog;
+import org.junit.Test;
+
+/**
+ * Tests for {@link ClassStatistics}: students without a grade/class are
+ * counted under a null grade next to the named grades.
+ */
+public class ClassStatisticsTest {
+    
+    private static final int MATHEMATICS = SubjectCatalog.idOf("Mathematics");
+    
+    @Test
+    public void studentsWithoutAGradeAreGroupedUnderNull() {
+        List<Student> students = new ArrayList<>();
+        students.add(student("S1", "Grade 9", 80.0));
+        students.add(student("S2", null, 60.0));
+        students.add(student("S3", null, 70.0));
+        students.add(student("S4", "Grade 10", 90.0));
+        ClassStatistics statistics = ClassStatistics.compute(students);
+        
+        assertEquals(4, statistics.getOverall().getCount());
+        assertEquals(2, statistics.getGradeStatistics(null).getCount());
+        assertEquals(65.0, statistics.getGradeStatistics(null).getMean(), 1e-9);
+        assertEquals(60.0, statistics.getSubjectStatistics(null, "Mathematics").getMin(), 0.0);
+        assertEquals(1, statistics.getRankInGrade(students.get(2)));
+        assertEquals(Arrays.asList(null, "Grade 10", "Grade 9"),
+                new ArrayList<>(statistics.getGradeStatistics().keySet()));
+    }
+    
+    @Test
+    public void rosterWithNoGradesAtAll() {
+        ClassStatistics statistics = ClassStatistics.compute(Arrays.asList(
+                student("S1", null, 50.0), new Student("S2", "No marks", 12, null)));
+        
+        assertEquals(1, statistics.getGradeStatistics(null).getCount());
+        assertNull(statistics.getGradeStatistics("Grade 9"));
+        assertEquals(0, statistics.getRankInGrade(student("S3", "Grade 9", 10.0)));
+    }
+    
+    private static Student student(String id, String grade, double mark) {
+        Student student = new Student(id, "Name " + id, 14, grade);
+        student.putMark(MATHEMATICS, mark);
+        return student;
+    }
+}